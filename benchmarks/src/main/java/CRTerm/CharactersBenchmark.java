@@ -0,0 +1,83 @@
+/*
+Copyright 2017 Tamas Bolner
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package CRTerm;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+
+/**
+ * The CPU side of the character store. Characters is created without a shader
+ * program, so the OpenGL upload is skipped and only the Java work is measured.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CharactersBenchmark {
+    @Param({ "80x25", "128x32" })
+    public String size;
+
+    private Characters characters;
+    private char[] line;
+    private char[] screen;
+
+    @Setup
+    public void setup() {
+        String[] parts = this.size.split("x");
+        int columns = Integer.parseInt(parts[0]);
+        int rows = Integer.parseInt(parts[1]);
+
+        this.characters = new Characters(columns, rows);
+        this.line = new char[columns];
+        this.screen = new char[columns * rows];
+
+        for (int i = 0; i < this.screen.length; i++) {
+            this.screen[i] = (char)(33 + i % 94);
+        }
+
+        System.arraycopy(this.screen, 0, this.line, 0, columns);
+        this.characters.setCharacters(this.screen);
+    }
+
+    @Benchmark
+    public void transpose() {
+        this.characters.transpose();
+    }
+
+    @Benchmark
+    public void scrollUp() {
+        this.characters.scrollUp();
+    }
+
+    @Benchmark
+    public void rotateUp() {
+        this.characters.rotateUp();
+    }
+
+    @Benchmark
+    public void setCharactersLine() {
+        this.characters.setCharacters(0, this.characters.getRows() / 2, this.line);
+    }
+
+    @Benchmark
+    public void setCharactersScreen() {
+        this.characters.setCharacters(this.screen);
+    }
+}
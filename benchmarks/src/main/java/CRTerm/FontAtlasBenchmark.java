@@ -0,0 +1,56 @@
+/*
+Copyright 2017 Tamas Bolner
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package CRTerm;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+
+/**
+ * Rasterization of the font atlas, and the pixel conversion done before the texture upload.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@State(Scope.Thread)
+public class FontAtlasBenchmark {
+    private byte[] font;
+    private FontAtlas atlas;
+
+    @Setup
+    public void setup() {
+        this.font = Kaypro_II_font.get();
+        this.atlas = new FontAtlas(this.font, 0x70fe80, 0.7d, 0.25d);
+    }
+
+    @Benchmark
+    public FontAtlas rasterize() {
+        return new FontAtlas(this.font, 0x70fe80, 0.7d, 0.25d);
+    }
+
+    @Benchmark
+    public int[] swizzle() {
+        return this.atlas.toRGBA();
+    }
+
+    @Benchmark
+    public byte[] coverage() {
+        return this.atlas.toCoverage();
+    }
+}
@@ -0,0 +1,69 @@
+/*
+Copyright 2017 Tamas Bolner
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package CRTerm;
+
+import java.nio.Buffer;
+import java.nio.ShortBuffer;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+
+/**
+ * Vertex and index generation of the character grid, without the VBO upload, and the
+ * reflow of a full screen of text to a narrower grid. (The CPU work of Terminal.setGridSize)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class GridBenchmark {
+    @Param({ "40x12", "80x25", "128x32" })
+    public String size;
+
+    private int columns;
+    private int rows;
+    private char[] text;
+
+    @Setup
+    public void setup() {
+        String[] parts = this.size.split("x");
+        this.columns = Integer.parseInt(parts[0]);
+        this.rows = Integer.parseInt(parts[1]);
+        this.text = new char[this.columns * this.rows];
+
+        for (int i = 0; i < this.text.length; i++) {
+            this.text[i] = i % 7 == 6 ? ' ' : (char)('a' + i % 26);
+        }
+    }
+
+    @Benchmark
+    public ShortBuffer createVertexData() {
+        return Grid.createVertexData(this.columns, this.rows);
+    }
+
+    @Benchmark
+    public Buffer createIndexData() {
+        return Grid.createIndexData(this.columns, this.rows);
+    }
+
+    @Benchmark
+    public char[] reflow() {
+        return Characters.resizeContent(this.text, this.columns, this.rows, this.columns * 3 / 4, this.rows, true);
+    }
+}
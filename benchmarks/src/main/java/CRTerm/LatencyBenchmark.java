@@ -0,0 +1,74 @@
+/*
+Copyright 2017 Tamas Bolner
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package CRTerm;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import static org.lwjgl.glfw.GLFW.*;
+
+
+/**
+ * Input latency vs. throughput with different frame-in-flight limits. A few cells change
+ * before every frame (the input), and Terminal.getInputLatency() measures the time until
+ * the GPU has finished the frame. The results are printed as JSON.
+ *
+ * Usage: java -cp benchmarks/target/benchmarks.jar CRTerm.LatencyBenchmark [frames] [vsync]
+ * Defaults: 600 frames, uncapped.
+ */
+public class LatencyBenchmark {
+    private static final int COLUMNS = 80;
+    private static final int ROWS = 25;
+    private static final int[] LIMITS = { 0, 3, 2, 1 };
+
+    public static void main(String[] args) throws Exception {
+        int frames = args.length > 0 ? Integer.parseInt(args[0]) : 600;
+        boolean vsync = args.length > 1 && Boolean.parseBoolean(args[1]);
+
+        Terminal terminal = new Terminal(COLUMNS, ROWS, 0x00FF00, 0.6d, 0.25d, 0.8d, 1.9d, 1280, 720, false);
+        terminal.setFrameScheduling(vsync ? FrameScheduler.Mode.VSYNC : FrameScheduler.Mode.UNCAPPED, 0);
+        Random random = new Random(42);
+        List<String> results = new ArrayList<>();
+
+        try {
+            for (int limit : LIMITS) {
+                terminal.setLowLatency(limit);
+                terminal.getInputLatency().clear();
+                long start = System.nanoTime();
+
+                for (int frame = 0; frame < frames; frame++) {
+                    glfwPollEvents();
+                    terminal.setCharacters(random.nextInt(COLUMNS), random.nextInt(ROWS), new char[] { (char)(32 + random.nextInt(95)) });
+                    terminal.renderFrame();
+                    terminal.swapBuffers();
+                }
+
+                long elapsed = System.nanoTime() - start;
+                RollingStatistics latency = terminal.getInputLatency();
+
+                results.add(String.format(Locale.ROOT,
+                        "    {\"maxFramesInFlight\": %d, \"framesPerSecond\": %.2f, \"latencyAvgMs\": %.3f, \"latencyP99Ms\": %.3f, \"samples\": %d}",
+                        limit, frames / (elapsed / 1e9), latency.getAverage() / 1e6, latency.getPercentile(99) / 1e6, latency.getCount()));
+            }
+        } finally {
+            terminal.close();
+        }
+
+        System.out.print(String.format(Locale.ROOT, "{\n  \"vsync\": %s,\n  \"limits\": [\n%s\n  ]\n}\n", vsync, String.join(",\n", results)));
+    }
+}
@@ -0,0 +1,142 @@
+/*
+Copyright 2017 Tamas Bolner
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package CRTerm;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.GL11;
+
+
+/**
+ * Image-diff check of the fused post-processing against the original five-pass pipeline.
+ * Both paths render the same sequence of frames (text changes, scrolling, geometry changes, fade-out)
+ * in a hidden window, and the frames are compared pixel by pixel. The vertical blur of the fused path isn't
+ * rounded to 8 bits before the composite, so a difference of 1 per channel is allowed.
+ * Exits with status 1 if any frame differs more.
+ *
+ * The curvature and the zoom change in the middle. Outside of the new grid the fused text pass has to
+ * fade the history of the old one, like the separate fade pass of the original path.
+ *
+ * Needs an OpenGL 3.2 context. Without a GPU, Mesa's llvmpipe can be used:
+ *      LIBGL_ALWAYS_SOFTWARE=1 java -cp benchmarks/target/benchmarks.jar CRTerm.PostProcessingDiff [frames] [tolerance]
+ */
+public class PostProcessingDiff {
+    private static final int WIDTH = 800;
+    private static final int HEIGHT = 600;
+    private static final int COLUMNS = 80;
+    private static final int ROWS = 25;
+    private static final int COMPARE_EVERY = 5;
+    private static final long FRAME_TIME = 16666667L;   // Fixed time step, so both paths fade the same way
+
+    public static void main(String[] args) throws Exception {
+        int frames = args.length > 0 ? Integer.parseInt(args[0]) : 60;
+        int tolerance = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+
+        List<ByteBuffer> expected = render(false, frames);
+        List<ByteBuffer> actual = render(true, frames);
+        boolean failed = false;
+
+        for (int i = 0; i < expected.size(); i++) {
+            ByteBuffer a = expected.get(i);
+            ByteBuffer b = actual.get(i);
+            int maxDifference = 0;
+            long differentPixels = 0;
+
+            for (int p = 0; p < WIDTH * HEIGHT; p++) {
+                int pixelDifference = 0;
+
+                for (int c = 0; c < 3; c++) {
+                    pixelDifference = Math.max(pixelDifference, Math.abs((a.get(p * 4 + c) & 0xff) - (b.get(p * 4 + c) & 0xff)));
+                }
+
+                if (pixelDifference > 0) {
+                    differentPixels++;
+                }
+
+                maxDifference = Math.max(maxDifference, pixelDifference);
+            }
+
+            System.out.println(String.format("frame %3d: max difference %3d, different pixels %8d",
+                    (i + 1) * COMPARE_EVERY, maxDifference, differentPixels));
+
+            if (maxDifference > tolerance) {
+                failed = true;
+            }
+        }
+
+        System.out.println(String.format("tolerance: %d per channel", tolerance));
+        System.out.println(failed ? "FAILED" : "OK");
+        System.exit(failed ? 1 : 0);
+    }
+
+    /**
+     * Render the frames with one of the paths, and read back every COMPARE_EVERY-th.
+     */
+    private static List<ByteBuffer> render(boolean fused, int frames) throws Exception {
+        Terminal terminal = new Terminal(COLUMNS, ROWS, 0x00FF00, 0.6d, 0.25d, 0.8d, 1.9d, WIDTH, HEIGHT, false);
+        List<ByteBuffer> result = new ArrayList<>();
+        Random random = new Random(7);
+        char[] line = new char[COLUMNS];
+
+        try {
+            terminal.setFrameScheduling(FrameScheduler.Mode.UNCAPPED, 0);
+            terminal.setFusedPostProcessing(fused);
+
+            for (int frame = 1; frame <= frames; frame++) {
+                /*
+                    New lines for a while, then nothing, so the fade-out is covered too.
+                 */
+                if (frame < frames / 2) {
+                    for (int i = 0; i < COLUMNS; i++) {
+                        line[i] = (char)(32 + random.nextInt(95));
+                    }
+
+                    terminal.scrollUp();
+                    terminal.setCharacters(0, ROWS - 1, line);
+                }
+
+                /*
+                    The outline of the grid moves, so parts of the screen are left with afterglow only.
+                 */
+                if (frame == frames / 3) {
+                    terminal.setCurvature(1.6d, 2.8d);
+                } else if (frame == frames * 2 / 3) {
+                    terminal.setCurvature(0.8d, 1.9d);
+                    terminal.setZoom(0.9d);
+                }
+
+                terminal.renderFrame(frame * FRAME_TIME);
+
+                if (frame % COMPARE_EVERY == 0) {
+                    ByteBuffer pixels = BufferUtils.createByteBuffer(WIDTH * HEIGHT * 4);
+                    GL11.glReadBuffer(GL11.GL_BACK);
+                    GL11.glReadPixels(0, 0, WIDTH, HEIGHT, GL11.GL_RGBA, GL11.GL_UNSIGNED_BYTE, pixels);
+                    result.add(pixels);
+                }
+
+                terminal.swapBuffers();
+            }
+        } finally {
+            terminal.close();
+        }
+
+        return result;
+    }
+}
@@ -0,0 +1,75 @@
+/*
+Copyright 2017 Tamas Bolner
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package CRTerm;
+
+import java.util.Arrays;
+import java.util.List;
+
+
+/**
+ * Plans the post-processing graph of the Terminal for each combination of the path (fused or
+ * original), the bloom, the fade and the bloom downsampling, and checks the culled pass list and the number of framebuffers
+ * after aliasing. Only plans, so it needs no display. Exits with status 1 on any mismatch.
+ *
+ * Prints the plan of each combination.
+ *
+ * Usage: java -cp benchmarks/target/benchmarks.jar CRTerm.RenderGraphCheck
+ */
+public class RenderGraphCheck {
+    private static final int WIDTH = 1920;
+    private static final int HEIGHT = 1080;
+
+    public static void main(String[] args) throws Exception {
+        int mismatches = 0;
+
+        mismatches += check(true, true, true, 1, 4, "text + fade", "downsample", "blur horizontal", "blur vertical + composite");
+        mismatches += check(true, true, false, 1, 3, "text", "downsample", "blur horizontal", "blur vertical + composite");
+        mismatches += check(true, true, true, 0, 3, "text + fade", "blur horizontal", "blur vertical + composite");
+        mismatches += check(true, true, false, 0, 2, "text", "blur horizontal", "blur vertical + composite");
+        mismatches += check(true, false, true, 0, 2, "text + fade", "present");
+        mismatches += check(true, false, false, 0, 1, "text", "present");
+        mismatches += check(false, true, true, 0, 4, "text", "fade", "blur horizontal", "blur vertical", "composite");
+        mismatches += check(false, true, false, 0, 3, "text", "blur horizontal", "blur vertical", "composite");
+        mismatches += check(false, true, true, 1, 4, "text", "fade", "blur horizontal", "blur vertical", "composite");
+        mismatches += check(false, false, true, 0, 3, "text", "fade", "present");
+        mismatches += check(false, false, false, 0, 1, "text", "present");
+
+        System.out.println(mismatches > 0 ? "FAILED" : "OK");
+        System.exit(mismatches > 0 ? 1 : 0);
+    }
+
+    /**
+     * Plan the graph of the Terminal (PostProcessingGraph) without executors.
+     */
+    private static int check(boolean fused, boolean bloom, boolean fade, int downsample, int targets, String... passes) throws Exception {
+        RenderGraph graph = PostProcessingGraph.create(null, name -> null);
+        PostProcessingGraph.configure(graph, fused, bloom, fade, downsample);
+
+        graph.setSize(WIDTH, HEIGHT, WIDTH, HEIGHT);
+        graph.plan();
+
+        List<String> live = graph.getLivePasses();
+        boolean ok = live.equals(Arrays.asList(passes)) && graph.getTargetCount() == targets;
+
+        System.out.println(String.format("fused: %s, bloom: %s, fade: %s, downsample: %d, framebuffers: %d, memory: %.1f MB%s",
+                fused, bloom, fade, downsample, graph.getTargetCount(), graph.getMemorySize() / 1048576d, ok ? "" : " MISMATCH"));
+        System.out.print(graph.describe());
+        System.out.println();
+
+        return ok ? 0 : 1;
+    }
+}
@@ -0,0 +1,232 @@
+/*
+Copyright 2017 Tamas Bolner
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package CRTerm;
+
+import java.io.FileWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import org.lwjgl.opengl.GL11;
+import static org.lwjgl.glfw.GLFW.*;
+
+
+/**
+ * End-to-end benchmark of the real render loop (character updates, renderFrame(), swapBuffers())
+ * in typical usage scenarios. The frames are uncapped, so the numbers show the cost of the frames,
+ * not the refresh rate of the monitor. The results are printed as JSON.
+ *
+ * Without a GPU, it can run on the llvmpipe software rasterizer of Mesa:
+ *      LIBGL_ALWAYS_SOFTWARE=1 java -cp benchmarks/target/benchmarks.jar CRTerm.ScenarioBenchmark
+ *
+ * Arguments (all optional): [frames per scenario] [output file] [width] [height] [visible]
+ * Defaults: 600 frames, stdout only, 1280x720, hidden window.
+ */
+public class ScenarioBenchmark {
+    private static final int COLUMNS = 80;
+    private static final int ROWS = 25;
+    private static final int WARMUP_FRAMES = 60;
+    private static final int RESIZE_INTERVAL = 8;
+
+    /**
+     * Modifies the characters before a frame.
+     */
+    private interface Scenario {
+        void update(Terminal terminal, int frame) throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int frames = args.length > 0 ? Integer.parseInt(args[0]) : 600;
+        String output = args.length > 1 ? args[1] : null;
+        int width = args.length > 2 ? Integer.parseInt(args[2]) : 1280;
+        int height = args.length > 3 ? Integer.parseInt(args[3]) : 720;
+        boolean visible = args.length > 4 && Boolean.parseBoolean(args[4]);
+
+        Terminal terminal = new Terminal(COLUMNS, ROWS, 0x00FF00, 0.6d, 0.25d, 0.8d, 1.9d, width, height, visible);
+        terminal.setFrameScheduling(FrameScheduler.Mode.UNCAPPED, 0);
+        String renderer = GL11.glGetString(GL11.GL_RENDERER);
+
+        Random random = new Random(42);
+        char[] line = new char[COLUMNS];
+        char[] screen = new char[COLUMNS * ROWS];
+
+        List<String> results = new ArrayList<>();
+
+        try {
+            /*
+                Nothing changes on the screen.
+             */
+            results.add(run("idle", terminal, frames, (term, frame) -> { }));
+
+            /*
+                The whole screen is rewritten in every frame. (Full-screen applications, like editors.)
+             */
+            results.add(run("full-redraw", terminal, frames, (term, frame) -> {
+                for (int i = 0; i < screen.length; i++) {
+                    screen[i] = (char)(32 + random.nextInt(95));
+                }
+
+                term.setCharacters(screen);
+            }));
+
+            /*
+                A program prints lines much faster than the frame rate, like "tail -f" of a busy log.
+             */
+            results.add(run("log-tail", terminal, frames, (term, frame) -> {
+                for (int n = 0; n < 8; n++) {
+                    term.scrollUp();
+                    int length = random.nextInt(COLUMNS);
+                    for (int i = 0; i < COLUMNS; i++) {
+                        line[i] = i < length ? (char)(32 + random.nextInt(95)) : ' ';
+                    }
+
+                    term.setCharacters(0, ROWS - 1, line);
+                }
+            }));
+
+            /*
+                Single cells change at random positions, like a clock or a progress indicator.
+             */
+            results.add(run("random-cells", terminal, frames, (term, frame) -> {
+                for (int n = 0; n < 4; n++) {
+                    term.setCharacters(random.nextInt(COLUMNS), random.nextInt(ROWS), new char[] { (char)(32 + random.nextInt(95)) });
+                }
+            }));
+
+            /*
+                The window is resized repeatedly, like while dragging its border. renderFrame() skips the frame
+                of each resize (and pauses after the reallocation), so the window changes only every few frames;
+                the frame times are of the rendered frames, and the reallocations are reported separately.
+             */
+            results.add(run("resize-storm", terminal, frames, (term, frame) -> {
+                if (frame % RESIZE_INTERVAL == 0) {
+                    int delta = (frame / RESIZE_INTERVAL % 16) * 8;
+                    glfwSetWindowSize(term.getWindowID(), width - delta, height - delta);
+                }
+            }));
+
+            glfwSetWindowSize(terminal.getWindowID(), width, height);
+        } finally {
+            terminal.close();
+        }
+
+        String json = String.format(Locale.ROOT,
+                "{\n  \"columns\": %d,\n  \"rows\": %d,\n  \"width\": %d,\n  \"height\": %d,\n  \"renderer\": \"%s\",\n  \"scenarios\": [\n%s\n  ]\n}\n",
+                COLUMNS, ROWS, width, height, escape(renderer),
+                String.join(",\n", results));
+
+        System.out.print(json);
+
+        if (output != null) {
+            try (Writer writer = new FileWriter(output)) {
+                writer.write(json);
+            }
+        }
+    }
+
+    /**
+     * Run one scenario, and return its results as a JSON object.
+     */
+    private static String run(String name, Terminal terminal, int frames, Scenario scenario) throws Exception {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        com.sun.management.OperatingSystemMXBean process = os instanceof com.sun.management.OperatingSystemMXBean ?
+                (com.sun.management.OperatingSystemMXBean)os : null;
+
+        for (int frame = 0; frame < WARMUP_FRAMES; frame++) {
+            frame(terminal, scenario, frame);
+        }
+
+        long[] frameTimes = new long[frames];
+        int rendered = 0;
+        long renderedTime = 0;
+        long threadCpu = 0;
+        long processCpu = 0;
+        long skippedThreadCpu = 0;
+        long skippedStart = terminal.getMetrics().getFramesSkipped();
+        long resizesStart = terminal.getMetrics().getResizeCount();
+        double resizeTimeStart = terminal.getMetrics().getResizeTimeAverageMillis() * resizesStart;
+
+        /*
+            Only the rendered frames are measured, the time and the CPU time too. A skipped frame (window resize)
+            includes the reallocation and the pause of renderFrame(); its CPU time is reported separately.
+         */
+        for (int frame = 0; frame < frames; frame++) {
+            long skippedBefore = terminal.getMetrics().getFramesSkipped();
+            long threadCpuStart = threads.getCurrentThreadCpuTime();
+            long processCpuStart = process != null ? process.getProcessCpuTime() : 0;
+            long frameStart = System.nanoTime();
+            frame(terminal, scenario, frame);
+            long frameTime = System.nanoTime() - frameStart;
+            long frameThreadCpu = threads.getCurrentThreadCpuTime() - threadCpuStart;
+
+            if (terminal.getMetrics().getFramesSkipped() == skippedBefore) {
+                frameTimes[rendered++] = frameTime;
+                renderedTime += frameTime;
+                threadCpu += frameThreadCpu;
+                processCpu += process != null ? process.getProcessCpuTime() - processCpuStart : 0;
+            } else {
+                skippedThreadCpu += frameThreadCpu;
+            }
+        }
+
+        long skipped = terminal.getMetrics().getFramesSkipped() - skippedStart;
+        long resizes = terminal.getMetrics().getResizeCount() - resizesStart;
+        double resizeTime = terminal.getMetrics().getResizeTimeAverageMillis() * terminal.getMetrics().getResizeCount() - resizeTimeStart;
+
+        frameTimes = Arrays.copyOf(frameTimes, Math.max(rendered, 1));
+        Arrays.sort(frameTimes);
+
+        return String.format(Locale.ROOT,
+                "    {\"name\": \"%s\", \"frames\": %d, \"skippedFrames\": %d, \"framesPerSecond\": %.2f, " +
+                "\"frameTimeP50Ms\": %.3f, \"frameTimeP99Ms\": %.3f, \"frameTimeMaxMs\": %.3f, " +
+                "\"renderThreadCpuMsPerFrame\": %.3f, \"processCpuMsPerFrame\": %.3f, " +
+                "\"resizes\": %d, \"reallocMsPerResize\": %.3f, \"skippedFrameThreadCpuMs\": %.3f}",
+                name, rendered, skipped, rendered / (Math.max(renderedTime, 1) / 1e9),
+                percentile(frameTimes, 50) / 1e6, percentile(frameTimes, 99) / 1e6, frameTimes[frameTimes.length - 1] / 1e6,
+                threadCpu / 1e6 / Math.max(rendered, 1), process == null ? -1d : processCpu / 1e6 / Math.max(rendered, 1),
+                resizes, resizes > 0 ? resizeTime / resizes : 0d, skipped > 0 ? skippedThreadCpu / 1e6 / skipped : 0d);
+    }
+
+    /**
+     * One iteration of the render loop.
+     */
+    private static void frame(Terminal terminal, Scenario scenario, int frame) throws Exception {
+        glfwPollEvents();
+        scenario.update(terminal, frame);
+        terminal.renderFrame();
+        terminal.swapBuffers();
+    }
+
+    /**
+     * @param sorted Values in ascending order.
+     * @param percent 0 - 100
+     */
+    private static long percentile(long[] sorted, double percent) {
+        int index = (int)Math.ceil(percent / 100d * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+
+    private static String escape(String text) {
+        return text.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+}
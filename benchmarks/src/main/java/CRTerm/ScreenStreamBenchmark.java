@@ -0,0 +1,142 @@
+/*
+Copyright 2017 Tamas Bolner
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package CRTerm;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+
+/**
+ * Encoding and decoding time of one frame of the screen stream, for typical kinds of changes.
+ * The frames are generated in advance; the benchmarks cycle through them, and the first frame of
+ * each cycle is a keyframe, so the decoder always stays in sync.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ScreenStreamBenchmark {
+    static final int COLUMNS = 80;
+    static final int ROWS = 25;
+    static final int FRAMES = 120;
+
+    @Param({ "idle", "log-tail", "random-cells", "full-redraw" })
+    public String scenario;
+
+    private char[][] frames;
+    private ByteBuffer[] messages;
+    private ScreenEncoder encoder;
+    private ScreenDecoder decoder;
+    private int encodeIndex = 0;
+    private int decodeIndex = 0;
+
+    @Setup
+    public void setup() {
+        this.frames = frames(this.scenario, COLUMNS, ROWS, FRAMES);
+        this.messages = new ByteBuffer[FRAMES];
+
+        ScreenEncoder recorder = new ScreenEncoder(COLUMNS, ROWS, FRAMES);
+
+        for (int i = 0; i < FRAMES; i++) {
+            ByteBuffer message = recorder.encode(this.frames[i]);
+            this.messages[i] = ByteBuffer.allocate(message.remaining());
+            this.messages[i].put(message).flip();
+        }
+
+        this.encoder = new ScreenEncoder(COLUMNS, ROWS, FRAMES);
+        this.decoder = new ScreenDecoder(COLUMNS, ROWS);
+    }
+
+    @Benchmark
+    public ByteBuffer encode() {
+        if (this.encodeIndex == 0) {
+            this.encoder.requestKeyframe();
+        }
+
+        ByteBuffer result = this.encoder.encode(this.frames[this.encodeIndex]);
+        this.encodeIndex = (this.encodeIndex + 1) % FRAMES;
+
+        return result;
+    }
+
+    @Benchmark
+    public boolean decode() throws Exception {
+        boolean result = this.decoder.decode(this.messages[this.decodeIndex].duplicate());
+        this.decodeIndex = (this.decodeIndex + 1) % FRAMES;
+
+        return result;
+    }
+
+    /**
+     * Generate the frames of a scenario.
+     *
+     * idle:           The same screen, with a blinking cursor-like character.
+     * log-tail:       A new line at the bottom of each frame, the rest scrolls up.
+     * random-cells:   A few dozen characters change at random positions.
+     * full-redraw:    Every character changes.
+     */
+    static char[][] frames(String scenario, int columns, int rows, int count) {
+        Random random = new Random(17);
+        char[][] result = new char[count][];
+        char[] screen = new char[columns * rows];
+
+        for (int i = 0; i < screen.length; i++) {
+            screen[i] = i % columns < columns / 2 ? (char)(33 + random.nextInt(94)) : ' ';
+        }
+
+        for (int frame = 0; frame < count; frame++) {
+            switch (scenario) {
+                case "idle":
+                    screen[screen.length - 1] = frame % 2 == 0 ? '_' : ' ';
+                    break;
+
+                case "log-tail":
+                    ScreenEncoder.scroll(screen, columns, rows, 1);
+                    int length = 10 + random.nextInt(columns - 10);
+
+                    for (int i = 0; i < length; i++) {
+                        screen[(rows - 1) * columns + i] = (char)(32 + random.nextInt(95));
+                    }
+                    break;
+
+                case "random-cells":
+                    for (int i = 0; i < 40; i++) {
+                        screen[random.nextInt(screen.length)] = (char)(33 + random.nextInt(94));
+                    }
+                    break;
+
+                case "full-redraw":
+                    for (int i = 0; i < screen.length; i++) {
+                        screen[i] = (char)(32 + random.nextInt(95));
+                    }
+                    break;
+
+                default:
+                    throw new IllegalArgumentException("Unknown scenario: " + scenario);
+            }
+
+            result[frame] = Arrays.copyOf(screen, screen.length);
+        }
+
+        return result;
+    }
+}
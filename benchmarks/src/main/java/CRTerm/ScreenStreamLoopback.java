@@ -0,0 +1,181 @@
+/*
+Copyright 2017 Tamas Bolner
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package CRTerm;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.util.Arrays;
+
+
+/**
+ * Streams the frames of each ScreenStreamBenchmark scenario through a ScreenStreamServer and
+ * a ScreenStreamClient on the loopback interface, and checks that the client ends up with the
+ * same screen after every frame. A second client joins in the middle, to cover the keyframe of
+ * the joining clients. At the end a decoder gets a malformed message and a broken length prefix,
+ * and has to get back in sync at the next keyframe. Needs no display. Exits with status 1 on any mismatch.
+ *
+ * Prints the bandwidth (bytes per frame, compared to the raw 2 bytes per character) as JSON.
+ *
+ * Usage: java -cp benchmarks/target/benchmarks.jar CRTerm.ScreenStreamLoopback [frames]
+ */
+public class ScreenStreamLoopback {
+    private static final String[] SCENARIOS = { "idle", "log-tail", "random-cells", "full-redraw" };
+    private static final int COLUMNS = ScreenStreamBenchmark.COLUMNS;
+    private static final int ROWS = ScreenStreamBenchmark.ROWS;
+
+    public static void main(String[] args) throws Exception {
+        int frames = args.length > 0 ? Integer.parseInt(args[0]) : 600;
+        boolean failed = false;
+        StringBuilder json = new StringBuilder("{\n");
+
+        for (int s = 0; s < SCENARIOS.length; s++) {
+            String scenario = SCENARIOS[s];
+            char[][] screens = ScreenStreamBenchmark.frames(scenario, COLUMNS, ROWS, frames);
+            int mismatches = 0;
+
+            ScreenStreamServer server = new ScreenStreamServer(new InetSocketAddress("127.0.0.1", 0), COLUMNS, ROWS, 300);
+            ScreenStreamClient client = new ScreenStreamClient("127.0.0.1", server.getLocalPort(), COLUMNS, ROWS);
+            ScreenStreamClient late = null;
+            waitForClients(server, 1);
+
+            for (int frame = 0; frame < frames; frame++) {
+                if (frame == frames / 2) {
+                    late = new ScreenStreamClient("127.0.0.1", server.getLocalPort(), COLUMNS, ROWS);
+                    waitForClients(server, 2);
+                }
+
+                server.publish(screens[frame]);
+
+                if (!receive(server, client, screens[frame])) {
+                    mismatches++;
+                }
+
+                if (late != null && !receive(server, late, screens[frame])) {
+                    mismatches++;
+                }
+            }
+
+            double bytesPerFrame = (double)client.getDecoder().getBytesRead() / frames;
+            long rawBytesPerFrame = COLUMNS * ROWS * 2;
+
+            System.out.println(String.format("%-13s %8.1f bytes/frame (raw %d), mismatches: %d",
+                    scenario, bytesPerFrame, rawBytesPerFrame, mismatches));
+
+            json.append(String.format("  \"%s\": { \"bytesPerFrame\": %.1f, \"rawBytesPerFrame\": %d, \"ratio\": %.4f, \"skipped\": %d, \"mismatches\": %d }%s\n",
+                    scenario, bytesPerFrame, rawBytesPerFrame, bytesPerFrame / rawBytesPerFrame,
+                    client.getDecoder().getSkippedMessages(), mismatches, s < SCENARIOS.length - 1 ? "," : ""));
+
+            if (mismatches > 0) {
+                failed = true;
+            }
+
+            client.close();
+            if (late != null) {
+                late.close();
+            }
+            server.close();
+        }
+
+        json.append("}");
+        System.out.println(json);
+
+        boolean resync = checkResync();
+        System.out.println("resync after malformed messages: " + (resync ? "OK" : "FAILED"));
+        failed |= !resync;
+
+        System.out.println(failed ? "FAILED" : "OK");
+        System.exit(failed ? 1 : 0);
+    }
+
+    /**
+     * Keyframe, malformed delta, valid delta (skipped), keyframe, broken length, keyframe.
+     */
+    private static boolean checkResync() throws Exception {
+        char[][] screens = ScreenStreamBenchmark.frames("random-cells", COLUMNS, ROWS, 4);
+        ScreenEncoder encoder = new ScreenEncoder(COLUMNS, ROWS, 1000);
+        ScreenDecoder decoder = new ScreenDecoder(COLUMNS, ROWS);
+        Pipe pipe = Pipe.open();
+        boolean ok = true;
+
+        ok &= feed(decoder, pipe, encoder.encode(screens[0])) == 1 && Arrays.equals(decoder.getScreen(), screens[0]);
+
+        ByteBuffer malformed = encoder.encode(screens[1]);
+        malformed.put(malformed.position() + 4, (byte)99);
+        ok &= feed(decoder, pipe, malformed) == -2 && !decoder.isInSync();
+
+        ok &= feed(decoder, pipe, encoder.encode(screens[2])) == 0 && !decoder.isInSync();
+        ok &= feed(decoder, pipe, encoder.keyframe()) == 1 && Arrays.equals(decoder.getScreen(), screens[2]);
+
+        ok &= feed(decoder, pipe, ByteBuffer.wrap(new byte[] { 0x7f, -1, -1, -1, 0, 0, 0, 0 })) == -2 && !decoder.isInSync();
+
+        encoder.requestKeyframe();
+        ok &= feed(decoder, pipe, encoder.encode(screens[3])) == 1 && Arrays.equals(decoder.getScreen(), screens[3]);
+
+        pipe.sink().close();
+        pipe.source().close();
+
+        return ok;
+    }
+
+    /**
+     * Write a message into the pipe, and let the decoder read it.
+     *
+     * @return The number of applied messages, or -2 if the decoder has thrown an exception.
+     */
+    private static int feed(ScreenDecoder decoder, Pipe pipe, ByteBuffer message) throws Exception {
+        while (message.hasRemaining()) {
+            pipe.sink().write(message);
+        }
+
+        try {
+            return decoder.read(pipe.source());
+        } catch (Exception ex) {
+            return -2;
+        }
+    }
+
+    private static void waitForClients(ScreenStreamServer server, int count) throws Exception {
+        long deadline = System.currentTimeMillis() + 5000;
+
+        while (server.getClientCount() < count) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new Exception("The client hasn't connected.");
+            }
+
+            server.poll(10);
+        }
+    }
+
+    /**
+     * Poll until the client has the expected screen, or a timeout.
+     */
+    private static boolean receive(ScreenStreamServer server, ScreenStreamClient client, char[] expected) throws Exception {
+        long deadline = System.currentTimeMillis() + 2000;
+
+        while (System.currentTimeMillis() < deadline) {
+            server.poll(0);
+            client.poll(1);
+
+            if (Arrays.equals(client.getScreen(), expected)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
@@ -0,0 +1,151 @@
+/*
+Copyright 2017 Tamas Bolner
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package CRTerm;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+
+
+/**
+ * Records the frames of a ScreenStreamBenchmark scenario with a SessionRecorder, then checks the
+ * SessionPlayer: sequential replay, random seeks, and opening a recording which wasn't closed
+ * (the index is rebuilt by scanning). Small chunks are used, so the records cross many chunk
+ * boundaries. Needs no display. Exits with status 1 on any mismatch.
+ *
+ * Prints the file size, the open time and the average seek time.
+ *
+ * Usage: java -cp benchmarks/target/benchmarks.jar CRTerm.SessionReplayCheck [frames] [scenario]
+ */
+public class SessionReplayCheck {
+    private static final int COLUMNS = ScreenStreamBenchmark.COLUMNS;
+    private static final int ROWS = ScreenStreamBenchmark.ROWS;
+    private static final long FRAME_TIME = 16666667L;
+    private static final int SEEKS = 200;
+
+    public static void main(String[] args) throws Exception {
+        int frames = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        String scenario = args.length > 1 ? args[1] : "random-cells";
+        char[][] screens = ScreenStreamBenchmark.frames(scenario, COLUMNS, ROWS, frames);
+        Path file = Files.createTempFile("crterm-session", ".rec");
+        Path unfinished = Files.createTempFile("crterm-session-unfinished", ".rec");
+        int mismatches = 0;
+
+        try {
+            SessionRecorder recorder = new SessionRecorder(file, COLUMNS, ROWS, 120, 256 * 1024);
+
+            for (int frame = 0; frame < frames; frame++) {
+                recorder.record(screens[frame], frame * FRAME_TIME);
+            }
+
+            recorder.close();
+
+            /*
+                Sequential replay
+             */
+            long openStart = System.nanoTime();
+            SessionPlayer player = new SessionPlayer(file);
+            long openTime = System.nanoTime() - openStart;
+
+            if (player.getRecordCount() != frames || player.getDuration() != (frames - 1) * FRAME_TIME) {
+                System.out.println("Wrong record count or duration: " + player.getRecordCount() + ", " + player.getDuration());
+                mismatches++;
+            }
+
+            if (!Arrays.equals(player.getScreen(), screens[0])) {
+                mismatches++;
+            }
+
+            for (int frame = 1; frame < frames; frame++) {
+                if (!player.next() || !Arrays.equals(player.getScreen(), screens[frame])) {
+                    mismatches++;
+                }
+            }
+
+            if (player.next() || !player.isFinished()) {
+                mismatches++;
+            }
+
+            /*
+                Random seeks, to exact and intermediate times
+             */
+            Random random = new Random(3);
+            long seekStart = System.nanoTime();
+
+            for (int i = 0; i < SEEKS; i++) {
+                int frame = random.nextInt(frames);
+                player.seek(frame * FRAME_TIME + random.nextInt((int)FRAME_TIME));
+
+                if (!Arrays.equals(player.getScreen(), screens[frame])) {
+                    mismatches++;
+                }
+            }
+
+            long seekTime = (System.nanoTime() - seekStart) / SEEKS;
+
+            /*
+                Accelerated replay: 10x speed, 100 ms of wall time
+             */
+            player.seek(0);
+            player.advanceTo(10 * 100000000L);
+
+            if (!Arrays.equals(player.getScreen(), screens[(int)Math.min(frames - 1, 10 * 100000000L / FRAME_TIME)])) {
+                mismatches++;
+            }
+
+            player.close();
+
+            /*
+                A recording without the index, as if the process had died
+             */
+            Files.copy(file, unfinished, StandardCopyOption.REPLACE_EXISTING);
+
+            try (FileChannel channel = FileChannel.open(unfinished, StandardOpenOption.WRITE)) {
+                channel.write(ByteBuffer.allocate(8), SessionRecorder.HEADER_INDEX_OFFSET);
+            }
+
+            SessionPlayer recovered = new SessionPlayer(unfinished);
+
+            if (!recovered.isIndexRebuilt() || recovered.getSnapshotCount() != (frames + 119) / 120 || recovered.getRecordCount() != frames) {
+                System.out.println("Index rebuild failed: " + recovered.getSnapshotCount() + " snapshots, " + recovered.getRecordCount() + " records");
+                mismatches++;
+            }
+
+            recovered.seek((frames - 1) * FRAME_TIME);
+
+            if (!Arrays.equals(recovered.getScreen(), screens[frames - 1])) {
+                mismatches++;
+            }
+
+            recovered.close();
+
+            System.out.println(String.format("{ \"scenario\": \"%s\", \"frames\": %d, \"fileBytes\": %d, \"bytesPerFrame\": %.1f, \"openMicros\": %.1f, \"seekMicros\": %.1f, \"mismatches\": %d }",
+                    scenario, frames, Files.size(file), (double)Files.size(file) / frames, openTime / 1000d, seekTime / 1000d, mismatches));
+        } finally {
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(unfinished);
+        }
+
+        System.out.println(mismatches > 0 ? "FAILED" : "OK");
+        System.exit(mismatches > 0 ? 1 : 0);
+    }
+}
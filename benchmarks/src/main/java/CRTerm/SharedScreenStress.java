@@ -0,0 +1,154 @@
+/*
+Copyright 2017 Tamas Bolner
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package CRTerm;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+
+/**
+ * Stress test of the SharedScreen sequence lock across processes. A producer JVM fills the whole
+ * screen with the same character in every commit, as fast as it can, while this process reads
+ * snapshots in a tight loop. A snapshot with more than one kind of character is torn. The
+ * reader's array is checked after the failed reads as well.
+ * At the end the producer writes two rows only, which checks the dirty row tracking.
+ * Needs no display. Exits with status 1 on any torn or wrong snapshot.
+ *
+ * Usage: java -cp benchmarks/target/benchmarks.jar CRTerm.SharedScreenStress [seconds]
+ */
+public class SharedScreenStress {
+    private static final int COLUMNS = 80;
+    private static final int ROWS = 25;
+    private static final char[] FINAL_ROW = "final row".toCharArray();
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 1 && args[0].equals("producer")) {
+            produce(Paths.get(args[1]), Long.parseLong(args[2]));
+            return;
+        }
+
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        Path directory = Paths.get("/dev/shm");
+        Path file = Files.isDirectory(directory) ? Files.createTempFile(directory, "crterm", ".screen") : Files.createTempFile("crterm", ".screen");
+        Files.delete(file);
+
+        SharedScreen screen = new SharedScreen(file, COLUMNS, ROWS);
+        char[] characters = new char[COLUMNS * ROWS];
+        long torn = 0;
+        long reads = 0;
+
+        Process producer = new ProcessBuilder(Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                "-cp", System.getProperty("java.class.path"), SharedScreenStress.class.getName(),
+                "producer", file.toString(), Long.toString(seconds * 1000L))
+                .redirectOutput(ProcessBuilder.Redirect.INHERIT)
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+
+        try {
+            boolean finalOk = false;
+
+            while (producer.isAlive()) {
+                reads++;
+
+                /*
+                    The array is checked after failed reads too: it must keep the last consistent snapshot.
+                 */
+                boolean changed = screen.readChanges(characters);
+
+                if (isFinal(characters)) {
+                    if (changed) {
+                        finalOk = screen.getFirstDirtyRow() == 3 && screen.getLastDirtyRow() == 4;
+                    }
+                } else if (!isUniform(characters, 0, characters.length)) {
+                    torn++;
+                }
+            }
+
+            if (!finalOk && screen.readChanges(characters) && isFinal(characters)) {
+                finalOk = screen.getFirstDirtyRow() == 3 && screen.getLastDirtyRow() == 4;
+            }
+
+            if (producer.waitFor() != 0) {
+                throw new Exception("The producer has failed.");
+            }
+
+            System.out.println(String.format("{ \"seconds\": %d, \"reads\": %d, \"snapshots\": %d, \"retries\": %d, \"failures\": %d, \"torn\": %d, \"finalSnapshot\": %s }",
+                    seconds, reads, screen.getSnapshots(), screen.getRetries(), screen.getFailures(), torn, finalOk));
+
+            System.out.println(torn == 0 && finalOk ? "OK" : "FAILED");
+            System.exit(torn == 0 && finalOk ? 0 : 1);
+        } finally {
+            screen.close();
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static void produce(Path file, long millis) throws Exception {
+        SharedScreenWriter writer = new SharedScreenWriter(file);
+        long end = System.currentTimeMillis() + millis;
+        long commits = 0;
+        char c = 'A';
+
+        while (System.currentTimeMillis() < end) {
+            c = (char)('A' + commits % 26);
+
+            writer.begin();
+            writer.fill(0, 0, COLUMNS * ROWS, c);
+            writer.commit();
+            commits++;
+        }
+
+        /*
+            Full rows, so the rest of rows 3 and 4 keeps the character of the last commit.
+            The pause lets the reader take the last full screen first.
+         */
+        Thread.sleep(200);
+
+        char[] row = new char[COLUMNS];
+        Arrays.fill(row, c);
+        System.arraycopy(FINAL_ROW, 0, row, 0, FINAL_ROW.length);
+
+        writer.begin();
+        writer.put(0, 3, row);
+        writer.put(0, 4, row);
+        writer.commit();
+        writer.close();
+
+        System.out.println("Producer: " + commits + " commits");
+    }
+
+    /**
+     * The final commit changed rows 3 and 4 only.
+     */
+    private static boolean isFinal(char[] characters) {
+        return Arrays.equals(Arrays.copyOfRange(characters, 3 * COLUMNS, 3 * COLUMNS + FINAL_ROW.length), FINAL_ROW)
+                && Arrays.equals(Arrays.copyOfRange(characters, 4 * COLUMNS, 4 * COLUMNS + FINAL_ROW.length), FINAL_ROW)
+                && isUniform(characters, 0, 3 * COLUMNS) && isUniform(characters, 5 * COLUMNS, characters.length);
+    }
+
+    private static boolean isUniform(char[] characters, int from, int to) {
+        for (int i = from + 1; i < to; i++) {
+            if (characters[i] != characters[from]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
@@ -0,0 +1,111 @@
+/*
+Copyright 2017 Tamas Bolner
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package CRTerm;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+
+/**
+ * Startup time of the Terminal without the program binary cache, with an empty cache
+ * (which gets filled) and with a filled cache. The results are printed as JSON.
+ * Each start opens a hidden window, and renders one frame for the time to first frame.
+ * The first start also includes the loading of the native libraries, so it's repeated
+ * and not counted. The phases of the startup are averaged as well.
+ *
+ * Usage: java -cp benchmarks/target/benchmarks.jar CRTerm.StartupBenchmark [repeats]
+ */
+public class StartupBenchmark {
+    public static void main(String[] args) throws Exception {
+        int repeats = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        Path directory = Files.createTempDirectory("crterm-shader-cache");
+        List<String> results = new ArrayList<>();
+
+        start("off");
+
+        results.add(measure("no-cache", repeats, () -> "off"));
+        results.add(measure("cold-cache", repeats, () -> {
+            Path fresh = Files.createTempDirectory(directory, "cold");
+            return fresh.toString();
+        }));
+
+        start(directory.toString());
+        results.add(measure("cached", repeats, directory::toString));
+
+        System.out.print(String.format(Locale.ROOT, "{\n  \"startups\": [\n%s\n  ]\n}\n", String.join(",\n", results)));
+    }
+
+    private interface CacheSetting {
+        String get() throws Exception;
+    }
+
+    /**
+     * Start the terminal several times with the given cache setting, and return the averages as a JSON object.
+     */
+    private static String measure(String name, int repeats, CacheSetting setting) throws Exception {
+        double startup = 0;
+        double firstFrame = 0;
+        double linking = 0;
+        Map<String, Double> phases = new LinkedHashMap<>();
+        long hits = 0;
+        long misses = 0;
+
+        for (int i = 0; i < repeats; i++) {
+            TerminalMetrics metrics = start(setting.get());
+            startup += metrics.getStartupTimeMillis();
+            firstFrame += metrics.getTimeToFirstFrameMillis();
+            linking += metrics.getProgramLinkTimeMillis();
+            hits += metrics.getProgramCacheHits();
+            misses += metrics.getProgramCacheMisses();
+
+            for (Map.Entry<String, Double> phase : metrics.getStartupPhases().entrySet()) {
+                phases.merge(phase.getKey(), phase.getValue(), Double::sum);
+            }
+        }
+
+        List<String> phaseResults = new ArrayList<>();
+
+        for (Map.Entry<String, Double> phase : phases.entrySet()) {
+            phaseResults.add(String.format(Locale.ROOT, "\"%s\": %.3f", phase.getKey(), phase.getValue() / repeats));
+        }
+
+        return String.format(Locale.ROOT,
+                "    {\"name\": \"%s\", \"repeats\": %d, \"startupMs\": %.3f, \"firstFrameMs\": %.3f, \"programLinkMs\": %.3f, \"cacheHits\": %d, \"cacheMisses\": %d,\n"
+                + "     \"phasesMs\": {%s}}",
+                name, repeats, startup / repeats, firstFrame / repeats, linking / repeats, hits, misses, String.join(", ", phaseResults));
+    }
+
+    /**
+     * Create a terminal, render a frame and close it.
+     */
+    private static TerminalMetrics start(String cacheSetting) throws Exception {
+        System.setProperty("crterm.shaderCache", cacheSetting);
+
+        Terminal terminal = new Terminal(80, 25, 0x00FF00, 0.6d, 0.25d, 0.8d, 1.9d, 640, 480, false);
+        terminal.renderFrame();
+        terminal.swapBuffers();
+        TerminalMetrics metrics = terminal.getMetrics();
+        terminal.close();
+
+        return metrics;
+    }
+}
@@ -16,23 +16,61 @@ limitations under the License.
 
 #version 150 core
 
-in vec2 pass_TextureCoord;
-in float pass_Number;
+in vec2 pass_GridPosition;
 
-uniform sampler2D image1;
-uniform int characters[4096];
+/*
+    Compile-time options, normally defined by the Pipeline:
+        GRID_COLUMNS, GRID_ROWS: constant grid size (otherwise the "dimensions" uniform)
+        SCANLINE: 0 = no scanline effect
+        FADE: 0 = no phosphor fade (no history texture)
+*/
+#ifndef SCANLINE
+#define SCANLINE 1
+#endif
+
+#ifndef FADE
+#define FADE 1
+#endif
+
+uniform sampler2D image1;           // R8 coverage atlas
+uniform vec3 fontColor;
+
+#ifdef GRID_COLUMNS
+const vec2 dimensions = vec2(GRID_COLUMNS, GRID_ROWS);
+uniform int characters[GRID_COLUMNS * GRID_ROWS];
+#else
 uniform vec2 dimensions;            // character grid width x height
+uniform int characters[4096];
+#endif
+
+#if SCANLINE
 uniform float scanlinePosition;
+#endif
+
+#if FADE
+uniform sampler2D history;          // faded image of the previous frame (fused post-processing only)
+uniform float fadeAttenuation;
+#endif
 
 out vec4 out_Color;
 
 
 void main(void) {
     /*
-        Scanline
+        Cell and position inside the cell, from the interpolated grid coordinates
     */
-    float line = float(int(dimensions.y) - int(pass_Number) / int(dimensions.x)) + pass_TextureCoord.y;
+    vec2 cell = min(floor(pass_GridPosition), dimensions - 1.0);
+    vec2 inside = pass_GridPosition - cell;
+    vec2 texCoord = vec2(inside.x, 1.0 - inside.y);
+    int number = int(cell.y) * int(dimensions.x) + int(cell.x);
+
     float plus = 0.0;
+
+#if SCANLINE
+    /*
+        Scanline
+    */
+    float line = float(int(dimensions.y) - int(cell.y)) + texCoord.y;
     float lineWidth = dimensions.y / 6.0;
 
     if (scanlinePosition > dimensions.y - lineWidth) {
@@ -44,17 +82,30 @@ void main(void) {
     if (line > scanlinePosition && line < scanlinePosition + lineWidth) {
         plus = 0.04;
     }
+#endif
 
     /*
         Map texture of character
     */
-    int char = characters[int(pass_Number)];
+    int char = characters[number];
 
     float x = float(char % 16) / 16 + 0.015625;
     float y = float(char / 16) / 8;
 
-	out_Color = texture(image1, vec2(
-        x + pass_TextureCoord.x * 0.046875 + plus / 8.0,
-        y + pass_TextureCoord.y / 8
-	)) + vec4(0, 1, 0, 1) * plus;
+    float coverage = texture(image1, vec2(
+        x + texCoord.x * 0.046875 + plus / 8.0,
+        y + texCoord.y / 8
+    )).r;
+
+    /*
+        The scanline glow is green only, whatever the font color is
+    */
+    out_Color = vec4(fontColor * coverage + vec3(0.0, plus, 0.0), 1.0);
+
+#if FADE
+    /*
+        Phosphor fade, the same as mix_fragment_shader.frag
+    */
+    out_Color = max(floor(texelFetch(history, ivec2(gl_FragCoord.xy), 0) * fadeAttenuation * 255.0) / 255.0, out_Color);
+#endif
 }
@@ -0,0 +1,43 @@
+/*
+Copyright 2017 Tamas Bolner
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+#version 150 core
+
+in vec2 pass_TextureCoord;
+uniform sampler2D image;
+uniform int in_factor;      // an output texel covers in_factor x in_factor input texels (2 or 4)
+out vec4 out_Color;
+
+
+/*
+    Box filter over the input texels of an output texel, so the blur after it
+    steps by output texels and doesn't skip any input. A bilinear tap between
+    2x2 texels averages them: one tap for a factor of 2, four for 4.
+*/
+void main() {
+	int taps = max(in_factor / 2, 1);
+	vec2 texel = 1.0 / vec2(textureSize(image, 0));
+	vec3 result = vec3(0.0);
+
+	for (int y = 0; y < taps; y++) {
+		for (int x = 0; x < taps; x++) {
+			vec2 offset = (vec2(x, y) - float(taps - 1) * 0.5) * 2.0 * texel;
+			result += texture(image, pass_TextureCoord + offset).rgb;
+		}
+	}
+
+	out_Color = vec4(result / float(taps * taps), 1.0);
+}
@@ -0,0 +1,30 @@
+/*
+Copyright 2017 Tamas Bolner
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+#version 150 core
+
+uniform sampler2D image;
+uniform float in_attenuation;
+out vec4 out_Color;
+
+
+/*
+    The attenuated history alone, rounded the same way as in mix_fragment_shader.frag.
+    The background of the fused text pass, where the grid doesn't cover the screen.
+*/
+void main() {
+	out_Color = floor(texelFetch(image, ivec2(gl_FragCoord.xy), 0) * in_attenuation * 255.0) / 255.0;
+}
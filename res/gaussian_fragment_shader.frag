@@ -20,7 +20,17 @@ in vec2 pass_TextureCoord;
 
 uniform vec2 in_direction;  // direction and size of a unit step (this decides between vertical and horizontal)
 uniform sampler2D image;
-uniform float gauss[16] = float[] (0.0957645635, 0.093045881, 0.0853442192, 0.0738985137, 0.0604062584, 0.0466136173, 0.0339569218, 0.0233522354, 0.0151604902, 0.0092914323, 0.0053757211, 0.002936131, 0.0015139055, 0.0007368969, 0.0003386097, 0.0001468847);
+
+/*
+    The kernel is a compile-time constant, so the loop can be unrolled.
+    GAUSS_TAPS and GAUSS_WEIGHTS are normally defined by the Pipeline.
+*/
+#ifndef GAUSS_TAPS
+#define GAUSS_TAPS 16
+#define GAUSS_WEIGHTS 0.0957645635, 0.093045881, 0.0853442192, 0.0738985137, 0.0604062584, 0.0466136173, 0.0339569218, 0.0233522354, 0.0151604902, 0.0092914323, 0.0053757211, 0.002936131, 0.0015139055, 0.0007368969, 0.0003386097, 0.0001468847
+#endif
+
+const float gauss[GAUSS_TAPS] = float[] (GAUSS_WEIGHTS);
 
 out vec4 out_Color;
 
@@ -31,7 +41,7 @@ void main()
     vec3 result = texture(image, pass_TextureCoord).rgb * gauss[0];
     vec2 offset;
 
-    for(int i = 1; i < 16; i++)
+    for(int i = 1; i < GAUSS_TAPS; i++)
     {
         offset = unit_offset * float(i);
 
@@ -16,16 +16,26 @@ limitations under the License.
 
 #version 440 core
 
-in vec4 in_Position;
-in vec2 in_TextureCoord;
-in float in_Number;
+in vec2 in_Position;                // grid coordinates: column, row (counted from the bottom)
 
-out vec2 pass_TextureCoord;
-out float pass_Number;
+#ifdef GRID_COLUMNS
+const vec2 dimensions = vec2(GRID_COLUMNS, GRID_ROWS);
+#else
+uniform vec2 dimensions;            // character grid width x height
+#endif
+uniform vec2 gridSize;              // size of the grid in model space
+uniform vec2 curvature;             // horizontal, vertical
+uniform float zoom;
+
+out vec2 pass_GridPosition;
 
 
 void main(void) {
-	gl_Position = gl_ProjectionMatrix * gl_ModelViewMatrix * gl_Vertex;
-	pass_TextureCoord = in_TextureCoord;
-	pass_Number = in_Number;
+    vec2 position = in_Position / dimensions * gridSize;
+    float z = sin(position.x * 3.14159265 / gridSize.x) * curvature.x
+        + sin(position.y * 3.14159265 / gridSize.y) * curvature.y;
+
+	gl_Position = gl_ProjectionMatrix * gl_ModelViewMatrix * vec4(position, z, 1.0);
+	gl_Position.xy *= zoom;
+	pass_GridPosition = in_Position;
 }
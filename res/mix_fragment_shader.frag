@@ -23,6 +23,10 @@ uniform float in_attenuation;
 out vec4 out_Color;
 
 
+/*
+    The attenuated image is rounded down to 8 bits, otherwise the
+    dimmest pixels would round back to themselves and never fade out.
+*/
 void main() {
-	out_Color = max(texture(image1, pass_TextureCoord) * in_attenuation, texture(image2, pass_TextureCoord));
+	out_Color = max(floor(texture(image1, pass_TextureCoord) * in_attenuation * 255.0) / 255.0, texture(image2, pass_TextureCoord));
 }
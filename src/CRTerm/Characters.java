@@ -18,14 +18,15 @@ package CRTerm;
 
 import org.lwjgl.BufferUtils;
 import java.nio.IntBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 import org.lwjgl.opengl.*;
 
-import static org.lwjgl.opengl.GL20.glUseProgram;
-
 
 class Characters {
+    private GLState state;
     private int glProgramID;
     private int columns;
     private int rows;
@@ -34,6 +35,10 @@ class Characters {
     private char[] rowBuffer;
     private IntBuffer intBuffer;
     private int uniformBufferID;
+    private int[] rowLocations = null;
+    private boolean deferred = false;
+    private int pendingFirst = -1;
+    private int pendingLast = -1;
 
     /**
      *
@@ -41,38 +46,187 @@ class Characters {
      * @param columns Horizontal character count.
      * @param rows Vertical character count.
      * @param glProgramID The ID of the shader program, which draws the characters.
+     * @param state The state tracker of the context.
      * @throws Exception The thrown exceptions contain error messages.
      */
-    Characters(int columns, int rows, int glProgramID) throws Exception {
+    Characters(int columns, int rows, int glProgramID, GLState state) throws Exception {
+        this(columns, rows);
+        this.glProgramID = glProgramID;
+        this.state = state;
+
+        this.uniformBufferID = GL20.glGetUniformLocation(glProgramID, "characters");
+
+        if (this.uniformBufferID < 0) {
+            throw new Exception("glGetUniformBlockIndex failed. (Characters)");
+        }
+
+        this.state.programUniform1iv(glProgramID, this.uniformBufferID, this.intBuffer);
+        this.state.checkErrors("glUniform1iv failed. (Characters)");
+    }
+
+    /**
+     * Creates a character store without any OpenGL resources. Used by the
+     * software renderer. The upload methods only update the CPU-side data.
+     *
+     * @param columns Horizontal character count.
+     * @param rows Vertical character count.
+     */
+    Characters(int columns, int rows) {
         this.columns = columns;
         this.rows = rows;
         this.count = columns * rows;
-        this.glProgramID = glProgramID;
+        this.glProgramID = 0;
+        this.uniformBufferID = -1;
         this.characters = new char[this.count];
         this.rowBuffer = new char[this.columns];
 
         this.intBuffer = BufferUtils.createIntBuffer(this.count);
 
         for (int i = 0; i < this.count; i++) {
-            this.intBuffer.put(i, (int)32);
+            this.intBuffer.put(i, 32);
             this.characters[i] = 32;
         }
+    }
 
-        glUseProgram(glProgramID);
+    /**
+     * Change the grid size. The cell store and the upload buffer are reallocated, and the content
+     * is moved over (see resizeContent), then uploaded. (Or marked, in deferred mode.)
+     *
+     * @param columns New horizontal character count.
+     * @param rows New vertical character count.
+     * @param glProgramID The shader program, which draws the characters from now on.
+     * @param reflow True to rewrap the lines at the new width, false to cut off or pad the rows.
+     * @throws Exception If the program has no character array.
+     */
+    void resize(int columns, int rows, int glProgramID, boolean reflow) throws Exception {
+        if (this.glProgramID != 0) {
+            int location = GL20.glGetUniformLocation(glProgramID, "characters");
 
-        this.uniformBufferID = GL20.glGetUniformLocation(glProgramID, "characters");
+            if (location < 0) {
+                throw new Exception("glGetUniformLocation failed. (Characters)");
+            }
 
-        if (this.uniformBufferID < 0) {
-            throw new Exception("glGetUniformBlockIndex failed. (Characters)");
+            this.glProgramID = glProgramID;
+            this.uniformBufferID = location;
         }
 
-        GL20.glUniform1iv(this.uniformBufferID, this.intBuffer);
+        this.characters = resizeContent(this.characters, this.columns, this.rows, columns, rows, reflow);
+        this.columns = columns;
+        this.rows = rows;
+        this.count = columns * rows;
+        this.rowBuffer = new char[columns];
+        this.intBuffer = BufferUtils.createIntBuffer(this.count);
+        this.rowLocations = null;
+        this.pendingFirst = -1;
+        this.pendingLast = -1;
+
+        this.uploadCharacters();
+    }
 
-        if (GL11.glGetError() != GL11.GL_NO_ERROR) {
-            throw new Exception("glUniform1iv failed. (Characters)");
+    /**
+     * Switch to another variant of the program, which draws the characters. The whole array
+     * is uploaded to it. (Or marked, in deferred mode.)
+     *
+     * @param glProgramID The shader program, which draws the characters from now on.
+     * @throws Exception If the program has no character array.
+     */
+    void setProgram(int glProgramID) throws Exception {
+        int location = GL20.glGetUniformLocation(glProgramID, "characters");
+
+        if (location < 0) {
+            throw new Exception("glGetUniformLocation failed. (Characters)");
         }
 
-        glUseProgram(0);
+        this.glProgramID = glProgramID;
+        this.uniformBufferID = location;
+        this.rowLocations = null;
+
+        this.uploadCharacters();
+    }
+
+    /**
+     * Move the content of a grid into a grid of another size. Pure CPU work, no OpenGL calls.
+     *
+     * Without reflow the top-left corner is kept, and the rest is cut off or padded with spaces.
+     * With reflow the rows are joined into lines and wrapped at the new width: a row, which ends
+     * in a non-space character, continues in the next one. If the lines don't fit, the top ones
+     * are dropped, as if the screen had scrolled. The empty rows at the bottom don't count.
+     *
+     * @param source columns * rows characters, starting at the top-left corner.
+     * @param columns Horizontal character count of the source.
+     * @param rows Vertical character count of the source.
+     * @param newColumns Horizontal character count of the result.
+     * @param newRows Vertical character count of the result.
+     * @param reflow True to rewrap the lines.
+     * @return newColumns * newRows characters.
+     */
+    static char[] resizeContent(char[] source, int columns, int rows, int newColumns, int newRows, boolean reflow) {
+        char[] result = new char[newColumns * newRows];
+        Arrays.fill(result, (char)32);
+
+        if (!reflow) {
+            for (int row = 0; row < Math.min(rows, newRows); row++) {
+                System.arraycopy(source, row * columns, result, row * newColumns, Math.min(columns, newColumns));
+            }
+
+            return result;
+        }
+
+        /*
+            Lines: the joined rows, without the trailing spaces
+         */
+        List<String> lines = new ArrayList<String>();
+        StringBuilder line = new StringBuilder();
+
+        for (int row = 0; row < rows; row++) {
+            int length = columns;
+
+            while (length > 0 && source[row * columns + length - 1] == 32) {
+                length--;
+            }
+
+            line.append(source, row * columns, length);
+
+            if (length < columns || row == rows - 1) {
+                lines.add(line.toString());
+                line.setLength(0);
+            }
+        }
+
+        while (!lines.isEmpty() && lines.get(lines.size() - 1).isEmpty()) {
+            lines.remove(lines.size() - 1);
+        }
+
+        /*
+            Wrap, and keep the last newRows rows
+         */
+        int total = 0;
+
+        for (String text : lines) {
+            total += Math.max((text.length() + newColumns - 1) / newColumns, 1);
+        }
+
+        int skip = Math.max(total - newRows, 0);
+        int row = 0;
+
+        for (String text : lines) {
+            int wrapped = Math.max((text.length() + newColumns - 1) / newColumns, 1);
+
+            for (int part = 0; part < wrapped; part++, row++) {
+                if (row < skip) {
+                    continue;
+                }
+
+                int start = part * newColumns;
+                int length = Math.min(text.length() - start, newColumns);
+
+                if (length > 0) {
+                    text.getChars(start, start + length, result, (row - skip) * newColumns);
+                }
+            }
+        }
+
+        return result;
     }
 
     /**
@@ -96,10 +250,152 @@ class Characters {
         return this.characters;
     }
 
+    /**
+     * In deferred mode the uploads only mark the rows, and flush() uploads them
+     * together, as late as possible before the frame is drawn.
+     *
+     * @param deferred True to defer the uploads. Turning it off uploads the pending rows.
+     */
+    void setDeferred(boolean deferred) {
+        this.deferred = deferred;
+
+        if (!deferred) {
+            this.flush();
+        }
+    }
+
+    /**
+     * Upload the rows marked in deferred mode.
+     */
+    void flush() {
+        if (this.pendingFirst < 0) {
+            return;
+        }
+
+        int first = this.pendingFirst;
+        int last = this.pendingLast;
+        this.pendingFirst = -1;
+        this.pendingLast = -1;
+
+        if (first == 0 && last == this.rows - 1) {
+            this.uploadAll();
+        } else {
+            this.uploadRowRange(first, last);
+        }
+    }
+
+    /**
+     * @return True if there are rows to upload by flush().
+     */
+    boolean isUploadPending() {
+        return this.pendingFirst >= 0;
+    }
+
+    /**
+     * @return False if the rows were only marked for the next flush().
+     */
+    private boolean defer(int first, int last) {
+        if (!this.deferred) {
+            return false;
+        }
+
+        this.pendingFirst = this.pendingFirst < 0 ? first : Math.min(this.pendingFirst, first);
+        this.pendingLast = Math.max(this.pendingLast, last);
+
+        return true;
+    }
+
     /**
      * Call this after modifying the char array to upload the changes to the GPU.
      */
     void uploadCharacters() {
+        if (this.glProgramID == 0 || this.defer(0, this.rows - 1)) {
+            return;
+        }
+
+        this.uploadAll();
+    }
+
+    private void uploadAll() {
+        Events.Upload event = null;
+        if (Events.UPLOAD.isEnabled()) {
+            event = new Events.Upload();
+            event.begin();
+        }
+
+        this.transpose();
+
+        this.state.programUniform1iv(this.glProgramID, this.uniformBufferID, this.intBuffer);
+
+        if (event != null) {
+            event.cells = this.count;
+            event.commit();
+        }
+    }
+
+    /**
+     * Upload only a range of rows. The rows are stored bottom-up in the uniform array,
+     * so a range of rows is a contiguous range of its elements.
+     *
+     * @param first First row, from the top.
+     * @param last Last row, from the top. (Inclusive)
+     */
+    void uploadRows(int first, int last) {
+        if (this.glProgramID == 0 || this.defer(first, last)) {
+            return;
+        }
+
+        if (first == 0 && last == this.rows - 1) {
+            this.uploadAll();
+            return;
+        }
+
+        this.uploadRowRange(first, last);
+    }
+
+    private void uploadRowRange(int first, int last) {
+        Events.Upload event = null;
+        if (Events.UPLOAD.isEnabled()) {
+            event = new Events.Upload();
+            event.begin();
+        }
+
+        if (this.rowLocations == null) {
+            this.rowLocations = new int[this.rows];
+
+            for (int row = 0; row < this.rows; row++) {
+                this.rowLocations[row] = GL20.glGetUniformLocation(this.glProgramID, "characters[" + (row * this.columns) + "]");
+            }
+        }
+
+        for (int row = first; row <= last; row++) {
+            int source = row * this.columns;
+            int target = (this.rows - row - 1) * this.columns;
+
+            for (int column = 0; column < this.columns; column++) {
+                this.intBuffer.put(target + column, (int)this.characters[source + column]);
+            }
+        }
+
+        int bottom = this.rows - last - 1;
+        this.intBuffer.position(bottom * this.columns);
+        this.intBuffer.limit((this.rows - first) * this.columns);
+
+        this.state.programUniform1iv(this.glProgramID, this.rowLocations[bottom], this.intBuffer);
+
+        this.intBuffer.clear();
+
+        if (event != null) {
+            event.cells = (last - first + 1) * this.columns;
+            event.commit();
+        }
+    }
+
+    /**
+     * Copies the characters into the upload buffer, flipping the rows vertically
+     * to match the bottom-up numbering of the grid.
+     */
+    void transpose() {
         int size = Math.min(characters.length, this.count);
         int a, b, j;
 
@@ -110,10 +406,20 @@ class Characters {
 
             this.intBuffer.put(j, (int)this.characters[i]);
         }
+    }
+
+    /**
+     * @return Horizontal character count.
+     */
+    int getColumns() {
+        return this.columns;
+    }
 
-        glUseProgram(this.glProgramID);
-        GL20.glUniform1iv(this.uniformBufferID, this.intBuffer);
-        glUseProgram(0);
+    /**
+     * @return Vertical character count.
+     */
+    int getRows() {
+        return this.rows;
     }
 
     /**
@@ -0,0 +1,121 @@
+/*
+Copyright 2017 Tamas Bolner
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package CRTerm;
+
+import jdk.jfr.*;
+
+
+/**
+ * Java Flight Recorder events. All of them are disabled by default; enable them
+ * in the recording settings, for example: -XX:StartFlightRecording:settings=profile,+CRTerm.FramePhase#enabled=true
+ * or with JDK Mission Control. The per-frame events are only allocated while enabled.
+ */
+final class Events {
+    static final EventType FRAME_PHASE = EventType.getEventType(FramePhase.class);
+    static final EventType UPLOAD = EventType.getEventType(Upload.class);
+
+    private Events() {
+    }
+
+    @Name("CRTerm.FramePhase")
+    @Label("Frame Phase")
+    @Description("A render pass of Terminal.renderFrame(), measured on the CPU")
+    @Category("CRTerm")
+    @Enabled(false)
+    @StackTrace(false)
+    static class FramePhase extends Event {
+        @Label("Phase")
+        String phase;
+    }
+
+    @Name("CRTerm.Upload")
+    @Label("Character Upload")
+    @Description("Upload of the character array to the GPU")
+    @Category("CRTerm")
+    @Enabled(false)
+    @StackTrace(false)
+    static class Upload extends Event {
+        @Label("Cells")
+        int cells;
+    }
+
+    @Name("CRTerm.FontAtlasBuild")
+    @Label("Font Atlas Build")
+    @Description("Rasterization of the font texture atlas")
+    @Category("CRTerm")
+    @Enabled(false)
+    static class FontAtlasBuild extends Event {
+        @Label("Width")
+        int width;
+
+        @Label("Height")
+        int height;
+    }
+
+    @Name("CRTerm.ShaderCompile")
+    @Label("Shader Compile")
+    @Description("Compilation of a shader of a Pipeline")
+    @Category("CRTerm")
+    @Enabled(false)
+    static class ShaderCompile extends Event {
+        @Label("File")
+        String file;
+    }
+
+    @Name("CRTerm.ShaderLink")
+    @Label("Shader Link")
+    @Description("Linking of a Pipeline shader program")
+    @Category("CRTerm")
+    @Enabled(false)
+    static class ShaderLink extends Event {
+        @Label("Program")
+        int program;
+
+        @Label("Cached")
+        @Description("Loaded from the program binary cache")
+        boolean cached;
+    }
+
+    @Name("CRTerm.FramebufferResize")
+    @Label("Framebuffer Resize")
+    @Description("Allocation of a framebuffer of the render graph")
+    @Category("CRTerm")
+    @Enabled(false)
+    static class FramebufferResize extends Event {
+        @Label("Width")
+        int width;
+
+        @Label("Height")
+        int height;
+    }
+
+    @Name("CRTerm.GridResize")
+    @Label("Grid Resize")
+    @Description("Change of the character grid size by Terminal.setGridSize()")
+    @Category("CRTerm")
+    @Enabled(false)
+    static class GridResize extends Event {
+        @Label("Columns")
+        int columns;
+
+        @Label("Rows")
+        int rows;
+
+        @Label("Reflow")
+        boolean reflow;
+    }
+}
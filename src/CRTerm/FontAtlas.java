@@ -0,0 +1,183 @@
+/*
+Copyright 2017 Tamas Bolner
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package CRTerm;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.*;
+import java.awt.image.BufferedImage;
+
+
+/**
+ * The rasterized texture atlas of a font. Pure CPU work, no OpenGL calls.
+ */
+class FontAtlas {
+    static final int WIDTH = 1024;
+    static final int HEIGHT = 512;
+
+    private int[] pixels;
+
+    /**
+     * Rasterize a 1024x512 texture atlas, with 16*8 = 128 characters.
+     *
+     * @param font 8x8 pixel data of characters. One byte is one horizontal line. 128 characters.
+     * @param color RGB font color. Example: 0x70fe80
+     * @param scanLineBreadth The CRT screen is constructed of vertical scan lines. This parameter tells their breadth or thickness. 1 = no spaces in between. Example value: 0.7d
+     * @param fontThickness This parameter tells how much should the scan lines overreach the pixels of the characters. 0 = stay inside the pixels. Example value: 0.25d
+     */
+    FontAtlas(byte[] font, int color, double scanLineBreadth, double fontThickness) {
+        Events.FontAtlasBuild event = new Events.FontAtlasBuild();
+        event.begin();
+
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB);
+
+        Graphics2D g2d = image.createGraphics();
+        RenderingHints rh = new RenderingHints(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g2d.setRenderingHints(rh);
+        g2d.setColor(Color.black);
+        g2d.clearRect(0, 0, WIDTH, HEIGHT);
+        g2d.setColor(new Color(color));
+
+        Ellipse2D.Double ellipse = new Ellipse2D.Double(0, 0, 0, 0);
+        Rectangle2D.Double rectangle = new Rectangle2D.Double(0, 0, 0, 0);
+
+        double dx = 6.4d;
+        double dy = 6.4d;
+        scanLineBreadth *= dy;
+        fontThickness *= dx;
+
+        double startx, lengthx, liney;
+        int c, x, y, a, b, starta, enda;
+
+        for (c = 0; c < 128; c++) {
+            x = c % 16;
+            y = c / 16;
+
+            for(b = 0; b < 8; b++) {
+                starta = -1;
+                enda = -1;
+                liney = y * 64.0d + (b + 1.5d) * dy;
+
+                for(a = 0; a < 8; a++) {
+                    if (starta == -1 && (font[c * 8 + b] & (128 >> a)) > 0) {
+                        starta = a;
+
+                        if (a == 7) {
+                            enda = 7;
+                        }
+                    } else if (starta > -1 && (font[c * 8 + b] & (128 >> a)) == 0) {
+                        enda = a - 1;
+                    } else if (starta > -1 && a == 7) {
+                        enda = 7;
+                    }
+
+                    if (starta > -1 && enda > -1) {
+                        startx = x * 64.0d + (starta + 1.5d) * dx;
+                        lengthx = (enda - starta) * dx;
+
+                        // if fontThickness=0 then it should be a single circle
+
+                        ellipse.setFrame(startx - scanLineBreadth / 2.0d - fontThickness, liney + (dy - scanLineBreadth) / 2.0d, scanLineBreadth, scanLineBreadth);
+                        g2d.fill(ellipse);
+
+                        ellipse.setFrame(startx + lengthx - scanLineBreadth / 2.0d + fontThickness, liney + (dy - scanLineBreadth) / 2.0d, scanLineBreadth, scanLineBreadth);
+                        g2d.fill(ellipse);
+
+                        rectangle.setFrame(
+                            startx - fontThickness,
+                            liney + (dy - scanLineBreadth) / 2.0d,
+                            lengthx + fontThickness * 2.0d,
+                            scanLineBreadth
+                        );
+                        g2d.fill(rectangle);
+
+                        starta = - 1;
+                        enda = - 1;
+                    }
+                }
+            }
+        }
+
+        g2d.dispose();
+
+        this.pixels = new int[WIDTH * HEIGHT];
+        image.getRGB(0, 0, WIDTH, HEIGHT, this.pixels, 0, WIDTH);
+
+        event.width = WIDTH;
+        event.height = HEIGHT;
+        event.commit();
+    }
+
+    /**
+     * Rasterize the atlas in white, for toCoverage().
+     *
+     * @param font 8x8 pixel data of characters. One byte is one horizontal line. 128 characters.
+     * @param scanLineBreadth The breadth of the scan lines. 1 = no spaces in between. Example value: 0.7d
+     * @param fontThickness How much should the scan lines overreach the pixels of the characters. Example value: 0.25d
+     */
+    FontAtlas(byte[] font, double scanLineBreadth, double fontThickness) {
+        this(font, 0xffffff, scanLineBreadth, fontThickness);
+    }
+
+    /**
+     * @return The pixels of the atlas in ARGB format, row by row, starting at the top-left corner.
+     */
+    int[] getPixels() {
+        return this.pixels;
+    }
+
+    /**
+     * Converts the ARGB pixels into the RGBA byte order expected by glTexImage2D.
+     *
+     * @return A new array with the swizzled pixels.
+     */
+    int[] toRGBA() {
+        int[] data = new int[this.pixels.length];
+
+        for (int i = 0; i < this.pixels.length; i++) {
+            int a = this.pixels[i] & 0xff000000;
+            int r = (this.pixels[i] & 0xff0000) >> 16;
+            int g = this.pixels[i] & 0xff00;
+            int b = this.pixels[i] & 0xff;
+
+            data[i] = a | b << 16 | g | r;
+        }
+
+        return data;
+    }
+
+    /**
+     * The coverage of the pixels, for a single-channel (R8) texture. The brightest channel is taken,
+     * which is exact for an atlas rasterized in white; the color is applied by the shader.
+     *
+     * @return One byte per pixel, row by row, starting at the top-left corner.
+     */
+    byte[] toCoverage() {
+        byte[] data = new byte[this.pixels.length];
+
+        for (int i = 0; i < this.pixels.length; i++) {
+            int r = (this.pixels[i] >> 16) & 0xff;
+            int g = (this.pixels[i] >> 8) & 0xff;
+            int b = this.pixels[i] & 0xff;
+
+            data[i] = (byte)Math.max(r, Math.max(g, b));
+        }
+
+        return data;
+    }
+}
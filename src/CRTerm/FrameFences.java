@@ -0,0 +1,147 @@
+/*
+Copyright 2017 Tamas Bolner
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package CRTerm;
+
+import org.lwjgl.opengl.*;
+
+
+/**
+ * A fence after each swap tells when the GPU has finished the frame. It's used for two things:
+ *
+ *  - Limiting the frames in flight: before a new frame is started, the CPU waits until at most
+ *    N - 1 earlier frames are unfinished. Without this the driver queues several frames, and
+ *    each of them adds a frame of latency.
+ *  - Measuring the input latency: the time from the first character change of a frame until
+ *    its fence has signaled. (The scan-out adds up to one refresh interval after that.)
+ *
+ * When the limit is off, only the frames with input get a fence, and the fences are only polled.
+ * The context has to be current in all calls.
+ */
+class FrameFences {
+    private static final int RING_SIZE = 8;
+
+    /**
+     * A frame is given up on after this long, so a lost context can't hang the render loop.
+     */
+    private static final long WAIT_TIMEOUT = 1000000000L;
+
+    private long[] fences = new long[RING_SIZE];
+    private long[] inputTimes = new long[RING_SIZE];
+    private int first = 0;
+    private int count = 0;
+    private int maxFramesInFlight = 0;
+    private RollingStatistics latency = new RollingStatistics(240);
+    private TerminalMetrics metrics;
+
+    /**
+     * @param metrics The latencies and the wait times are recorded into it too.
+     */
+    FrameFences(TerminalMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * @param maxFramesInFlight 1 to RING_SIZE frames, or 0 to turn the limit off.
+     * @throws Exception If the value is out of range.
+     */
+    void setMaxFramesInFlight(int maxFramesInFlight) throws Exception {
+        if (maxFramesInFlight < 0 || maxFramesInFlight > RING_SIZE) {
+            throw new Exception("The number of frames in flight has to be between 1 and " + RING_SIZE + ", or 0 for no limit.");
+        }
+
+        this.maxFramesInFlight = maxFramesInFlight;
+    }
+
+    int getMaxFramesInFlight() {
+        return this.maxFramesInFlight;
+    }
+
+    /**
+     * Call this before the frame is started. With the limit on it blocks until there's room
+     * for the frame; otherwise it only retires the fences, which have signaled already.
+     */
+    void waitForSlot() {
+        while (this.count > 0) {
+            long fence = this.fences[this.first];
+
+            if (this.count >= this.maxFramesInFlight && this.maxFramesInFlight > 0) {
+                long start = System.nanoTime();
+                GL32.glClientWaitSync(fence, GL32.GL_SYNC_FLUSH_COMMANDS_BIT, WAIT_TIMEOUT);
+                this.metrics.recordFenceWait(System.nanoTime() - start);
+            } else if (GL32.glGetSynci(fence, GL32.GL_SYNC_STATUS, null) != GL32.GL_SIGNALED) {
+                return;
+            }
+
+            this.retire();
+        }
+    }
+
+    /**
+     * Call this after the swap.
+     *
+     * @param inputTime The time of the first character change shown by the frame, or 0 if there was none.
+     */
+    void frameSubmitted(long inputTime) {
+        if (this.maxFramesInFlight == 0 && inputTime == 0) {
+            return;
+        }
+
+        if (this.count == RING_SIZE) {
+            this.retire();  // Only without the limit. The latency of that frame isn't measured.
+        }
+
+        int index = (this.first + this.count) % RING_SIZE;
+        this.fences[index] = GL32.glFenceSync(GL32.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+        this.inputTimes[index] = inputTime;
+        this.count++;
+    }
+
+    /**
+     * Delete the oldest fence, and record the latency of its frame if it has signaled.
+     */
+    private void retire() {
+        long fence = this.fences[this.first];
+
+        if (this.inputTimes[this.first] != 0 && GL32.glGetSynci(fence, GL32.GL_SYNC_STATUS, null) == GL32.GL_SIGNALED) {
+            long latency = System.nanoTime() - this.inputTimes[this.first];
+            this.latency.add(latency);
+            this.metrics.recordInputLatency(latency);
+        }
+
+        GL32.glDeleteSync(fence);
+        this.first = (this.first + 1) % RING_SIZE;
+        this.count--;
+    }
+
+    /**
+     * @return The input-to-finished-frame latencies of the last frames with input, in nanoseconds.
+     */
+    RollingStatistics getLatency() {
+        return this.latency;
+    }
+
+    /**
+     * Delete the pending fences.
+     */
+    void close() {
+        while (this.count > 0) {
+            GL32.glDeleteSync(this.fences[this.first]);
+            this.first = (this.first + 1) % RING_SIZE;
+            this.count--;
+        }
+    }
+}
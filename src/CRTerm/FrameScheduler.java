@@ -0,0 +1,181 @@
+/*
+Copyright 2017 Tamas Bolner
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package CRTerm;
+
+import java.util.concurrent.locks.LockSupport;
+
+
+/**
+ * Paces the frames and collects frame-time statistics.
+ */
+public class FrameScheduler {
+    /**
+     * How the frames are paced.
+     */
+    public enum Mode {
+        /**
+         * The swap waits for the vertical blank of the monitor. (Swap interval = 1)
+         */
+        VSYNC,
+
+        /**
+         * Sleeps until shortly before the deadline, then spins for the rest of the time. (Swap interval = 0)
+         */
+        HYBRID,
+
+        /**
+         * No waiting at all. (Swap interval = 0)
+         */
+        UNCAPPED
+    }
+
+    /**
+     * Below this much remaining time the scheduler stops sleeping and spins,
+     * because the wake-up of the sleep can be late by about this much.
+     */
+    private static final long SPIN_THRESHOLD = 1500000L;
+
+    private Mode mode;
+    private long frameTime;
+    private long deadline;
+    private long lastSwapTime = 0;
+    private long missedDeadlines = 0;
+    private long frames = 0;
+    private RollingStatistics intervals = new RollingStatistics(600);
+
+    /**
+     * @param mode The pacing mode.
+     * @param fps The target frame rate. In VSYNC mode this is the refresh rate of the monitor, and is only used for the missed-deadline detection.
+     */
+    FrameScheduler(Mode mode, long fps) {
+        this.setMode(mode, fps);
+    }
+
+    /**
+     * Change the pacing mode. The statistics are reset.
+     *
+     * @param mode The pacing mode.
+     * @param fps The target frame rate. In VSYNC mode this is the refresh rate of the monitor.
+     */
+    void setMode(Mode mode, long fps) {
+        this.mode = mode;
+        this.frameTime = fps > 0 ? 1000000000L / fps : 0;
+        this.deadline = System.nanoTime() + this.frameTime;
+        this.lastSwapTime = 0;
+        this.missedDeadlines = 0;
+        this.frames = 0;
+        this.intervals.clear();
+    }
+
+    /**
+     * Call this directly before swapping the buffers. In HYBRID mode it waits until the deadline of the frame.
+     *
+     * @throws InterruptedException Thrown if the current thread has been interrupted.
+     */
+    void waitForFrame() throws InterruptedException {
+        if (this.mode != Mode.HYBRID || this.frameTime == 0) {
+            return;
+        }
+
+        long now = System.nanoTime();
+
+        if (now > this.deadline) {
+            /*
+                The frame is late. Don't try to catch up, start a new schedule from now.
+             */
+            this.missedDeadlines++;
+            this.deadline = now + this.frameTime;
+            return;
+        }
+
+        while (this.deadline - now > SPIN_THRESHOLD) {
+            LockSupport.parkNanos(this.deadline - now - SPIN_THRESHOLD);
+
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+
+            now = System.nanoTime();
+        }
+
+        while (System.nanoTime() < this.deadline) {
+            Thread.onSpinWait();
+        }
+
+        this.deadline += this.frameTime;
+    }
+
+    /**
+     * Call this directly after the buffers have been swapped.
+     *
+     * @return The time since the previous swap in nanoseconds, or 0 for the first frame.
+     */
+    long frameSwapped() {
+        long now = System.nanoTime();
+        long interval = 0;
+
+        if (this.lastSwapTime != 0) {
+            interval = now - this.lastSwapTime;
+            this.intervals.add(interval);
+
+            if (this.mode == Mode.VSYNC && this.frameTime > 0 && interval > this.frameTime * 3 / 2) {
+                this.missedDeadlines++;
+            }
+        }
+
+        this.lastSwapTime = now;
+        this.frames++;
+
+        return interval;
+    }
+
+    /**
+     * @return The current pacing mode.
+     */
+    public Mode getMode() {
+        return this.mode;
+    }
+
+    /**
+     * @return The target frame time in nanoseconds. 0 = uncapped.
+     */
+    public long getTargetFrameTime() {
+        return this.frameTime;
+    }
+
+    /**
+     * @return The number of frames, which missed their deadline since the last mode change.
+     */
+    public long getMissedDeadlines() {
+        return this.missedDeadlines;
+    }
+
+    /**
+     * @return The number of swapped frames since the last mode change.
+     */
+    public long getFrameCount() {
+        return this.frames;
+    }
+
+    /**
+     * @return Statistics of the time between the last 600 buffer swaps, in nanoseconds.
+     *          The standard deviation of the intervals is the frame-time jitter.
+     */
+    public RollingStatistics getFrameIntervals() {
+        return this.intervals;
+    }
+}
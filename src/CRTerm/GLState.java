@@ -0,0 +1,445 @@
+/*
+Copyright 2017 Tamas Bolner
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package CRTerm;
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import org.lwjgl.opengl.*;
+import org.lwjgl.system.MemoryUtil;
+
+
+/**
+ * Shadow copy of the bindings of an OpenGL context. The Terminal and its components change
+ * the state through it, so the calls which wouldn't change anything are skipped. The issued
+ * and the skipped calls are counted; the Terminal reads and resets the counters after each frame.
+ * (The fixed-function matrix setup and the timer queries don't go through this class.)
+ *
+ * Nothing is restored after use: the objects stay bound until the next change.
+ * One instance belongs to one context, and it's only valid while the context is current.
+ *
+ * It also holds the error handling mode of the context. In debug mode ("-Dcrterm.glDebug=true")
+ * a KHR_debug message callback prints the messages of the driver, the objects get labels, and
+ * checkErrors() queries glGetError. In release mode (the default) checkErrors() does nothing,
+ * so no call waits for the GPU only to find out that nothing went wrong.
+ */
+class GLState {
+    private static final int UNKNOWN = -1;
+    private static final int TEXTURE_UNITS = 8;
+
+    private int program;
+    private int activeTexture;
+    private int[] textures = new int[TEXTURE_UNITS];
+    private int framebuffer;
+    private int vertexArray;
+    private int arrayBuffer;
+    private int[] viewport = new int[4];
+    private float[] clearColor = new float[4];
+    private boolean programUniforms;
+    private boolean debug;
+    private GLDebugMessageCallback debugCallback = null;
+    private String debugError = null;
+    private long calls = 0;
+    private long skipped = 0;
+
+    /**
+     * The context has to be current. Release mode.
+     */
+    GLState() {
+        this(false);
+    }
+
+    /**
+     * The context has to be current. In debug mode it should be a debug context (GLFW_OPENGL_DEBUG_CONTEXT),
+     * otherwise the driver may not send any messages.
+     *
+     * @param debug True for debug mode, see the class description.
+     */
+    GLState(boolean debug) {
+        GLCapabilities capabilities = GL.getCapabilities();
+        this.programUniforms = capabilities.OpenGL41 || capabilities.GL_ARB_separate_shader_objects;
+        this.debug = debug && (capabilities.OpenGL43 || capabilities.GL_KHR_debug);
+        this.invalidate();
+
+        if (this.debug) {
+            /*
+                Synchronous output: the callback runs in the failing call, so checkErrors() sees its message.
+             */
+            this.debugCallback = GLDebugMessageCallback.create((source, type, id, severity, length, message, userParam) -> {
+                String text = GLDebugMessageCallback.getMessage(length, message);
+
+                if (type == KHRDebug.GL_DEBUG_TYPE_ERROR) {
+                    this.debugError = text;
+                }
+
+                if (severity != KHRDebug.GL_DEBUG_SEVERITY_NOTIFICATION) {
+                    System.err.println("OpenGL: " + text);
+                }
+            });
+
+            GL11.glEnable(KHRDebug.GL_DEBUG_OUTPUT);
+            GL11.glEnable(KHRDebug.GL_DEBUG_OUTPUT_SYNCHRONOUS);
+            KHRDebug.glDebugMessageCallback(this.debugCallback, MemoryUtil.NULL);
+        }
+    }
+
+    /**
+     * @return True if the debug mode was requested with the "crterm.glDebug" system property.
+     */
+    static boolean isDebugRequested() {
+        return Boolean.getBoolean("crterm.glDebug");
+    }
+
+    /**
+     * @return True in debug mode. (It was requested, and the context supports KHR_debug.)
+     */
+    boolean isDebug() {
+        return this.debug;
+    }
+
+    /**
+     * Debug mode only: throw an exception if an OpenGL error has occurred since the previous check.
+     * Does nothing in release mode. Not for the per-frame paths; glGetError waits for the driver.
+     *
+     * @param message The text of the exception.
+     * @throws Exception The message, with the debug message of the driver if there was one.
+     */
+    void checkErrors(String message) throws Exception {
+        if (!this.debug) {
+            return;
+        }
+
+        int error = GL11.glGetError();
+        String detail = this.debugError;
+        this.debugError = null;
+
+        if (error != GL11.GL_NO_ERROR || detail != null) {
+            throw new Exception(detail != null ? message + " Driver message: " + detail : message);
+        }
+    }
+
+    /**
+     * Debug mode only: name an object for the debug messages and for the GPU debuggers.
+     *
+     * @param identifier The kind of the object. For example KHRDebug.GL_PROGRAM, GL11.GL_TEXTURE.
+     * @param name The ID of the object.
+     * @param label The label.
+     */
+    void label(int identifier, int name, String label) {
+        if (this.debug) {
+            KHRDebug.glObjectLabel(identifier, name, label);
+        }
+    }
+
+    /**
+     * Release the debug callback.
+     */
+    void close() {
+        if (this.debugCallback != null) {
+            GL11.glDisable(KHRDebug.GL_DEBUG_OUTPUT);
+            this.debugCallback.free();
+            this.debugCallback = null;
+        }
+    }
+
+    /**
+     * Forget the shadow state, so the next call of each kind is issued. Call this after
+     * the bindings were changed by code which doesn't use this class.
+     */
+    void invalidate() {
+        this.program = UNKNOWN;
+        this.activeTexture = UNKNOWN;
+        Arrays.fill(this.textures, UNKNOWN);
+        this.framebuffer = UNKNOWN;
+        this.vertexArray = UNKNOWN;
+        this.arrayBuffer = UNKNOWN;
+        Arrays.fill(this.viewport, UNKNOWN);
+        Arrays.fill(this.clearColor, Float.NaN);
+    }
+
+    /**
+     * @param program Shader program ID. 0 = none.
+     */
+    void useProgram(int program) {
+        if (this.program == program) {
+            this.skipped++;
+            return;
+        }
+
+        GL20.glUseProgram(program);
+        this.program = program;
+        this.calls++;
+    }
+
+    /**
+     * Bind a 2D texture to a texture unit. The active unit is only changed when the binding has to change,
+     * so don't rely on it after a skipped call. (A newly generated texture is never skipped.)
+     *
+     * @param unit Index of the texture unit. (0 = GL_TEXTURE0)
+     * @param texture Texture ID. 0 = none.
+     */
+    void bindTexture(int unit, int texture) {
+        if (unit < TEXTURE_UNITS && this.textures[unit] == texture) {
+            this.skipped++;
+            return;
+        }
+
+        if (this.activeTexture != unit) {
+            GL13.glActiveTexture(GL13.GL_TEXTURE0 + unit);
+            this.activeTexture = unit;
+            this.calls++;
+        }
+
+        GL11.glBindTexture(GL11.GL_TEXTURE_2D, texture);
+        if (unit < TEXTURE_UNITS) {
+            this.textures[unit] = texture;
+        }
+        this.calls++;
+    }
+
+    /**
+     * @param framebuffer Framebuffer ID. 0 = the window.
+     */
+    void bindFramebuffer(int framebuffer) {
+        if (this.framebuffer == framebuffer) {
+            this.skipped++;
+            return;
+        }
+
+        GL30.glBindFramebuffer(GL30.GL_FRAMEBUFFER, framebuffer);
+        this.framebuffer = framebuffer;
+        this.calls++;
+    }
+
+    /**
+     * @param vertexArray Vertex array object ID. 0 = the default.
+     */
+    void bindVertexArray(int vertexArray) {
+        if (this.vertexArray == vertexArray) {
+            this.skipped++;
+            return;
+        }
+
+        GL30.glBindVertexArray(vertexArray);
+        this.vertexArray = vertexArray;
+        this.calls++;
+    }
+
+    /**
+     * @param buffer Buffer ID for GL_ARRAY_BUFFER. 0 = none.
+     */
+    void bindArrayBuffer(int buffer) {
+        if (this.arrayBuffer == buffer) {
+            this.skipped++;
+            return;
+        }
+
+        GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, buffer);
+        this.arrayBuffer = buffer;
+        this.calls++;
+    }
+
+    /**
+     * Copy the color buffer of a (multisampled) framebuffer into another one of the same size.
+     * Leaves the framebuffer binding undefined for the tracking, the next bind is always issued.
+     *
+     * @param source Framebuffer ID to read from.
+     * @param target Framebuffer ID to write into.
+     * @param width Width of both.
+     * @param height Height of both.
+     */
+    void blitFramebuffer(int source, int target, int width, int height) {
+        GL30.glBindFramebuffer(GL30.GL_READ_FRAMEBUFFER, source);
+        GL30.glBindFramebuffer(GL30.GL_DRAW_FRAMEBUFFER, target);
+        GL30.glBlitFramebuffer(0, 0, width, height, 0, 0, width, height, GL11.GL_COLOR_BUFFER_BIT, GL11.GL_NEAREST);
+        this.framebuffer = UNKNOWN;
+        this.calls += 3;
+    }
+
+    void viewport(int x, int y, int width, int height) {
+        if (this.viewport[0] == x && this.viewport[1] == y && this.viewport[2] == width && this.viewport[3] == height) {
+            this.skipped++;
+            return;
+        }
+
+        GL11.glViewport(x, y, width, height);
+        this.viewport[0] = x;
+        this.viewport[1] = y;
+        this.viewport[2] = width;
+        this.viewport[3] = height;
+        this.calls++;
+    }
+
+    void clearColor(float red, float green, float blue, float alpha) {
+        if (this.clearColor[0] == red && this.clearColor[1] == green && this.clearColor[2] == blue && this.clearColor[3] == alpha) {
+            this.skipped++;
+            return;
+        }
+
+        GL11.glClearColor(red, green, blue, alpha);
+        this.clearColor[0] = red;
+        this.clearColor[1] = green;
+        this.clearColor[2] = blue;
+        this.clearColor[3] = alpha;
+        this.calls++;
+    }
+
+    void clear(int mask) {
+        GL11.glClear(mask);
+        this.calls++;
+    }
+
+    void drawArrays(int mode, int first, int count) {
+        GL11.glDrawArrays(mode, first, count);
+        this.calls++;
+    }
+
+    void drawElements(int mode, int count, int type, long offset) {
+        GL11.glDrawElements(mode, count, type, offset);
+        this.calls++;
+    }
+
+    /*
+        Uniforms of the program in use
+     */
+
+    void uniform1f(int location, float value) {
+        GL20.glUniform1f(location, value);
+        this.calls++;
+    }
+
+    void uniform2f(int location, float x, float y) {
+        GL20.glUniform2f(location, x, y);
+        this.calls++;
+    }
+
+    /*
+        Uniforms of any program. With OpenGL 4.1 or ARB_separate_shader_objects the program
+        doesn't have to be in use, otherwise it's switched to.
+     */
+
+    void programUniform1i(int program, int location, int value) {
+        if (this.programUniforms) {
+            GL41.glProgramUniform1i(program, location, value);
+        } else {
+            this.useProgram(program);
+            GL20.glUniform1i(location, value);
+        }
+
+        this.calls++;
+    }
+
+    void programUniform2f(int program, int location, float x, float y) {
+        if (this.programUniforms) {
+            GL41.glProgramUniform2f(program, location, x, y);
+        } else {
+            this.useProgram(program);
+            GL20.glUniform2f(location, x, y);
+        }
+
+        this.calls++;
+    }
+
+    void programUniform3f(int program, int location, float x, float y, float z) {
+        if (this.programUniforms) {
+            GL41.glProgramUniform3f(program, location, x, y, z);
+        } else {
+            this.useProgram(program);
+            GL20.glUniform3f(location, x, y, z);
+        }
+
+        this.calls++;
+    }
+
+    void programUniform1iv(int program, int location, IntBuffer values) {
+        if (this.programUniforms) {
+            GL41.glProgramUniform1iv(program, location, values);
+        } else {
+            this.useProgram(program);
+            GL20.glUniform1iv(location, values);
+        }
+
+        this.calls++;
+    }
+
+    /*
+        Deleting objects. A deleted texture, framebuffer, vertex array or buffer is unbound by OpenGL.
+     */
+
+    void deleteProgram(int program) {
+        GL20.glDeleteProgram(program);
+
+        /*
+            The program stays in use until the next switch, but its ID can be reused after that.
+         */
+        if (this.program == program) {
+            this.program = UNKNOWN;
+        }
+    }
+
+    void deleteTexture(int texture) {
+        GL11.glDeleteTextures(texture);
+
+        for (int i = 0; i < TEXTURE_UNITS; i++) {
+            if (this.textures[i] == texture) {
+                this.textures[i] = 0;
+            }
+        }
+    }
+
+    void deleteFramebuffer(int framebuffer) {
+        GL30.glDeleteFramebuffers(framebuffer);
+
+        if (this.framebuffer == framebuffer) {
+            this.framebuffer = 0;
+        }
+    }
+
+    void deleteVertexArray(int vertexArray) {
+        GL30.glDeleteVertexArrays(vertexArray);
+
+        if (this.vertexArray == vertexArray) {
+            this.vertexArray = 0;
+        }
+    }
+
+    void deleteBuffer(int buffer) {
+        GL15.glDeleteBuffers(buffer);
+
+        if (this.arrayBuffer == buffer) {
+            this.arrayBuffer = 0;
+        }
+    }
+
+    /**
+     * @return The number of OpenGL calls issued through this class since the last resetCounters().
+     */
+    long getCalls() {
+        return this.calls;
+    }
+
+    /**
+     * @return The number of redundant state changes skipped since the last resetCounters().
+     */
+    long getSkipped() {
+        return this.skipped;
+    }
+
+    void resetCounters() {
+        this.calls = 0;
+        this.skipped = 0;
+    }
+}
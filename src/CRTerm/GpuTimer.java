@@ -0,0 +1,180 @@
+/*
+Copyright 2017 Tamas Bolner
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package CRTerm;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.lwjgl.opengl.*;
+
+
+/**
+ * Measures the GPU time of the render passes with GL_TIME_ELAPSED queries.
+ * The queries of a frame are read back a few frames later, only if the results
+ * are already available, so the CPU never waits for the GPU.
+ */
+class GpuTimer {
+    private static final int RING_SIZE = 4;
+    private static final int WINDOW = 240;
+
+    private Slot[] slots = new Slot[RING_SIZE];
+    private int current = 0;
+    private Slot slot = null;
+    private boolean inPass = false;
+    private long droppedFrames = 0;
+    private long measuredFrames = 0;
+    private long lastFrameTime = 0;
+    private Map<String, RollingStatistics> statistics = new LinkedHashMap<String, RollingStatistics>();
+
+    /**
+     * The queries of one frame.
+     */
+    private static class Slot {
+        List<Integer> queries = new ArrayList<Integer>();
+        List<String> names = new ArrayList<String>();
+        int used = 0;
+        boolean skipped = false;
+    }
+
+    GpuTimer() {
+        for (int i = 0; i < RING_SIZE; i++) {
+            this.slots[i] = new Slot();
+        }
+    }
+
+    /**
+     * Release OpenGL resources.
+     */
+    void close() {
+        for (Slot slot : this.slots) {
+            for (int query : slot.queries) {
+                GL15.glDeleteQueries(query);
+            }
+
+            slot.queries.clear();
+        }
+    }
+
+    /**
+     * Collects the results of the oldest frame in the ring and reuses its queries.
+     * If the GPU hasn't finished that frame yet, the current frame is not measured.
+     */
+    void beginFrame() {
+        this.current = (this.current + 1) % RING_SIZE;
+        this.slot = this.slots[this.current];
+
+        if (this.slot.used > 0) {
+            int last = this.slot.queries.get(this.slot.used - 1);
+
+            if (GL15.glGetQueryObjecti(last, GL15.GL_QUERY_RESULT_AVAILABLE) == GL11.GL_FALSE) {
+                this.slot.skipped = true;
+                this.droppedFrames++;
+                return;
+            }
+
+            long frameTime = 0;
+
+            for (int i = 0; i < this.slot.used; i++) {
+                long nanos = GL33.glGetQueryObjecti64(this.slot.queries.get(i), GL15.GL_QUERY_RESULT);
+                this.statisticsOf(this.slot.names.get(i)).add(nanos);
+                frameTime += nanos;
+            }
+
+            this.lastFrameTime = frameTime;
+            this.measuredFrames++;
+        }
+
+        this.slot.used = 0;
+        this.slot.skipped = false;
+        this.slot.names.clear();
+    }
+
+    /**
+     * Start measuring a pass. The passes cannot be nested.
+     *
+     * @param name Name of the pass.
+     */
+    void begin(String name) {
+        if (this.slot == null || this.slot.skipped) {
+            return;
+        }
+
+        if (this.slot.used == this.slot.queries.size()) {
+            this.slot.queries.add(GL15.glGenQueries());
+        }
+
+        int query = this.slot.queries.get(this.slot.used);
+        this.slot.names.add(name);
+        this.slot.used++;
+        this.inPass = true;
+
+        GL15.glBeginQuery(GL33.GL_TIME_ELAPSED, query);
+    }
+
+    /**
+     * Stop measuring the current pass.
+     */
+    void end() {
+        if (!this.inPass) {
+            return;
+        }
+
+        GL15.glEndQuery(GL33.GL_TIME_ELAPSED);
+        this.inPass = false;
+    }
+
+    /**
+     * @return The rolling GPU time statistics of the passes in nanoseconds, by pass name.
+     */
+    synchronized Map<String, RollingStatistics> getStatistics() {
+        return Collections.unmodifiableMap(new LinkedHashMap<String, RollingStatistics>(this.statistics));
+    }
+
+    /**
+     * @return The number of frames with results. Increases when a new getLastFrameTime() is available.
+     */
+    long getMeasuredFrames() {
+        return this.measuredFrames;
+    }
+
+    /**
+     * @return The GPU time of all passes of the last measured frame, in nanoseconds.
+     */
+    long getLastFrameTime() {
+        return this.lastFrameTime;
+    }
+
+    /**
+     * @return The number of frames, which were not measured because the GPU was too far behind.
+     */
+    long getDroppedFrames() {
+        return this.droppedFrames;
+    }
+
+    private synchronized RollingStatistics statisticsOf(String name) {
+        RollingStatistics result = this.statistics.get(name);
+
+        if (result == null) {
+            result = new RollingStatistics(WINDOW);
+            this.statistics.put(name, result);
+        }
+
+        return result;
+    }
+}
@@ -16,99 +16,238 @@ limitations under the License.
 
 package CRTerm;
 
-import java.nio.FloatBuffer;
+import java.nio.Buffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
 import org.lwjgl.BufferUtils;
 import org.lwjgl.opengl.*;
 
 
+/**
+ * The mesh of the character grid. The vertices are shared between the neighbouring cells,
+ * and only hold the integer grid coordinates. The curvature and the zoom are applied
+ * in the vertex shader (grid_vertex_shader.vert), so they can be changed at any time
+ * without rebuilding the buffers.
+ */
 class Grid {
+    private GLState state;
     private int bufferGroup;
     private int vertexBuffer;
-    private int count;
+    private int indexBuffer;
+    private int indexCount;
+    private int indexType;
+    private long memorySize;
+
+    private float width;
+    private float height;
+    private float verticalCurvature = 0;
+    private float horizontalCurvature = 0;
+    private float zoom = 1;
+
+    private int uniform_gridSize;
+    private int uniform_curvature;
+    private int uniform_zoom;
 
     /**
      * Creates a character grid.
      *
+     * @param state The state tracker of the context.
+     * @param programID The shader program, which draws the grid. (It has to use grid_vertex_shader.vert)
      * @param width Width fo the grid.
      * @param height Height of the grid.
      * @param columns Number of character horizontally.
      * @param rows Number of characters vertically.
-     * @param verticalCurvature Vertical curvature of the CRT screen.
-     * @param horizontalCurvature Horizontal curvator of the CRT screen.
      */
-    Grid(double width, double height, int columns, int rows, double verticalCurvature, double horizontalCurvature) {
-        this.count = columns * rows;
-        double sizeX = width / ((double)columns);
-        double sizeY = height / ((double)rows);
-
-        /*
-            Vertex data
-         */
-        FloatBuffer vertex_data = BufferUtils.createFloatBuffer(this.count * 24);
-        float left, right, top, bottom, number;
-
-        double screen_pi_width = Math.PI / width;
-        double screen_pi_height = Math.PI / height;
-
-        for(double j = 0; j < rows; j++) {
-            for(double i = 0; i < columns; i++) {
-                number = (float)(j * columns + i);
-
-                left = (float)(sizeX * i);
-                right = (float)(left + sizeX);
-                bottom = (float)(sizeY * j);
-                top = (float)(bottom + sizeY);
-
-                vertex_data.put(new float[] {
-                        left, top,      (float)(Math.sin(left * screen_pi_width) * horizontalCurvature + Math.sin(top * screen_pi_height) * verticalCurvature),		0, 0, number,
-                        left, bottom,   (float)(Math.sin(left * screen_pi_width) * horizontalCurvature + Math.sin(bottom * screen_pi_height) * verticalCurvature),	    0, 1, number,
-                        right, bottom,  (float)(Math.sin(right * screen_pi_width) * horizontalCurvature + Math.sin(bottom * screen_pi_height) * verticalCurvature),	    1, 1, number,
-                        right, top,     (float)(Math.sin(right * screen_pi_width) * horizontalCurvature + Math.sin(top * screen_pi_height) * verticalCurvature),		1, 0, number
-                });
-            }
-        }
-
-        vertex_data.flip();
+    Grid(GLState state, int programID, double width, double height, int columns, int rows) {
+        this.state = state;
+        this.width = (float)width;
+        this.height = (float)height;
 
         /*
             VAO
          */
         this.bufferGroup = GL30.glGenVertexArrays();
-        GL30.glBindVertexArray(this.bufferGroup);
+        this.state.bindVertexArray(this.bufferGroup);
 
         /*
             Vertex buffer VBO
          */
         this.vertexBuffer = GL15.glGenBuffers();
-        GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, this.vertexBuffer);
+        this.state.bindArrayBuffer(this.vertexBuffer);
+
+        GL20.glVertexAttribPointer(0, 2, GL11.GL_UNSIGNED_SHORT, false, 4, 0);	// mark grid coordinates
+        GL20.glEnableVertexAttribArray(0);
+
+        /*
+            Index buffer (part of the VAO state)
+         */
+        this.indexBuffer = GL15.glGenBuffers();
+        GL15.glBindBuffer(GL15.GL_ELEMENT_ARRAY_BUFFER, this.indexBuffer);
+
+        this.state.label(GL11.GL_VERTEX_ARRAY, this.bufferGroup, "grid");
+        this.state.label(KHRDebug.GL_BUFFER, this.vertexBuffer, "grid vertices");
+        this.state.label(KHRDebug.GL_BUFFER, this.indexBuffer, "grid indices");
+        this.state.bindVertexArray(0);
+
+        this.setDimensions(programID, columns, rows);
+    }
+
+    /**
+     * Rebuild the mesh for a new grid size. The buffer objects are kept, only their data is replaced;
+     * the curvature and the zoom stay.
+     *
+     * @param programID The shader program, which draws the grid from now on.
+     * @param columns Number of character horizontally.
+     * @param rows Number of characters vertically.
+     */
+    void setDimensions(int programID, int columns, int rows) {
+        this.setProgram(programID);
+
+        ShortBuffer vertex_data = createVertexData(columns, rows);
+        Buffer index_data = createIndexData(columns, rows);
+        this.indexCount = columns * rows * 6;
+        this.indexType = index_data instanceof ShortBuffer ? GL11.GL_UNSIGNED_SHORT : GL11.GL_UNSIGNED_INT;
+        this.memorySize = vertex_data.remaining() * 2L + this.indexCount * (this.indexType == GL11.GL_UNSIGNED_SHORT ? 2L : 4L);
+
+        this.state.bindVertexArray(this.bufferGroup);
+        this.state.bindArrayBuffer(this.vertexBuffer);
         GL15.glBufferData(GL15.GL_ARRAY_BUFFER, vertex_data, GL15.GL_STATIC_DRAW);
 
-        GL20.glVertexAttribPointer(0, 3, GL11.GL_FLOAT, false, 24, 0);	// mark vertex coordinates
-        GL20.glVertexAttribPointer(1, 2, GL11.GL_FLOAT, false, 24, 12);	// mark texture coordinates
-        GL20.glVertexAttribPointer(2, 1, GL11.GL_FLOAT, false, 24, 20);	// mark quad identifiers
+        if (index_data instanceof ShortBuffer) {
+            GL15.glBufferData(GL15.GL_ELEMENT_ARRAY_BUFFER, (ShortBuffer)index_data, GL15.GL_STATIC_DRAW);
+        } else {
+            GL15.glBufferData(GL15.GL_ELEMENT_ARRAY_BUFFER, (IntBuffer)index_data, GL15.GL_STATIC_DRAW);
+        }
+
+        this.state.bindVertexArray(0);
+    }
 
-        GL30.glBindVertexArray(0);
+    /**
+     * Switch to another variant of the grid program. Only the uniform locations are queried again.
+     *
+     * @param programID The shader program, which draws the grid from now on.
+     */
+    void setProgram(int programID) {
+        this.uniform_gridSize = GL20.glGetUniformLocation(programID, "gridSize");
+        this.uniform_curvature = GL20.glGetUniformLocation(programID, "curvature");
+        this.uniform_zoom = GL20.glGetUniformLocation(programID, "zoom");
     }
 
     /**
-     * Draw the screen.
+     * Calculates the shared vertices of the grid: (columns + 1) * (rows + 1) points,
+     * each stored as two unsigned shorts (column, row). The rows are counted from the bottom.
+     * Pure CPU work, no OpenGL calls.
+     *
+     * @param columns Number of character horizontally.
+     * @param rows Number of characters vertically.
+     * @return The grid coordinates of the vertices.
      */
-    void draw() {
-        GL30.glBindVertexArray(this.bufferGroup);
-        GL20.glEnableVertexAttribArray(0);
-        GL20.glEnableVertexAttribArray(1);
-        GL20.glEnableVertexAttribArray(2);
+    static ShortBuffer createVertexData(int columns, int rows) {
+        ShortBuffer vertex_data = BufferUtils.createShortBuffer((columns + 1) * (rows + 1) * 2);
+
+        for (int j = 0; j <= rows; j++) {
+            for (int i = 0; i <= columns; i++) {
+                vertex_data.put((short)i).put((short)j);
+            }
+        }
+
+        vertex_data.flip();
+
+        return vertex_data;
+    }
+
+    /**
+     * Calculates the indices of the two triangles of each cell.
+     * Pure CPU work, no OpenGL calls.
+     *
+     * @param columns Number of character horizontally.
+     * @param rows Number of characters vertically.
+     * @return A ShortBuffer if all vertices can be addressed with unsigned shorts, otherwise an IntBuffer.
+     */
+    static Buffer createIndexData(int columns, int rows) {
+        boolean compact = (columns + 1) * (rows + 1) <= 65536;
+        ShortBuffer shorts = compact ? BufferUtils.createShortBuffer(columns * rows * 6) : null;
+        IntBuffer ints = compact ? null : BufferUtils.createIntBuffer(columns * rows * 6);
+        int[] cell = new int[6];
+        int bottomLeft;
+
+        for (int j = 0; j < rows; j++) {
+            for (int i = 0; i < columns; i++) {
+                bottomLeft = j * (columns + 1) + i;
+
+                cell[0] = bottomLeft + columns + 1;     // top left
+                cell[1] = bottomLeft;                   // bottom left
+                cell[2] = bottomLeft + 1;               // bottom right
+                cell[3] = bottomLeft + columns + 1;     // top left
+                cell[4] = bottomLeft + 1;               // bottom right
+                cell[5] = bottomLeft + columns + 2;     // top right
+
+                for (int index : cell) {
+                    if (compact) {
+                        shorts.put((short)index);
+                    } else {
+                        ints.put(index);
+                    }
+                }
+            }
+        }
+
+        if (compact) {
+            shorts.flip();
+            return shorts;
+        }
+
+        ints.flip();
+        return ints;
+    }
 
-        GL11.glDrawArrays(GL11.GL_QUADS, 0, this.count * 4);
+    /**
+     * Draw the screen. The shader program of the grid has to be in use.
+     * The vertex array stays bound.
+     */
+    void draw() {
+        this.state.uniform2f(this.uniform_gridSize, this.width, this.height);
+        this.state.uniform2f(this.uniform_curvature, this.horizontalCurvature, this.verticalCurvature);
+        this.state.uniform1f(this.uniform_zoom, this.zoom);
 
-        GL30.glBindVertexArray(0);
+        this.state.bindVertexArray(this.bufferGroup);
+        this.state.drawElements(GL11.GL_TRIANGLES, this.indexCount, this.indexType, 0);
     }
 
     /**
      * Release OpenGL resources.
      */
     void close() {
-        GL15.glDeleteBuffers(this.vertexBuffer);
+        this.state.deleteVertexArray(this.bufferGroup);
+        this.state.deleteBuffer(this.vertexBuffer);
+        this.state.deleteBuffer(this.indexBuffer);
+    }
+
+    /**
+     * Takes effect at the next draw, the buffers are not touched.
+     *
+     * @param verticalCurvature Vertical curvature of the CRT screen.
+     * @param horizontalCurvature Horizontal curvator of the CRT screen.
+     */
+    void setCurvature(double verticalCurvature, double horizontalCurvature) {
+        this.verticalCurvature = (float)verticalCurvature;
+        this.horizontalCurvature = (float)horizontalCurvature;
+    }
+
+    /**
+     * Takes effect at the next draw, the buffers are not touched.
+     *
+     * @param zoom Magnification around the center of the screen. 1 = default.
+     */
+    void setZoom(double zoom) {
+        this.zoom = (float)zoom;
+    }
+
+    /**
+     * @return The size of the vertex and index buffers in bytes.
+     */
+    long getMemorySize() {
+        return this.memorySize;
     }
 
     /**
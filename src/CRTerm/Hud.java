@@ -0,0 +1,228 @@
+/*
+Copyright 2017 Tamas Bolner
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package CRTerm;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import org.lwjgl.opengl.*;
+
+
+/**
+ * Performance overlay in the top-left corner of the screen. It has its own small character grid and
+ * shader program (the same shaders as the terminal text, compiled without the scanline and the fade),
+ * so the character data of the application is never touched. The text is only refreshed a few times
+ * per second, otherwise drawing it is a single draw call. Its own cost is shown too: the CPU time of
+ * update() and draw(), and the GPU time as the "hud" pass.
+ */
+class Hud {
+    private static final int COLUMNS = 28;
+    private static final int ROWS = 15;
+    private static final int CELL_WIDTH = 12;
+    private static final int CELL_HEIGHT = 16;
+    private static final int MARGIN = 8;
+    private static final long REFRESH_INTERVAL = 250000000L;
+    private static final char[] SPARKLINE = { '_', '.', '-', '~', '\'' };
+
+    private GLState state;
+    private Pipeline pipeline;
+    private Characters characters;
+    private Grid grid;
+    private int uniform_fontColor;
+    private int color = -1;
+    private long[] frameTimes = new long[COLUMNS];
+    private int nextFrameTime = 0;
+    private long lastRefresh = 0;
+    private long lastFrames = 0;
+    private long lastCells = 0;
+    private char[] text = new char[COLUMNS * ROWS];
+    private RollingStatistics cpuTime = new RollingStatistics(60);
+    private List<BufferPoolMXBean> bufferPools = ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class);
+
+    /**
+     * @param state The state tracker of the context.
+     * @throws Exception The thrown exceptions contain error messages.
+     */
+    Hud(GLState state) throws Exception {
+        this.state = state;
+        this.pipeline = new Pipeline(state);
+        this.pipeline.define("GRID_COLUMNS", COLUMNS);
+        this.pipeline.define("GRID_ROWS", ROWS);
+        this.pipeline.define("SCANLINE", 0);
+        this.pipeline.define("FADE", 0);
+        this.pipeline.bindAttribLocation(0, "in_Position");
+        this.pipeline.addShader("grid_vertex_shader.vert",  GL20.GL_VERTEX_SHADER);
+        this.pipeline.addShader("character_fragment_shader.frag",  GL20.GL_FRAGMENT_SHADER);
+        this.pipeline.link();
+
+
+        this.characters = new Characters(COLUMNS, ROWS, this.pipeline.getProgramID(), state);
+        this.grid = new Grid(state, this.pipeline.getProgramID(), COLUMNS * CELL_WIDTH, ROWS * CELL_HEIGHT, COLUMNS, ROWS);
+        this.uniform_fontColor = this.pipeline.getUniformLocation("fontColor");
+    }
+
+    /**
+     * Release OpenGL resources.
+     */
+    void close() {
+        this.grid.close();
+        this.characters.close();
+        this.pipeline.close();
+    }
+
+    /**
+     * Collect the statistics of the last frame, and refresh the text if it's time.
+     *
+     * @param terminal The source of the statistics.
+     */
+    void update(Terminal terminal) {
+        this.frameTimes[this.nextFrameTime] = terminal.getFrameScheduler().getFrameIntervals().getLast();
+        this.nextFrameTime = (this.nextFrameTime + 1) % COLUMNS;
+
+        long now = System.nanoTime();
+        if (now - this.lastRefresh < REFRESH_INTERVAL) {
+            return;
+        }
+
+        this.lastRefresh = now;
+        Arrays.fill(this.text, ' ');
+
+        /*
+            FPS and frame-time sparkline
+         */
+        RollingStatistics intervals = terminal.getFrameScheduler().getFrameIntervals();
+        double frameTime = intervals.getAverage() / 1e6;
+        this.print(0, String.format("FPS %6.1f %8.2f ms", frameTime > 0 ? 1000d / frameTime : 0, frameTime));
+
+        double scale = Math.max(frameTime * 2d, 1d) / SPARKLINE.length;
+        for (int i = 0; i < COLUMNS; i++) {
+            double value = this.frameTimes[(this.nextFrameTime + i) % COLUMNS] / 1e6;
+            this.text[COLUMNS + i] = SPARKLINE[Math.min((int)(value / scale), SPARKLINE.length - 1)];
+        }
+
+        /*
+            Uploaded cells per frame
+         */
+        TerminalMetrics metrics = terminal.getMetrics();
+        long frames = metrics.getFramesRendered();
+        long cells = metrics.getUploadedCells();
+        this.print(2, String.format("Cells/frame %10.0f", frames > this.lastFrames ? (cells - this.lastCells) / (double)(frames - this.lastFrames) : 0d));
+        this.lastFrames = frames;
+        this.lastCells = cells;
+
+        /*
+            Memory
+         */
+        Runtime runtime = Runtime.getRuntime();
+        long offHeap = 0;
+        for (BufferPoolMXBean pool : this.bufferPools) {
+            offHeap += pool.getMemoryUsed();
+        }
+
+        this.print(3, String.format("Heap     %10.1f MB", (runtime.totalMemory() - runtime.freeMemory()) / 1048576d));
+        this.print(4, String.format("Off-heap %10.1f MB", offHeap / 1048576d));
+
+        /*
+            OpenGL calls of the last frame
+         */
+        this.print(5, String.format("GL calls %5d skipped %4d", metrics.getGLCallsLastFrame(), metrics.getGLCallsSkippedLastFrame()));
+
+        /*
+            Quality level
+         */
+        this.print(6, String.format("Q%d %3d%% %2dt /%d %dx%s", terminal.getQualityGovernor().getLevel(),
+                Math.round(terminal.getRenderScale() * 100), terminal.getBlurTaps(), 1 << terminal.getBloomDownsample(),
+                terminal.getTextSamples(), terminal.isQualityGovernorEnabled() ? " auto" : ""));
+
+        /*
+            Input latency (see Terminal.setLowLatency)
+         */
+        this.print(7, String.format("Latency %7.2f ms %s", terminal.getInputLatency().getAverage() / 1e6,
+                terminal.getMaxFramesInFlight() > 0 ? "LL" + terminal.getMaxFramesInFlight() : ""));
+
+        /*
+            Cost of the overlay on the CPU (its GPU time is the "hud" pass below)
+         */
+        this.print(8, String.format("HUD cpu %13.3f ms", this.cpuTime.getAverage() / 1e6));
+
+        /*
+            GPU pass times
+         */
+        int row = 9;
+        for (Map.Entry<String, RollingStatistics> entry : terminal.getGpuTimings().entrySet()) {
+            if (row >= ROWS) {
+                break;
+            }
+
+            this.print(row++, String.format("%-15s %6.3f ms", entry.getKey(), entry.getValue().getAverage() / 1e6));
+        }
+
+        this.characters.setCharacters(this.text);
+    }
+
+    /**
+     * Draw the overlay to the currently bound framebuffer.
+     *
+     * @param windowWidth Width of the client area.
+     * @param windowHeight Height of the client area.
+     * @param fontTextureID The texture atlas of the terminal font.
+     * @param color RGB color of the text.
+     */
+    void draw(int windowWidth, int windowHeight, int fontTextureID, int color) {
+        if (color != this.color) {
+            this.state.programUniform3f(this.pipeline.getProgramID(), this.uniform_fontColor,
+                    ((color >> 16) & 0xff) / 255f, ((color >> 8) & 0xff) / 255f, (color & 0xff) / 255f);
+            this.color = color;
+        }
+
+        GL11.glMatrixMode(GL11.GL_PROJECTION);
+        GL11.glLoadIdentity();
+        GL11.glOrtho(0, windowWidth, 0, windowHeight, -1, 1);
+        GL11.glMatrixMode(GL11.GL_MODELVIEW);
+        GL11.glLoadIdentity();
+        GL11.glTranslated(MARGIN, windowHeight - ROWS * CELL_HEIGHT - MARGIN, 0);
+
+        this.pipeline.use();
+        this.state.bindTexture(0, fontTextureID);
+        this.grid.draw();
+    }
+
+    /**
+     * @param nanos CPU time of update() and draw() in the last frame.
+     */
+    void recordCpuTime(long nanos) {
+        this.cpuTime.add(nanos);
+    }
+
+    /**
+     * @return The CPU time of update() and draw() in nanoseconds, for the last 60 frames.
+     */
+    RollingStatistics getCpuTime() {
+        return this.cpuTime;
+    }
+
+    /**
+     * Write a line of text, truncated to the width of the overlay.
+     */
+    private void print(int row, String line) {
+        for (int i = 0; i < Math.min(line.length(), COLUMNS); i++) {
+            this.text[row * COLUMNS + i] = line.charAt(i);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+Copyright 2017 Tamas Bolner
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package CRTerm;
+
+
+/**
+ * A keyboard event, delivered by the ManagedTerminal to the application.
+ */
+public class InputEvent {
+    /**
+     * The type of the event.
+     */
+    public enum Type {
+        /**
+         * A key was pressed, repeated or released. See getKey(), getAction() and getMods().
+         */
+        KEY,
+
+        /**
+         * A Unicode character was typed. See getCodepoint().
+         */
+        CHARACTER
+    }
+
+    private Type type;
+    private int key;
+    private int scancode;
+    private int action;
+    private int mods;
+    private int codepoint;
+    private long time;
+
+    InputEvent(Type type, int key, int scancode, int action, int mods, int codepoint, long time) {
+        this.type = type;
+        this.key = key;
+        this.scancode = scancode;
+        this.action = action;
+        this.mods = mods;
+        this.codepoint = codepoint;
+        this.time = time;
+    }
+
+    /**
+     * @return KEY or CHARACTER.
+     */
+    public Type getType() {
+        return this.type;
+    }
+
+    /**
+     * @return GLFW key code. Example: GLFW_KEY_ENTER
+     */
+    public int getKey() {
+        return this.key;
+    }
+
+    /**
+     * @return Platform-specific scancode of the key.
+     */
+    public int getScancode() {
+        return this.scancode;
+    }
+
+    /**
+     * @return GLFW_PRESS, GLFW_REPEAT or GLFW_RELEASE.
+     */
+    public int getAction() {
+        return this.action;
+    }
+
+    /**
+     * @return Bit field of the GLFW modifier keys.
+     */
+    public int getMods() {
+        return this.mods;
+    }
+
+    /**
+     * @return The Unicode code point of a CHARACTER event.
+     */
+    public int getCodepoint() {
+        return this.codepoint;
+    }
+
+    /**
+     * @return The time of the event, from System.nanoTime().
+     */
+    public long getTime() {
+        return this.time;
+    }
+}
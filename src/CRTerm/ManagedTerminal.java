@@ -0,0 +1,259 @@
+/*
+Copyright 2017 Tamas Bolner
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package CRTerm;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import org.lwjgl.glfw.Callbacks;
+import static org.lwjgl.glfw.GLFW.*;
+
+
+/**
+ * Runs a Terminal on its own render thread. The application threads submit
+ * commands through a lock-free queue, which are executed on the render thread
+ * before the next frame. The keyboard events are delivered on a separate queue.
+ *
+ * GLFW expects its window functions to be called on the main thread on MacOS,
+ * so this mode is only usable on Linux and Windows.
+ */
+public class ManagedTerminal {
+    /**
+     * An operation executed on the render thread, with the OpenGL context current.
+     */
+    public interface Command {
+        void run(Terminal terminal) throws Exception;
+    }
+
+    /**
+     * A command in the queue, with the time of the input it responds to.
+     */
+    private static class Submitted {
+        final Command command;
+        final long inputTime;
+
+        Submitted(Command command, long inputTime) {
+            this.command = command;
+            this.inputTime = inputTime;
+        }
+    }
+
+    private Thread renderThread;
+    private Terminal terminal = null;
+    private ConcurrentLinkedQueue<Submitted> commands = new ConcurrentLinkedQueue<Submitted>();
+    private ConcurrentLinkedQueue<InputEvent> inputEvents = new ConcurrentLinkedQueue<InputEvent>();
+    private volatile boolean running = true;
+    private volatile Exception error = null;
+    private RollingStatistics inputLatency = new RollingStatistics(600);
+
+    /**
+     * Start the render thread, and create the Terminal on it. Returns after the window has been created.
+     *
+     * @param columns Horizontal character count.
+     * @param rows Vertical character count.
+     * @param color RGB font color. Example: 0x70fe80
+     * @param scanLineBreadth The CRT screen is constructed of vertical scan lines. This parameter tells their breadth or thickness. 1 = no spaces in between. Example value: 0.7d
+     * @param fontThickness This parameter tells how much should the scan lines overreach the pixels of the characters. 0 = stay inside the pixels. Example value: 0.25d
+     * @param verticalCurvature Vertical curvature of the CRT screen.
+     * @param horizontalCurvature Horizontal curvature of the CRT screen.
+     * @throws Exception The errors of the Terminal constructor.
+     */
+    public ManagedTerminal(int columns, int rows, int color, double scanLineBreadth, double fontThickness, double verticalCurvature, double horizontalCurvature) throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+
+        this.renderThread = new Thread(() -> {
+            try {
+                this.terminal = new Terminal(columns, rows, color, scanLineBreadth, fontThickness, verticalCurvature, horizontalCurvature);
+                this.installCallbacks();
+            } catch (Exception ex) {
+                this.error = ex;
+                this.running = false;
+            }
+
+            started.countDown();
+
+            if (this.terminal != null) {
+                this.renderLoop();
+            }
+        }, "CRTerm render thread");
+
+        this.renderThread.start();
+        started.await();
+
+        if (this.error != null) {
+            this.renderThread.join();
+            throw this.error;
+        }
+    }
+
+    /**
+     * Queue a command for the render thread. It gets executed before the next frame.
+     *
+     * @param command Operation on the Terminal.
+     */
+    public void submit(Command command) {
+        this.commands.offer(new Submitted(command, 0));
+    }
+
+    /**
+     * Queue a command, which responds to an input. The time from the input to the swap of the
+     * frame, which contains the command, is measured by getInputLatency(), and by Terminal.getInputLatency()
+     * until the GPU has finished it.
+     *
+     * @param inputTime Time of the input, for example InputEvent.getTime(). (From System.nanoTime())
+     * @param command Operation on the Terminal.
+     */
+    public void submit(long inputTime, Command command) {
+        this.commands.offer(new Submitted(command, inputTime));
+    }
+
+    /**
+     * Update the characters of the terminal and upload them before the next frame.
+     *
+     * @param characters Starting at the top-left corner. The array is copied.
+     */
+    public void setCharacters(char[] characters) {
+        char[] copy = characters.clone();
+
+        this.submit(terminal -> terminal.setCharacters(copy));
+    }
+
+    /**
+     * Update a character region of the terminal and upload it before the next frame.
+     *
+     * @param x Starting position X-coordinate. The top-left corner is (0, 0).
+     * @param y Starting position Y-coordinate. The top-left corner is (0, 0).
+     * @param characters Start writing these characters out, starting from the given (x, y) coordinates. The array is copied.
+     */
+    public void setCharacters(int x, int y, char[] characters) {
+        char[] copy = characters.clone();
+
+        this.submit(terminal -> terminal.setCharacters(x, y, copy));
+    }
+
+    /**
+     * Scrolls the text upwards, leaves an empty line on the bottom, then uploads the characters.
+     */
+    public void scrollUp() {
+        this.submit(terminal -> {
+            terminal.scrollUp();
+            terminal.uploadCharacterArray();
+        });
+    }
+
+    /**
+     * Rotates the text upwards, then uploads the characters. The first line becomes the last.
+     */
+    public void rotateUp() {
+        this.submit(terminal -> {
+            terminal.rotateUp();
+            terminal.uploadCharacterArray();
+        });
+    }
+
+    /**
+     * @return The oldest keyboard event not yet taken, or null if there are none.
+     */
+    public InputEvent pollInput() {
+        return this.inputEvents.poll();
+    }
+
+    /**
+     * @return False after the window has been closed, or the render thread stopped with an error.
+     */
+    public boolean isRunning() {
+        return this.running;
+    }
+
+    /**
+     * @return The error, which stopped the render thread, or null.
+     */
+    public Exception getError() {
+        return this.error;
+    }
+
+    /**
+     * @return Time from an input to the swap of the frame, which contains the response to it (see submit(long, Command)).
+     *          In nanoseconds, for the last 600 frames with a response; a frame with more of them counts the earliest
+     *          input. The frames queued by the driver aren't included; Terminal.getInputLatency() measures from the
+     *          same inputs until the GPU has finished the frame.
+     */
+    public RollingStatistics getInputLatency() {
+        return this.inputLatency;
+    }
+
+    /**
+     * Stop the render thread and close the Terminal.
+     *
+     * @throws InterruptedException Thrown if the current thread has been interrupted while waiting.
+     */
+    public void close() throws InterruptedException {
+        this.running = false;
+        this.renderThread.join();
+    }
+
+    private void installCallbacks() {
+        long windowID = this.terminal.getWindowID();
+
+        glfwSetKeyCallback(windowID, (window, key, scancode, action, mods) -> {
+            this.inputEvents.offer(new InputEvent(InputEvent.Type.KEY, key, scancode, action, mods, 0, System.nanoTime()));
+        });
+
+        glfwSetCharCallback(windowID, (window, codepoint) -> {
+            this.inputEvents.offer(new InputEvent(InputEvent.Type.CHARACTER, 0, 0, 0, 0, codepoint, System.nanoTime()));
+        });
+    }
+
+    private void renderLoop() {
+        Submitted submitted;
+
+        try {
+            while (this.running) {
+                long inputTime = 0;
+
+                while ((submitted = this.commands.poll()) != null) {
+                    submitted.command.run(this.terminal);
+
+                    if (submitted.inputTime != 0 && (inputTime == 0 || submitted.inputTime < inputTime)) {
+                        inputTime = submitted.inputTime;
+                    }
+                }
+
+                if (inputTime != 0) {
+                    this.terminal.markInput(inputTime);
+                }
+
+                this.terminal.renderFrame();
+                this.terminal.swapBuffers();
+
+                if (inputTime != 0) {
+                    this.inputLatency.add(System.nanoTime() - inputTime);
+                }
+
+                glfwPollEvents();
+                if (glfwWindowShouldClose(this.terminal.getWindowID())) {
+                    this.running = false;
+                }
+            }
+        } catch (Exception ex) {
+            this.error = ex;
+            this.running = false;
+        }
+
+        Callbacks.glfwFreeCallbacks(this.terminal.getWindowID());
+        this.terminal.close();
+    }
+}
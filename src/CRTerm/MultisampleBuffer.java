@@ -0,0 +1,128 @@
+/*
+Copyright 2017 Tamas Bolner
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package CRTerm;
+
+import org.lwjgl.opengl.*;
+
+
+/**
+ * Multisampled render target for the text pass. The result is resolved into
+ * a framebuffer of the render graph, so only the edges of the grid get antialiased;
+ * the full-screen post-processing passes stay single-sampled.
+ */
+class MultisampleBuffer {
+    private GLState state;
+    private int frameBuffer;
+    private int colorBuffer;
+    private int depthBuffer;
+    private int samples;
+    private int width;
+    private int height;
+
+    /**
+     * @param state The state tracker of the context.
+     * @param samples Requested sample count. Limited to GL_MAX_SAMPLES.
+     * @param width Width of the target.
+     * @param height Height of the target.
+     * @throws Exception Throws error.
+     */
+    MultisampleBuffer(GLState state, int samples, int width, int height) throws Exception {
+        this.state = state;
+        this.samples = Math.min(samples, GL11.glGetInteger(GL30.GL_MAX_SAMPLES));
+        this.width = width;
+        this.height = height;
+
+        this.frameBuffer = GL30.glGenFramebuffers();
+        this.state.bindFramebuffer(this.frameBuffer);
+
+        this.colorBuffer = GL30.glGenRenderbuffers();
+        GL30.glBindRenderbuffer(GL30.GL_RENDERBUFFER, this.colorBuffer);
+        GL30.glRenderbufferStorageMultisample(GL30.GL_RENDERBUFFER, this.samples, GL11.GL_RGBA8, width, height);
+        GL30.glFramebufferRenderbuffer(GL30.GL_FRAMEBUFFER, GL30.GL_COLOR_ATTACHMENT0, GL30.GL_RENDERBUFFER, this.colorBuffer);
+
+        this.depthBuffer = GL30.glGenRenderbuffers();
+        GL30.glBindRenderbuffer(GL30.GL_RENDERBUFFER, this.depthBuffer);
+        GL30.glRenderbufferStorageMultisample(GL30.GL_RENDERBUFFER, this.samples, GL14.GL_DEPTH_COMPONENT24, width, height);
+        GL30.glFramebufferRenderbuffer(GL30.GL_FRAMEBUFFER, GL30.GL_DEPTH_ATTACHMENT, GL30.GL_RENDERBUFFER, this.depthBuffer);
+        GL30.glBindRenderbuffer(GL30.GL_RENDERBUFFER, 0);
+
+        this.state.label(GL30.GL_FRAMEBUFFER, this.frameBuffer, "multisample framebuffer");
+        this.state.label(GL30.GL_RENDERBUFFER, this.colorBuffer, "multisample color");
+        this.state.label(GL30.GL_RENDERBUFFER, this.depthBuffer, "multisample depth");
+
+        try {
+            this.state.checkErrors("Creating multisampled renderbuffers failed. (MultisampleBuffer)");
+        } catch (Exception ex) {
+            this.close();
+            throw ex;
+        }
+
+        if (GL30.glCheckFramebufferStatus(GL30.GL_FRAMEBUFFER) != GL30.GL_FRAMEBUFFER_COMPLETE) {
+            this.close();
+            throw new Exception("Frame buffer is not complete. (MultisampleBuffer)");
+        }
+
+        this.state.bindFramebuffer(0);
+    }
+
+    /**
+     * Release OpenGL resources.
+     */
+    void close() {
+        this.state.deleteFramebuffer(this.frameBuffer);
+        GL30.glDeleteRenderbuffers(this.colorBuffer);
+        GL30.glDeleteRenderbuffers(this.depthBuffer);
+    }
+
+    /**
+     * Bind the multisampled framebuffer for drawing.
+     */
+    void bindFrameBuffer() {
+        this.state.bindFramebuffer(this.frameBuffer);
+    }
+
+    /**
+     * Copy the averaged samples into a single-sampled framebuffer of the same size.
+     *
+     * @param target Framebuffer ID.
+     */
+    void resolve(int target) {
+        this.state.blitFramebuffer(this.frameBuffer, target, this.width, this.height);
+    }
+
+    /**
+     * @return The sample count, after the limit of the driver.
+     */
+    int getSamples() {
+        return this.samples;
+    }
+
+    int getWidth() {
+        return this.width;
+    }
+
+    int getHeight() {
+        return this.height;
+    }
+
+    /**
+     * @return The approximate GPU memory used by the color and depth samples, in bytes.
+     */
+    long getMemorySize() {
+        return (long)this.width * this.height * this.samples * (4 + 4);
+    }
+}
@@ -0,0 +1,152 @@
+/*
+Copyright 2017 Tamas Bolner
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package CRTerm;
+
+
+/**
+ * The time-based effects of the screen: the fade-out of the phosphor and the motion of the scanline.
+ * Both depend on the elapsed time, not on the number of frames, so they look the same at any frame rate.
+ */
+public class Phosphor {
+    /**
+     * Half-life of the fade-out in milliseconds. Equals the original fixed 0.7 attenuation per frame at 60 FPS.
+     */
+    public static final double DEFAULT_HALF_LIFE = 32.4d;
+
+    /**
+     * Speed of the scanline in rows per second. Equals the original 0.1 rows per frame at 60 FPS.
+     */
+    public static final double DEFAULT_SCANLINE_SPEED = 6d;
+
+    /**
+     * A fully lit pixel has to lose this many half-lives to fall below 1/255.
+     */
+    private static final double CONVERGENCE_HALF_LIVES = Math.log(255d) / Math.log(2d);
+
+    private int rows;
+    private double halfLife = DEFAULT_HALF_LIFE;
+    private double scanlineSpeed = DEFAULT_SCANLINE_SPEED;
+    private double scanlinePosition = 0;
+    private float attenuation = 1f;
+    private long lastTime = 0;
+    private long lastChange = 0;
+    private boolean started = false;
+    private boolean changed = true;
+
+    /**
+     * @param rows Vertical character count. The scanline wraps around after this many rows.
+     */
+    Phosphor(int rows) {
+        this.rows = rows;
+    }
+
+    /**
+     * Step the effects to the time of the next frame.
+     *
+     * @param time Time of the frame in nanoseconds, from a monotonic clock. (For example System.nanoTime())
+     */
+    void advance(long time) {
+        long elapsed = this.started ? Math.max(time - this.lastTime, 0) : 0;
+
+        this.attenuation = this.halfLife > 0 ? (float)Math.pow(0.5d, elapsed / 1e6 / this.halfLife) : 0f;
+        this.scanlinePosition = (this.scanlinePosition + this.scanlineSpeed * elapsed / 1e9) % this.rows;
+        this.lastTime = time;
+        this.started = true;
+
+        if (this.changed) {
+            this.lastChange = time;
+            this.changed = false;
+        }
+    }
+
+    /**
+     * @param rows Vertical character count after a change of the grid size.
+     */
+    void setRows(int rows) {
+        this.rows = rows;
+        this.scanlinePosition %= rows;
+        this.changed = true;
+    }
+
+    /**
+     * Call this when the content of the screen changes (characters, geometry, size).
+     * The time of the change is taken from the next frame.
+     */
+    void markChanged() {
+        this.changed = true;
+    }
+
+    /**
+     * @return The multiplier of the previous frame for the current one. 1 = no fade, 0 = no afterglow.
+     */
+    float getAttenuation() {
+        return this.attenuation;
+    }
+
+    /**
+     * @return Position of the scanline in rows.
+     */
+    float getScanlinePosition() {
+        return (float)this.scanlinePosition;
+    }
+
+    /**
+     * @return Half-life of the fade-out in milliseconds.
+     */
+    public double getHalfLife() {
+        return this.halfLife;
+    }
+
+    /**
+     * @param halfLife Half-life of the fade-out in milliseconds. 0 = no afterglow.
+     */
+    public void setHalfLife(double halfLife) {
+        this.halfLife = Math.max(halfLife, 0d);
+    }
+
+    /**
+     * @return Speed of the scanline in rows per second.
+     */
+    public double getScanlineSpeed() {
+        return this.scanlineSpeed;
+    }
+
+    /**
+     * @param scanlineSpeed Speed of the scanline in rows per second. 0 = the scanline stands still.
+     */
+    public void setScanlineSpeed(double scanlineSpeed) {
+        this.scanlineSpeed = Math.max(scanlineSpeed, 0d);
+    }
+
+    /**
+     * @return The time in milliseconds, which the fade-out needs after the last change of the screen to become invisible.
+     */
+    public double getConvergenceTime() {
+        return this.halfLife * CONVERGENCE_HALF_LIVES;
+    }
+
+    /**
+     * Tells if the last rendered frame is the final state of the fade-out. From this point the
+     * frames only differ in the position of the scanline, so the rendering can be paused until
+     * the next change. (The scanline stands still meanwhile.)
+     *
+     * @return True if nothing changed since the last rendered frame, and the afterglow of the earlier changes has faded out.
+     */
+    public boolean isConverged() {
+        return this.started && !this.changed && this.lastTime - this.lastChange >= (long)(this.getConvergenceTime() * 1e6);
+    }
+}
@@ -17,23 +17,57 @@ limitations under the License.
 package CRTerm;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import org.lwjgl.opengl.*;
 import static org.lwjgl.opengl.GL20.*;
 
 
 /**
- * Shader pipeline
+ * Shader pipeline. The shaders are compiled in link(), and only if the program
+ * wasn't found in the ProgramCache. The defines of the pipeline are inserted into
+ * all shaders after the #version line, so the driver can fold them as constants.
+ *
+ * The linking can be split into startLink() and finishLink(). Only finishLink() queries
+ * the results, so with KHR_parallel_shader_compile (or a driver which compiles in the
+ * background anyway) several programs are compiled at the same time, and the CPU can
+ * do other work in between.
  */
 class Pipeline {
+    /**
+     * Shader sources by resource path. Filled by preload() on a background thread during the startup.
+     */
+    private static final Map<String, String> SOURCES = new ConcurrentHashMap<String, String>();
+
+    private GLState state;
     private int programID;
     private List<Integer> shaders = new ArrayList<Integer>();
+    private List<String> files = new ArrayList<String>();
+    private List<Integer> types = new ArrayList<Integer>();
+    private List<String> sources = new ArrayList<String>();
+    private List<String> bindings = new ArrayList<String>();
+    private Map<String, String> defines = new LinkedHashMap<String, String>();
+    private Map<String, Integer> uniformLocations = new HashMap<String, Integer>();
+    private boolean cached = false;
+    private boolean linkStarted = false;
+    private long linkTime = 0;
+    private Events.ShaderLink linkEvent = null;
+    private String cacheKey = null;
+    private Path cacheDirectory = null;
 
     /**
      * Create shader program.
+     *
+     * @param state The state tracker of the context.
      */
-    Pipeline() {
+    Pipeline(GLState state) {
+        this.state = state;
         this.programID = GL20.glCreateProgram();
     }
 
@@ -46,7 +80,7 @@ class Pipeline {
             glDeleteShader(shaderID);
         }
 
-        glDeleteProgram(this.programID);
+        this.state.deleteProgram(this.programID);
     }
 
     /**
@@ -57,6 +91,17 @@ class Pipeline {
      */
     void bindAttribLocation(int index, CharSequence name) {
         GL20.glBindAttribLocation(this.programID, index, name);
+        this.bindings.add("attribute " + index + " " + name);
+    }
+
+    /**
+     * Add a preprocessor definition to all shaders. Call this before link().
+     *
+     * @param name Name of the macro.
+     * @param value Its value. (Numbers are written with Java's toString.)
+     */
+    void define(String name, Object value) {
+        this.defines.put(name, String.valueOf(value));
     }
 
     /**
@@ -67,70 +112,252 @@ class Pipeline {
      * @throws Exception The thrown exceptions contain error messages.
      */
     void addShader(String filePath, int shaderType) throws Exception {
-        StringBuilder shaderSource = new StringBuilder();
-        int shaderID = 0;
+        String shaderSource = SOURCES.get(filePath);
+
+        if (shaderSource == null) {
+            shaderSource = readSource(filePath);
+            SOURCES.put(filePath, shaderSource);
+        }
 
-        InputStream stream = getClass().getClassLoader().getResourceAsStream(filePath);
+        this.files.add(filePath);
+        this.types.add(shaderType);
+        this.sources.add(shaderSource);
+    }
+
+    /**
+     * Read shader sources ahead of addShader(). Thread-safe, no OpenGL calls.
+     *
+     * @param filePaths Paths to the resource files.
+     * @throws Exception If a file can't be read.
+     */
+    static void preload(String... filePaths) throws Exception {
+        for (String filePath : filePaths) {
+            if (!SOURCES.containsKey(filePath)) {
+                SOURCES.put(filePath, readSource(filePath));
+            }
+        }
+    }
+
+    private static String readSource(String filePath) throws Exception {
+        InputStream stream = Pipeline.class.getClassLoader().getResourceAsStream(filePath);
         if (stream == null) {
             throw new Exception("Resource not found: " + filePath);
         }
 
-        byte[] buffer = new byte[1024];
-        int read;
+        try (InputStream input = stream) {
+            return new String(input.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new Exception("Unable to read file: " + filePath + ". Error: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Insert the defines after the #version line (which has to stay the first directive).
+     *
+     * @param source Shader source code.
+     * @param defines Name - value pairs.
+     * @return The modified source code.
+     */
+    static String injectDefines(String source, Map<String, String> defines) {
+        if (defines.isEmpty()) {
+            return source;
+        }
+
+        StringBuilder block = new StringBuilder();
+        for (Map.Entry<String, String> define : defines.entrySet()) {
+            block.append("#define ").append(define.getKey()).append(' ').append(define.getValue()).append('\n');
+        }
+
+        int version = source.indexOf("#version");
+        int position = version < 0 ? 0 : source.indexOf('\n', version) + 1;
+
+        if (version >= 0 && position == 0) {
+            return source + "\n" + block;
+        }
+
+        /*
+            Keep the line numbers of the error messages: the following lines are counted from the original line.
+         */
+        int line = 1;
+        for (int i = 0; i < position; i++) {
+            if (source.charAt(i) == '\n') {
+                line++;
+            }
+        }
+
+        return source.substring(0, position) + block + "#line " + line + "\n" + source.substring(position);
+    }
+
+    /**
+     * Load the program from the cache, or compile and link the shaders.
+     *
+     * @throws Exception The thrown exceptions contain error messages.
+     */
+    void link() throws Exception {
+        this.startLink();
+        this.finishLink();
+    }
+
+    /**
+     * Load the program from the cache, or submit the shaders for compiling and linking
+     * without waiting for the results. Call finishLink() before using the program.
+     *
+     * @throws Exception The thrown exceptions contain error messages.
+     */
+    void startLink() throws Exception {
+        long start = System.nanoTime();
+
+        this.linkEvent = new Events.ShaderLink();
+        this.linkEvent.program = this.programID;
+        this.linkEvent.begin();
+
+        List<String> sources = new ArrayList<String>();
+        List<String> keyParts = new ArrayList<String>(this.bindings);
+
+        for (int i = 0; i < this.sources.size(); i++) {
+            sources.add(injectDefines(this.sources.get(i), this.defines));
+            keyParts.add("shader " + this.types.get(i) + " " + this.files.get(i));
+            keyParts.add(sources.get(i));
+        }
+
+        this.cacheDirectory = ProgramCache.getDirectory();
+        this.cacheKey = this.cacheDirectory != null ? ProgramCache.createKey(keyParts) : null;
+        this.state.label(KHRDebug.GL_PROGRAM, this.programID, String.join(" + ", this.files) + (this.defines.isEmpty() ? "" : " " + this.defines.keySet()));
+
+        if (this.cacheDirectory != null) {
+            GL11.glGetError();  // The cache checks glGetError; don't blame it for earlier errors
+        }
+
+        if (this.cacheDirectory != null && ProgramCache.load(this.cacheDirectory, this.cacheKey, this.programID)) {
+            this.cached = true;
+        } else {
+            for (int i = 0; i < sources.size(); i++) {
+                this.compile(this.files.get(i), this.types.get(i), sources.get(i));
+            }
+
+            if (this.cacheDirectory != null) {
+                GL41.glProgramParameteri(this.programID, GL41.GL_PROGRAM_BINARY_RETRIEVABLE_HINT, GL11.GL_TRUE);
+            }
+
+            GL20.glLinkProgram(this.programID);
+        }
+
+        this.linkStarted = true;
+        this.linkTime += System.nanoTime() - start;
+    }
 
-        try {
-            while (true) {
-                read = stream.read(buffer, 0, 1024);
-                if (read == -1) {
-                    break;
+    /**
+     * Wait for the results of startLink(), and check them. Blocks until the driver has finished.
+     *
+     * @throws Exception The errors of the compiling and the linking.
+     */
+    void finishLink() throws Exception {
+        if (!this.linkStarted) {
+            throw new Exception("finishLink() was called before startLink(). (Pipeline)");
+        }
+
+        long start = System.nanoTime();
+
+        if (!this.cached) {
+            this.state.checkErrors("Linking shader program failed.");
+
+            int linked = glGetProgrami(this.programID, GL_LINK_STATUS);
+            if (linked == 0) {
+                /*
+                    The compile errors are more useful than the link error they cause.
+                 */
+                for (int i = 0; i < this.shaders.size(); i++) {
+                    int shaderID = this.shaders.get(i);
+
+                    if (GL20.glGetShaderi(shaderID, GL20.GL_COMPILE_STATUS) == GL11.GL_FALSE) {
+                        throw new Exception("Unable to compile shader: " + this.files.get(i) + ". Error message: " + glGetShaderInfoLog(shaderID, 1024));
+                    }
                 }
 
-                String text = new String(buffer, 0, read);
-                shaderSource.append(text);
+                throw new Exception("Linking program failed. Error message: " + glGetProgramInfoLog(this.programID, 1024));
             }
 
-            stream.close();
-        } catch (IOException e) {
-            throw new Exception("Unable to read file: " + filePath + ". Error: " + e.getMessage());
+            if (this.cacheDirectory != null) {
+                ProgramCache.store(this.cacheDirectory, this.cacheKey, this.programID);
+            }
         }
 
-        shaderID = GL20.glCreateShader(shaderType);
+        if (this.state.isDebug()) {
+            GL20.glValidateProgram(this.programID);
+            this.state.checkErrors("Validating shader program failed.");
+        }
+
+        this.linkStarted = false;
+        this.linkTime += System.nanoTime() - start;
+        this.linkEvent.cached = this.cached;
+        this.linkEvent.commit();
+    }
+
+    /**
+     * Compile a shader and attach it to the program. The status is checked by finishLink().
+     */
+    private void compile(String filePath, int shaderType, String shaderSource) throws Exception {
+        Events.ShaderCompile event = new Events.ShaderCompile();
+        event.file = filePath;
+        event.begin();
+
+        int shaderID = GL20.glCreateShader(shaderType);
         if (shaderID < 1) {
             throw new Exception("Unable to create shader. (Pipeline)");
         }
 
         this.shaders.add(shaderID);
+        this.state.label(KHRDebug.GL_SHADER, shaderID, filePath);
 
         GL20.glShaderSource(shaderID, shaderSource);
         GL20.glCompileShader(shaderID);
-
-        if (GL20.glGetShaderi(shaderID, GL20.GL_COMPILE_STATUS) == GL11.GL_FALSE) {
-            throw new Exception("Unable to compile shader: " + filePath + ". Error message: " + glGetShaderInfoLog(shaderID, 1024));
-        }
-
         GL20.glAttachShader(this.programID, shaderID);
+
+        event.commit();
     }
 
     /**
-     * @throws Exception The thrown exceptions contain error messages.
+     * @param name Name of a uniform variable.
+     * @return Its location, or -1 if the program doesn't have it (for example it was removed by a define).
+     *          The locations are cached, so this can be called for each frame.
      */
-    void link() throws Exception {
-        GL20.glLinkProgram(this.programID);
+    int getUniformLocation(String name) {
+        Integer location = this.uniformLocations.get(name);
 
-        if (GL11.glGetError() != GL11.GL_NO_ERROR) {
-            throw new Exception("Linking shader program failed.");
+        if (location == null) {
+            location = GL20.glGetUniformLocation(this.programID, name);
+            this.uniformLocations.put(name, location);
         }
 
-        int linked = glGetProgrami(this.programID, GL_LINK_STATUS);
-        if (linked == 0) {
-            throw new Exception("Linking program failed.");
-        }
+        return location;
+    }
+
+    /**
+     * Switch to the program, unless it's already in use.
+     */
+    void use() {
+        this.state.useProgram(this.programID);
+    }
 
-        GL20.glValidateProgram(this.programID);
+    /**
+     * @return The time spent in startLink() and finishLink(), in nanoseconds.
+     */
+    long getLinkTime() {
+        return this.linkTime;
+    }
 
-        if (GL11.glGetError() != GL11.GL_NO_ERROR) {
-            throw new Exception("Validating shader program failed.");
-        }
+    /**
+     * @return True after startLink(), until finishLink() is called.
+     */
+    boolean isLinkPending() {
+        return this.linkStarted;
+    }
+
+    /**
+     * @return True if the program was loaded from the ProgramCache.
+     */
+    boolean isCached() {
+        return this.cached;
     }
 
     /**
@@ -0,0 +1,129 @@
+/*
+Copyright 2017 Tamas Bolner
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package CRTerm;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+
+/**
+ * Compile-time specialized variants of a shader program. Each set of defines is built
+ * once and kept, so switching between configurations doesn't compile anything again.
+ */
+class PipelineVariants {
+    /**
+     * Adds the shaders and the attribute bindings to a new pipeline, then links it.
+     * The defines of the variant are already set on the pipeline.
+     */
+    interface Builder {
+        void build(Pipeline pipeline) throws Exception;
+    }
+
+    private GLState state;
+    private Builder builder;
+    private Map<String, Pipeline> variants = new HashMap<>();
+
+    /**
+     * @param state The state tracker of the context.
+     * @param builder Creates the program of a variant.
+     */
+    PipelineVariants(GLState state, Builder builder) {
+        this.state = state;
+        this.builder = builder;
+    }
+
+    /**
+     * Return the variant for the given defines. Builds it at the first request.
+     *
+     * @param defines Name - value pairs.
+     * @return A linked pipeline.
+     * @throws Exception The thrown exceptions contain error messages.
+     */
+    Pipeline get(Map<String, ?> defines) throws Exception {
+        Map<String, ?> sorted = new TreeMap<>(defines);
+        String key = sorted.toString();
+        Pipeline pipeline = this.variants.get(key);
+
+        if (pipeline == null) {
+            pipeline = new Pipeline(this.state);
+
+            for (Map.Entry<String, ?> define : sorted.entrySet()) {
+                pipeline.define(define.getKey(), define.getValue());
+            }
+
+            try {
+                this.builder.build(pipeline);
+            } catch (Exception ex) {
+                pipeline.close();
+                throw ex;
+            }
+
+            this.variants.put(key, pipeline);
+        }
+
+        return pipeline;
+    }
+
+    /**
+     * @return The number of built variants.
+     */
+    int size() {
+        return this.variants.size();
+    }
+
+    /**
+     * Release the programs of all variants.
+     */
+    void close() {
+        for (Pipeline pipeline : this.variants.values()) {
+            pipeline.close();
+        }
+
+        this.variants.clear();
+    }
+
+    /**
+     * Weights of a normalized gaussian kernel for the GAUSS_WEIGHTS define. The width of
+     * the kernel scales with the number of taps; 16 taps give the original weights.
+     *
+     * @param taps The number of weights: the center and one side.
+     * @return Comma separated float literals.
+     */
+    static String gaussianWeights(int taps) {
+        double sigma = taps * 25d / 96d;
+        double[] weights = new double[taps];
+        double sum = 0;
+
+        for (int i = 0; i < taps; i++) {
+            weights[i] = Math.exp(-i * i / (2d * sigma * sigma));
+            sum += i == 0 ? weights[i] : 2d * weights[i];
+        }
+
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < taps; i++) {
+            if (i > 0) {
+                result.append(", ");
+            }
+
+            result.append(String.format(Locale.ROOT, "%.10f", weights[i] / sum));
+        }
+
+        return result.toString();
+    }
+}
@@ -0,0 +1,102 @@
+/*
+Copyright 2017 Tamas Bolner
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package CRTerm;
+
+import java.util.function.Function;
+import org.lwjgl.opengl.GL11;
+
+
+/**
+ * The declaration of the post-processing chain of the Terminal, and the rules which enable its
+ * passes for the settings. Both paths are declared in the same graph, and the passes of the other
+ * path are disabled. The fused path has three passes: the text pass does the fade by reading the
+ * history at its own pixel, and the vertical blur does the composite. The original path (default)
+ * has five: text, fade, horizontal blur, vertical blur, composite. They produce the same image;
+ * outside of the grid the fused text pass draws the faded history as a background, until the
+ * afterglow of the last change has faded out.
+ *
+ * Without the fade the fade passes forward the text, and without the bloom the text is copied
+ * to the screen, so a disabled effect has no pass and no framebuffer. A downsampled bloom is
+ * box-filtered to its size first, so both blur directions step by texels of the bloom target.
+ *
+ * Makes no OpenGL calls, so the plans can be checked without a context.
+ */
+final class PostProcessingGraph {
+    private PostProcessingGraph() {
+    }
+
+    /**
+     * Declare the targets and the passes.
+     *
+     * @param state The state tracker of the context. (Null if the graph is only planned.)
+     * @param executors The executor of each pass by its name. (name -> null, if the graph is only planned.)
+     */
+    static RenderGraph create(GLState state, Function<String, RenderGraph.Executor> executors) {
+        RenderGraph graph = new RenderGraph(state);
+
+        graph.addTarget("text", 1d, GL11.GL_RGBA8);
+        graph.addTarget("faded", 1d, GL11.GL_RGBA8);
+        graph.addTarget("bloom source", 1d, GL11.GL_RGBA8);
+        graph.addTarget("bloom", 1d, GL11.GL_RGBA8);
+        graph.addTarget("bloom vertical", 1d, GL11.GL_RGBA8);
+
+        graph.addPass("text", "text", executors.apply("text"));
+        graph.addPass("text + fade", "text", executors.apply("text + fade"), "text" + RenderGraph.PREVIOUS);
+        graph.addPass("fade", "faded", executors.apply("fade"), "faded" + RenderGraph.PREVIOUS, "text").passThrough(1);
+        graph.addPass("downsample", "bloom source", executors.apply("downsample"), "faded").passThrough(0);
+        graph.addPass("blur horizontal", "bloom", executors.apply("blur horizontal"), "bloom source");
+        graph.addPass("blur vertical", "bloom vertical", executors.apply("blur vertical"), "bloom");
+        graph.addPass("composite", RenderGraph.SCREEN, executors.apply("composite"), "bloom vertical", "faded");
+        graph.addPass("blur vertical + composite", RenderGraph.SCREEN, executors.apply("blur vertical + composite"), "bloom", "faded");
+        graph.addPass("present", RenderGraph.SCREEN, executors.apply("present"), "faded");
+
+        return graph;
+    }
+
+    /**
+     * @return True if the text pass reads the history ("text + fade"), so the font program needs the fade.
+     */
+    static boolean isTextFaded(boolean fused, boolean fade) {
+        return fused && fade;
+    }
+
+    /**
+     * Enable the passes of the selected path and effects, and scale the bloom targets.
+     *
+     * @param fused True for the three-pass path.
+     * @param bloom True if the bloom is rendered.
+     * @param fade True if the characters fade out.
+     * @param bloomDownsample The number of times the bloom target is halved. (Only in the fused path.)
+     */
+    static void configure(RenderGraph graph, boolean fused, boolean bloom, boolean fade, int bloomDownsample) {
+        graph.setEnabled("text", !isTextFaded(fused, fade));
+        graph.setEnabled("text + fade", isTextFaded(fused, fade));
+        graph.setEnabled("fade", !fused && fade);
+        graph.setEnabled("downsample", fused && bloom && bloomDownsample > 0);
+        graph.setEnabled("blur horizontal", bloom);
+        graph.setEnabled("blur vertical", !fused && bloom);
+        graph.setEnabled("composite", !fused && bloom);
+        graph.setEnabled("blur vertical + composite", fused && bloom);
+        graph.setEnabled("present", !bloom);
+
+        /*
+            The original path isn't downsampled; its composite uses the same shader as the fade.
+         */
+        graph.setScale("bloom source", fused ? 1d / (1 << bloomDownsample) : 1d);
+        graph.setScale("bloom", fused ? 1d / (1 << bloomDownsample) : 1d);
+    }
+}
@@ -0,0 +1,226 @@
+/*
+Copyright 2017 Tamas Bolner
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package CRTerm;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.*;
+
+
+/**
+ * Disk cache of linked shader programs (glGetProgramBinary / glProgramBinary).
+ * The key is a SHA-256 hash of the shader sources, the attribute bindings and the
+ * vendor/renderer/version strings of the driver, so a driver update invalidates the entries.
+ *
+ * The directory is set by the "crterm.shaderCache" system property. Default: ~/.cache/crterm/shaders
+ * The value "off" disables the cache.
+ */
+class ProgramCache {
+    private static final int MAGIC = 0x43525042;    // "CRPB"
+
+    private ProgramCache() {
+    }
+
+    /**
+     * @return The cache directory, or null if the cache is disabled or not supported by the driver.
+     */
+    static Path getDirectory() {
+        String property = System.getProperty("crterm.shaderCache");
+
+        if ("off".equals(property)) {
+            return null;
+        }
+
+        GLCapabilities capabilities = GL.getCapabilities();
+        if (!capabilities.OpenGL41 && !capabilities.GL_ARB_get_program_binary) {
+            return null;
+        }
+
+        if (GL11.glGetInteger(GL41.GL_NUM_PROGRAM_BINARY_FORMATS) < 1) {
+            return null;
+        }
+
+        if (property == null || property.isEmpty()) {
+            return Paths.get(System.getProperty("user.home"), ".cache", "crterm", "shaders");
+        }
+
+        return Paths.get(property);
+    }
+
+    /**
+     * @param parts The sources and settings, which determine the program.
+     * @return Hexadecimal SHA-256 hash of the parts and of the driver identification.
+     */
+    static String createKey(Iterable<String> parts) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+
+            for (String part : new String[] {
+                    GL11.glGetString(GL11.GL_VENDOR),
+                    GL11.glGetString(GL11.GL_RENDERER),
+                    GL11.glGetString(GL11.GL_VERSION)
+            }) {
+                digest.update(String.valueOf(part).getBytes(StandardCharsets.UTF_8));
+                digest.update((byte)0);
+            }
+
+            for (String part : parts) {
+                digest.update(part.getBytes(StandardCharsets.UTF_8));
+                digest.update((byte)0);
+            }
+
+            StringBuilder key = new StringBuilder();
+            for (byte b : digest.digest()) {
+                key.append(String.format("%02x", b));
+            }
+
+            return key.toString();
+        } catch (Exception ex) {
+            throw new IllegalStateException("SHA-256 is not available.", ex);
+        }
+    }
+
+    /**
+     * Try to load a program from the cache.
+     *
+     * @param directory The cache directory.
+     * @param key The key of the program.
+     * @param programID The program, which receives the binary.
+     * @return True if the binary was accepted by the driver. False if there is no entry, or the driver rejected it.
+     */
+    static boolean load(Path directory, String key, int programID) {
+        Path file = directory.resolve(key + ".bin");
+
+        if (!Files.isRegularFile(file)) {
+            return false;
+        }
+
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            /*
+                The length has to fill the rest of the file exactly (after the magic, the format and the length),
+                so a corrupt or foreign file can't request a negative or huge array.
+             */
+            long size = Files.size(file);
+
+            if (size < 12 || input.readInt() != MAGIC) {
+                discard(file);
+                return false;
+            }
+
+            int format = input.readInt();
+            int length = input.readInt();
+
+            if (length <= 0 || length != size - 12) {
+                discard(file);
+                return false;
+            }
+
+            byte[] data = new byte[length];
+            input.readFully(data);
+
+            ByteBuffer binary = BufferUtils.createByteBuffer(data.length);
+            binary.put(data).flip();
+
+            GL41.glProgramBinary(programID, format, binary);
+
+            /*
+                A rejected binary only sets the link status (or an error for an unknown format).
+             */
+            boolean accepted = GL11.glGetError() == GL11.GL_NO_ERROR && GL20.glGetProgrami(programID, GL20.GL_LINK_STATUS) == GL11.GL_TRUE;
+
+            if (!accepted) {
+                discard(file);
+            }
+
+            return accepted;
+        } catch (IOException | RuntimeException ex) {
+            discard(file);
+            return false;
+        }
+    }
+
+    /**
+     * Delete a bad entry. Errors are ignored; the program is compiled from the source anyway.
+     */
+    private static void discard(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException ex) {
+            // Ignored
+        }
+    }
+
+    /**
+     * Save a linked program into the cache. Errors are ignored, the cache is only an optimization.
+     *
+     * @param directory The cache directory.
+     * @param key The key of the program.
+     * @param programID A linked program, with GL_PROGRAM_BINARY_RETRIEVABLE_HINT set before the linking.
+     */
+    static void store(Path directory, String key, int programID) {
+        int length = GL20.glGetProgrami(programID, GL41.GL_PROGRAM_BINARY_LENGTH);
+        if (length < 1) {
+            return;
+        }
+
+        ByteBuffer binary = BufferUtils.createByteBuffer(length);
+        int[] written = new int[1];
+        int[] format = new int[1];
+        GL41.glGetProgramBinary(programID, written, format, binary);
+
+        if (GL11.glGetError() != GL11.GL_NO_ERROR) {
+            return;
+        }
+
+        byte[] data = new byte[written[0]];
+        binary.get(data);
+
+        Path temporary = null;
+
+        try {
+            Files.createDirectories(directory);
+            temporary = Files.createTempFile(directory, key, ".tmp");
+
+            try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+                output.writeInt(MAGIC);
+                output.writeInt(format[0]);
+                output.writeInt(data.length);
+                output.write(data);
+            }
+
+            /*
+                Other processes never see a partially written entry.
+             */
+            Files.move(temporary, directory.resolve(key + ".bin"), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            temporary = null;
+        } catch (IOException ex) {
+            // The program works without the cache entry.
+        } finally {
+            if (temporary != null) {
+                try {
+                    Files.deleteIfExists(temporary);
+                } catch (IOException ex) {
+                    // Ignored
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,258 @@
+/*
+Copyright 2017 Tamas Bolner
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package CRTerm;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * Keeps the GPU time of the frames inside a budget by stepping between quality levels.
+ * When the average of the last frames exceeds the downgrade threshold, the next lower level
+ * is selected; when it falls below the upgrade threshold, the next higher one. The gap between
+ * the two thresholds and the cooldown after each change prevent oscillation.
+ *
+ * Enable it with Terminal.setQualityGovernorEnabled(). The samples are the GPU times of the
+ * render passes, so the waiting for the vertical blank doesn't count.
+ */
+public class QualityGovernor {
+    /**
+     * One step of the quality. The blur keeps about the same width on the screen at all levels:
+     * fewer taps on a smaller image cover the same area.
+     */
+    public static class Level {
+        private double renderScale;
+        private int blurTaps;
+        private int bloomDownsample;
+        private int textSamples;
+
+        /**
+         * @param renderScale Size of the offscreen targets relative to the window. 0.25 - 1
+         * @param blurTaps Samples of the bloom blur in each direction, including the center. 2 - 16
+         * @param bloomDownsample The blur runs on an image halved this many times. 0 - 2
+         * @param textSamples MSAA samples of the text pass. 0 = no multisampling.
+         */
+        public Level(double renderScale, int blurTaps, int bloomDownsample, int textSamples) {
+            this.renderScale = renderScale;
+            this.blurTaps = blurTaps;
+            this.bloomDownsample = bloomDownsample;
+            this.textSamples = textSamples;
+        }
+
+        public double getRenderScale() {
+            return this.renderScale;
+        }
+
+        public int getBlurTaps() {
+            return this.blurTaps;
+        }
+
+        public int getBloomDownsample() {
+            return this.bloomDownsample;
+        }
+
+        public int getTextSamples() {
+            return this.textSamples;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("scale %d%%, %d taps, bloom /%d, MSAA %dx", Math.round(this.renderScale * 100), this.blurTaps, 1 << this.bloomDownsample, this.textSamples);
+        }
+    }
+
+    /**
+     * From the best to the fastest. Level 1 is the default rendering of the Terminal.
+     */
+    public static final List<Level> LEVELS = Collections.unmodifiableList(Arrays.asList(
+            new Level(1d, 16, 0, 4),
+            new Level(1d, 16, 0, 0),
+            new Level(1d, 8, 1, 0),
+            new Level(0.75d, 6, 1, 0),
+            new Level(0.5d, 4, 1, 0)
+    ));
+
+    /**
+     * The level of the Terminal before the governor is enabled.
+     */
+    public static final int DEFAULT_LEVEL = 1;
+
+    private long targetFrameTime;
+    private double downgradeThreshold = 0.9d;
+    private double upgradeThreshold = 0.6d;
+    private int cooldown = 60;
+    private int level = DEFAULT_LEVEL;
+    private RollingStatistics samples = new RollingStatistics(30);
+    private int window = 30;
+    private int framesSinceChange = 0;
+    private long levelChanges = 0;
+
+    /**
+     * @param targetFrameTime The frame budget in nanoseconds.
+     */
+    QualityGovernor(long targetFrameTime) {
+        this.targetFrameTime = targetFrameTime;
+    }
+
+    /**
+     * Add the GPU time of a frame.
+     *
+     * @param nanos GPU time of all passes of the frame.
+     * @return True if the level has changed.
+     */
+    boolean addSample(long nanos) {
+        this.framesSinceChange++;
+
+        /*
+            The results of the frames before a change arrive a few frames later. They are ignored.
+         */
+        if (this.framesSinceChange <= this.cooldown) {
+            return false;
+        }
+
+        this.samples.add(nanos);
+        if (this.samples.getCount() < this.window) {
+            return false;
+        }
+
+        double average = this.samples.getAverage();
+
+        if (average > this.targetFrameTime * this.downgradeThreshold && this.level < LEVELS.size() - 1) {
+            this.changeLevel(this.level + 1);
+            return true;
+        }
+
+        if (average < this.targetFrameTime * this.upgradeThreshold && this.level > 0) {
+            this.changeLevel(this.level - 1);
+            return true;
+        }
+
+        return false;
+    }
+
+    private void changeLevel(int level) {
+        this.level = level;
+        this.samples.clear();
+        this.framesSinceChange = 0;
+        this.levelChanges++;
+    }
+
+    /**
+     * @return Index of the current level in LEVELS. 0 = best quality.
+     */
+    public int getLevel() {
+        return this.level;
+    }
+
+    /**
+     * @return The current level.
+     */
+    public Level getCurrentLevel() {
+        return LEVELS.get(this.level);
+    }
+
+    /**
+     * Select a level. The governor continues from here. (See Terminal.setQualityLevel)
+     *
+     * @param level Index in LEVELS.
+     */
+    void setLevel(int level) {
+        this.changeLevel(Math.max(0, Math.min(level, LEVELS.size() - 1)));
+    }
+
+    /**
+     * @return The number of level changes.
+     */
+    public long getLevelChanges() {
+        return this.levelChanges;
+    }
+
+    /**
+     * @return The frame budget in nanoseconds.
+     */
+    public long getTargetFrameTime() {
+        return this.targetFrameTime;
+    }
+
+    /**
+     * @param nanos The frame budget in nanoseconds. Default: the refresh interval of the monitor.
+     */
+    public void setTargetFrameTime(long nanos) {
+        this.targetFrameTime = nanos;
+    }
+
+    /**
+     * @return Ratio of the budget.
+     */
+    public double getDowngradeThreshold() {
+        return this.downgradeThreshold;
+    }
+
+    /**
+     * @return Ratio of the budget.
+     */
+    public double getUpgradeThreshold() {
+        return this.upgradeThreshold;
+    }
+
+    /**
+     * Set the hysteresis. The quality is lowered when the average GPU time is above downgrade * budget,
+     * and raised when it's below upgrade * budget.
+     *
+     * @param downgrade Ratio of the budget. Default: 0.9 (the CPU and the compositor need some time too)
+     * @param upgrade Ratio of the budget, lower than the downgrade ratio. Default: 0.6
+     * @throws Exception If the upgrade threshold is not below the downgrade threshold.
+     */
+    public void setHysteresis(double downgrade, double upgrade) throws Exception {
+        if (upgrade <= 0 || upgrade >= downgrade) {
+            throw new Exception("The upgrade threshold has to be between 0 and the downgrade threshold.");
+        }
+
+        this.downgradeThreshold = downgrade;
+        this.upgradeThreshold = upgrade;
+    }
+
+    /**
+     * @return The number of frames averaged for a decision.
+     */
+    public int getWindow() {
+        return this.window;
+    }
+
+    /**
+     * @param frames The number of frames averaged for a decision. Default: 30
+     */
+    public void setWindow(int frames) {
+        this.window = Math.max(frames, 1);
+        this.samples = new RollingStatistics(this.window);
+    }
+
+    /**
+     * @return The number of frames ignored after a change.
+     */
+    public int getCooldown() {
+        return this.cooldown;
+    }
+
+    /**
+     * @param frames The number of frames ignored after a change. Default: 60
+     */
+    public void setCooldown(int frames) {
+        this.cooldown = Math.max(frames, 0);
+    }
+}
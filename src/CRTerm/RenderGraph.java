@@ -0,0 +1,726 @@
+/*
+Copyright 2017 Tamas Bolner
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package CRTerm;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.*;
+import java.nio.*;
+
+
+/**
+ * The post-processing chain as a list of declarative passes. Each pass names the resources it
+ * reads and the one it writes; the resources declare their format and their size relative to the
+ * render size. "screen" is the window. A pass can read the previous frame of a resource as
+ * "name.previous", which makes it a history resource.
+ *
+ * The graph is compiled before the first frame after a change:
+ *
+ *  - Disabled passes are removed. A disabled pass with a pass-through input forwards that input
+ *    to the readers of its output, so an effect can be turned off without rewiring the others.
+ *  - Culling: walking backwards from the screen, only the passes whose output is read are kept.
+ *  - Aliasing: the transient resources get framebuffers from a pool in pass order; a framebuffer
+ *    is reused by a later resource of the same size and format after its last reader.
+ *    The history resources get two framebuffers of their own, which are swapped after each frame.
+ *
+ * The planning (the first three steps) makes no OpenGL calls; the framebuffers are allocated
+ * by allocate(), and only the ones with a new size or format are recreated.
+ */
+class RenderGraph {
+    static final String SCREEN = "screen";
+    static final String PREVIOUS = ".previous";
+
+    /**
+     * Draws a pass. The output framebuffer is bound and the viewport is set when it's called.
+     */
+    interface Executor {
+        void execute(Pass pass) throws Exception;
+    }
+
+    /**
+     * A texture declared by the graph.
+     */
+    private static class Resource {
+        String name;
+        double scale;
+        int format;
+
+        /*
+            Set by plan()
+         */
+        boolean history = false;
+        int slot = -1;
+        int previousSlot = -1;
+        int width;
+        int height;
+    }
+
+    /**
+     * A framebuffer of the plan. Several resources can share one.
+     */
+    private static class Slot {
+        int format;
+        int width;
+        int height;
+        String label;
+        boolean history = false;
+        RenderTarget target = null;
+    }
+
+    /**
+     * A render pass.
+     */
+    static class Pass {
+        private String name;
+        private String output;
+        private String[] inputs;
+        private Executor executor;
+        private int passthrough = -1;
+        private boolean enabled = true;
+
+        /*
+            Set by plan()
+         */
+        private Resource outputResource = null;
+        private Resource[] inputResources;
+        private boolean[] inputPrevious;
+        private RenderGraph graph;
+
+        private Pass(RenderGraph graph, String name, String output, Executor executor, String[] inputs) {
+            this.graph = graph;
+            this.name = name;
+            this.output = output;
+            this.executor = executor;
+            this.inputs = inputs;
+            this.inputResources = new Resource[inputs.length];
+            this.inputPrevious = new boolean[inputs.length];
+        }
+
+        /**
+         * When the pass is disabled, the readers of its output get this input instead.
+         *
+         * @param input Index of the input.
+         * @return This pass.
+         */
+        Pass passThrough(int input) {
+            this.passthrough = input;
+            return this;
+        }
+
+        String getName() {
+            return this.name;
+        }
+
+        boolean isEnabled() {
+            return this.enabled;
+        }
+
+        int getInputCount() {
+            return this.inputs.length;
+        }
+
+        /**
+         * @param input Index of the input.
+         * @return The texture ID of the input in the current frame.
+         */
+        int getInput(int input) {
+            Resource resource = this.inputResources[input];
+            int slot = this.inputPrevious[input] ? resource.previousSlot : resource.slot;
+
+            return this.graph.slots.get(slot).target.getTexture();
+        }
+
+        /**
+         * @return The ID of the output framebuffer. 0 = the window.
+         */
+        int getOutputFrameBuffer() {
+            return this.outputResource == null ? 0 : this.graph.slots.get(this.outputResource.slot).target.getFrameBuffer();
+        }
+
+        int getOutputWidth() {
+            return this.outputResource == null ? this.graph.windowWidth : this.outputResource.width;
+        }
+
+        int getOutputHeight() {
+            return this.outputResource == null ? this.graph.windowHeight : this.outputResource.height;
+        }
+    }
+
+    private GLState state;
+    private Map<String, Resource> resources = new LinkedHashMap<String, Resource>();
+    private List<Pass> passes = new ArrayList<Pass>();
+    private List<Pass> livePasses = new ArrayList<Pass>();
+    private List<Slot> slots = new ArrayList<Slot>();
+    private List<RenderTarget> retired = new ArrayList<RenderTarget>();
+    private int renderWidth = 1;
+    private int renderHeight = 1;
+    private int windowWidth = 1;
+    private int windowHeight = 1;
+    private boolean planned = false;
+    private boolean allocated = false;
+    private int quadVertexArray = -1;
+    private int quadVertexBuffer = -1;
+
+    /**
+     * @param state The state tracker of the context. Null for planning only (no allocate() and execute()).
+     */
+    RenderGraph(GLState state) {
+        this.state = state;
+    }
+
+    /**
+     * Declare a resource. It lives only during a frame, unless a live pass reads its previous frame.
+     *
+     * @param name Unique name.
+     * @param scale Size relative to the render size.
+     * @param format Internal format. GL_RGBA8 or GL_RGBA16F.
+     */
+    void addTarget(String name, double scale, int format) {
+        Resource resource = new Resource();
+        resource.name = name;
+        resource.scale = scale;
+        resource.format = format;
+
+        this.resources.put(name, resource);
+        this.planned = false;
+    }
+
+    /**
+     * Add a pass after the existing ones. The passes run in the order they were added.
+     *
+     * @param name Name of the pass, also used for the GPU timing.
+     * @param output The written resource, or SCREEN.
+     * @param executor Draws the pass.
+     * @param inputs The read resources. Their textures are available by index through Pass.getInput().
+     * @return The new pass.
+     */
+    Pass addPass(String name, String output, Executor executor, String... inputs) {
+        Pass pass = new Pass(this, name, output, executor, inputs);
+        this.passes.add(pass);
+        this.planned = false;
+
+        return pass;
+    }
+
+    /**
+     * @param name Name of a pass.
+     * @param enabled False to remove it from the graph. (Its output is passed through, if it has a pass-through input.)
+     */
+    void setEnabled(String name, boolean enabled) {
+        for (Pass pass : this.passes) {
+            if (pass.name.equals(name) && pass.enabled != enabled) {
+                pass.enabled = enabled;
+                this.planned = false;
+            }
+        }
+    }
+
+    /**
+     * @param name Name of a resource.
+     * @param scale Size relative to the render size.
+     */
+    void setScale(String name, double scale) {
+        Resource resource = this.resources.get(name);
+
+        if (resource.scale != scale) {
+            resource.scale = scale;
+            this.planned = false;
+        }
+    }
+
+    /**
+     * @param renderWidth Width of the resources with scale 1.
+     * @param renderHeight Height of the resources with scale 1.
+     * @param windowWidth Width of the window. (The viewport of the passes, which draw to the screen.)
+     * @param windowHeight Height of the window.
+     */
+    void setSize(int renderWidth, int renderHeight, int windowWidth, int windowHeight) {
+        if (renderWidth != this.renderWidth || renderHeight != this.renderHeight) {
+            this.planned = false;
+        }
+
+        this.renderWidth = renderWidth;
+        this.renderHeight = renderHeight;
+        this.windowWidth = windowWidth;
+        this.windowHeight = windowHeight;
+    }
+
+    /**
+     * Remove the disabled and the unused passes, and assign the framebuffers to the resources.
+     * No OpenGL calls.
+     *
+     * @throws Exception If a read resource is never written, or nothing draws to the screen.
+     */
+    void plan() throws Exception {
+        /*
+            Pass-through of the disabled passes
+         */
+        Map<String, String> aliases = new HashMap<String, String>();
+        List<Pass> enabled = new ArrayList<Pass>();
+
+        for (Pass pass : this.passes) {
+            if (pass.enabled) {
+                enabled.add(pass);
+            } else if (pass.passthrough >= 0) {
+                if (pass.output.equals(SCREEN)) {
+                    throw new Exception("The pass '" + pass.name + "' draws to the screen, it can't pass its input through. (RenderGraph)");
+                }
+
+                aliases.put(pass.output, resolve(aliases, pass.inputs[pass.passthrough]));
+            }
+        }
+
+        /*
+            Culling, backwards from the screen. A pass is needed if a later pass (or the screen) reads its output.
+         */
+        Set<String> needed = new HashSet<String>();
+        Set<String> historyRead = new HashSet<String>();
+        Set<String> written = new HashSet<String>();
+        needed.add(SCREEN);
+        this.livePasses.clear();
+
+        for (int i = enabled.size() - 1; i >= 0; i--) {
+            Pass pass = enabled.get(i);
+
+            if (!needed.remove(pass.output)) {
+                continue;
+            }
+
+            this.livePasses.add(0, pass);
+            written.add(pass.output);
+
+            for (int input = 0; input < pass.inputs.length; input++) {
+                String name = resolve(aliases, pass.inputs[input]);
+                boolean previous = name.endsWith(PREVIOUS);
+
+                if (previous) {
+                    name = name.substring(0, name.length() - PREVIOUS.length());
+                    historyRead.add(name);
+                } else {
+                    needed.add(name);
+                }
+
+                Resource resource = this.resources.get(name);
+                if (resource == null) {
+                    throw new Exception("The pass '" + pass.name + "' reads an unknown resource: " + pass.inputs[input] + " (RenderGraph)");
+                }
+
+                pass.inputResources[input] = resource;
+                pass.inputPrevious[input] = previous;
+            }
+
+            if (!pass.output.equals(SCREEN)) {
+                pass.outputResource = this.resources.get(pass.output);
+
+                if (pass.outputResource == null) {
+                    throw new Exception("The pass '" + pass.name + "' writes an unknown resource: " + pass.output + " (RenderGraph)");
+                }
+            } else {
+                pass.outputResource = null;
+            }
+        }
+
+        if (needed.contains(SCREEN)) {
+            throw new Exception("No pass draws to the screen. (RenderGraph)");
+        }
+
+        if (!needed.isEmpty()) {
+            throw new Exception("These resources are read, but no pass writes them: " + needed + " (RenderGraph)");
+        }
+
+        for (Resource resource : this.resources.values()) {
+            resource.history = historyRead.contains(resource.name);
+
+            if (resource.history && !written.contains(resource.name)) {
+                throw new Exception("The previous frame of '" + resource.name + "' is read, but no pass writes it. (RenderGraph)");
+            }
+        }
+
+        /*
+            Lifetimes: the index of the last live pass, which reads each transient resource
+         */
+        Map<Resource, Integer> lastRead = new HashMap<Resource, Integer>();
+
+        for (int k = 0; k < this.livePasses.size(); k++) {
+            Pass pass = this.livePasses.get(k);
+
+            for (int input = 0; input < pass.inputs.length; input++) {
+                if (!pass.inputPrevious[input]) {
+                    lastRead.put(pass.inputResources[input], k);
+                }
+            }
+        }
+
+        /*
+            Slots. The old slots are kept (with their framebuffers) for allocate(), which reuses the matching ones.
+         */
+        List<Slot> oldSlots = new ArrayList<Slot>(this.slots);
+        List<Slot> free = new ArrayList<Slot>();
+        this.slots.clear();
+
+        for (Resource resource : this.resources.values()) {
+            resource.slot = -1;
+            resource.previousSlot = -1;
+            resource.width = Math.max((int)(this.renderWidth * resource.scale), 1);
+            resource.height = Math.max((int)(this.renderHeight * resource.scale), 1);
+        }
+
+        for (int k = 0; k < this.livePasses.size(); k++) {
+            Resource resource = this.livePasses.get(k).outputResource;
+
+            if (resource != null && resource.slot < 0) {
+                if (resource.history) {
+                    resource.slot = this.newSlot(resource, resource.name + " 0");
+                    resource.previousSlot = this.newSlot(resource, resource.name + " 1");
+                } else {
+                    resource.slot = this.takeSlot(free, resource);
+                }
+            }
+
+            /*
+                Release the inputs, which aren't read after this pass. (Not before the output was assigned,
+                so a pass never reads and writes the same framebuffer.)
+             */
+            for (Map.Entry<Resource, Integer> entry : lastRead.entrySet()) {
+                Resource input = entry.getKey();
+
+                if (entry.getValue() == k && !input.history) {
+                    free.add(this.slots.get(input.slot));
+                }
+            }
+        }
+
+        this.carryOver(oldSlots);
+        this.planned = true;
+        this.allocated = false;
+    }
+
+    private static String resolve(Map<String, String> aliases, String name) {
+        String suffix = "";
+
+        if (name.endsWith(PREVIOUS)) {
+            suffix = PREVIOUS;
+            name = name.substring(0, name.length() - PREVIOUS.length());
+        }
+
+        while (aliases.containsKey(name)) {
+            name = aliases.get(name);
+
+            /*
+                A forwarded previous frame stays a previous frame.
+             */
+            if (name.endsWith(PREVIOUS)) {
+                suffix = PREVIOUS;
+                name = name.substring(0, name.length() - PREVIOUS.length());
+            }
+        }
+
+        return name + suffix;
+    }
+
+    private int newSlot(Resource resource, String label) {
+        Slot slot = new Slot();
+        slot.format = resource.format;
+        slot.width = resource.width;
+        slot.height = resource.height;
+        slot.label = label;
+        slot.history = resource.history;
+        this.slots.add(slot);
+
+        return this.slots.size() - 1;
+    }
+
+    /**
+     * A free slot of the same size and format, or a new one.
+     */
+    private int takeSlot(List<Slot> free, Resource resource) {
+        for (int i = 0; i < free.size(); i++) {
+            Slot slot = free.get(i);
+
+            if (slot.format == resource.format && slot.width == resource.width && slot.height == resource.height) {
+                free.remove(i);
+                slot.label += " / " + resource.name;
+
+                return this.slots.indexOf(slot);
+            }
+        }
+
+        return this.newSlot(resource, resource.name);
+    }
+
+    /**
+     * Move the framebuffers of the old slots to the matching new ones. The rest is closed by allocate().
+     */
+    private void carryOver(List<Slot> oldSlots) {
+        for (Slot old : oldSlots) {
+            if (old.target == null) {
+                continue;
+            }
+
+            Slot match = null;
+
+            for (Slot slot : this.slots) {
+                if (slot.target == null && slot.format == old.format && slot.width == old.width && slot.height == old.height) {
+                    match = slot;
+                    break;
+                }
+            }
+
+            if (match != null) {
+                match.target = old.target;
+            } else {
+                this.retired.add(old.target);
+            }
+        }
+    }
+
+    /**
+     * Plan the graph, if it has changed since the last plan.
+     *
+     * @throws Exception Planning errors.
+     */
+    void update() throws Exception {
+        if (!this.planned) {
+            this.plan();
+        }
+    }
+
+    /**
+     * Plan the graph if it has changed, and create the missing framebuffers.
+     *
+     * @return True if any framebuffer was created or deleted. (The history is lost then.)
+     * @throws Exception Planning errors, or if a framebuffer can't be created.
+     */
+    boolean allocate() throws Exception {
+        if (this.planned && this.allocated) {
+            return false;
+        }
+
+        this.update();
+
+        boolean changed = !this.retired.isEmpty();
+
+        for (RenderTarget target : this.retired) {
+            target.close();
+        }
+
+        this.retired.clear();
+
+        for (Slot slot : this.slots) {
+            if (slot.target == null) {
+                slot.target = new RenderTarget(this.state, slot.format, slot.width, slot.height, slot.label);
+                changed = true;
+            } else if (slot.history) {
+                /*
+                    A reused framebuffer holds another resource; the first frame would read it as the history.
+                 */
+                this.state.bindFramebuffer(slot.target.getFrameBuffer());
+                this.state.clearColor(0.0f, 0.0f, 0.0f, 0.0f);
+                this.state.clear(GL11.GL_COLOR_BUFFER_BIT);
+            }
+        }
+
+        if (this.quadVertexArray < 0) {
+            this.createQuad();
+        }
+
+        this.allocated = true;
+
+        return changed;
+    }
+
+    /**
+     * Run the live passes.
+     *
+     * @param beginPass Called with the name of each pass before it. (For the GPU timing.)
+     * @param endPass Called after each pass.
+     * @throws Exception The errors of the executors.
+     */
+    void execute(Consumer<String> beginPass, Runnable endPass) throws Exception {
+        for (Pass pass : this.livePasses) {
+            this.state.bindFramebuffer(pass.getOutputFrameBuffer());
+            this.state.viewport(0, 0, pass.getOutputWidth(), pass.getOutputHeight());
+
+            beginPass.accept(pass.name);
+            pass.executor.execute(pass);
+            endPass.run();
+        }
+    }
+
+    /**
+     * Swap the current and the previous frames of the history resources. Call this after each frame.
+     */
+    void endFrame() {
+        for (Resource resource : this.resources.values()) {
+            if (resource.history && resource.slot >= 0) {
+                int slot = resource.slot;
+                resource.slot = resource.previousSlot;
+                resource.previousSlot = slot;
+            }
+        }
+    }
+
+    /**
+     * Draw a quad, which covers the viewport. The texture coordinates go from 0 to 1.
+     */
+    void drawQuad() {
+        GL11.glMatrixMode(GL11.GL_PROJECTION);
+        GL11.glLoadIdentity();
+        GL11.glOrtho(0, 1, 0, 1, -1, 1);
+        GL11.glMatrixMode(GL11.GL_MODELVIEW);
+        GL11.glLoadIdentity();
+
+        this.state.bindVertexArray(this.quadVertexArray);
+        this.state.drawArrays(GL11.GL_QUADS, 0, 4);
+    }
+
+    private void createQuad() {
+        FloatBuffer vertex_data = BufferUtils.createFloatBuffer(20);
+        vertex_data.put(new float[]{
+                0.0f, 0.0f, 0.0f,       0.0f, 0.0f,
+                1.0f, 0.0f, 0.0f,       1.0f, 0.0f,
+                1.0f, 1.0f, 0.0f,       1.0f, 1.0f,
+                0.0f, 1.0f, 0.0f,       0.0f, 1.0f
+        });
+        vertex_data.flip();
+
+        this.quadVertexArray = GL30.glGenVertexArrays();
+        this.state.bindVertexArray(this.quadVertexArray);
+
+        this.quadVertexBuffer = GL15.glGenBuffers();
+        this.state.bindArrayBuffer(this.quadVertexBuffer);
+        GL15.glBufferData(GL15.GL_ARRAY_BUFFER, vertex_data, GL15.GL_STATIC_DRAW);
+
+        GL20.glVertexAttribPointer(0, 3, GL11.GL_FLOAT, false, 20, 0);	// mark vertex coordinates
+        GL20.glVertexAttribPointer(1, 2, GL11.GL_FLOAT, false, 20, 12);	// mark texture coordinates
+        GL20.glEnableVertexAttribArray(0);
+        GL20.glEnableVertexAttribArray(1);
+
+        this.state.label(GL11.GL_VERTEX_ARRAY, this.quadVertexArray, "full-screen quad");
+        this.state.label(KHRDebug.GL_BUFFER, this.quadVertexBuffer, "full-screen quad vertices");
+        this.state.bindVertexArray(0);
+    }
+
+    /**
+     * @return The names of the passes, which run in each frame, in order.
+     */
+    List<String> getLivePasses() {
+        List<String> result = new ArrayList<String>();
+
+        for (Pass pass : this.livePasses) {
+            result.add(pass.name);
+        }
+
+        return result;
+    }
+
+    /**
+     * @return The number of framebuffers of the plan.
+     */
+    int getTargetCount() {
+        return this.slots.size();
+    }
+
+    /**
+     * @return The GPU memory of the planned framebuffers, in bytes.
+     */
+    long getMemorySize() {
+        long size = 0;
+
+        for (Slot slot : this.slots) {
+            size += (long)slot.width * slot.height * (slot.format == GL30.GL_RGBA16F ? 8 : 4);
+        }
+
+        return size;
+    }
+
+    /**
+     * @return The live passes and the framebuffers, one per line. For example:
+     *      "text + fade: text.previous -> text [#0]"
+     */
+    String describe() {
+        StringBuilder result = new StringBuilder();
+
+        for (Pass pass : this.livePasses) {
+            result.append(pass.name).append(":");
+
+            for (int input = 0; input < pass.inputs.length; input++) {
+                Resource resource = pass.inputResources[input];
+                result.append(input > 0 ? ", " : " ").append(resource.name).append(pass.inputPrevious[input] ? PREVIOUS : "");
+            }
+
+            result.append(" -> ").append(pass.output);
+
+            if (pass.outputResource != null) {
+                result.append(" [#").append(pass.outputResource.slot);
+
+                if (pass.outputResource.history) {
+                    result.append(", #").append(pass.outputResource.previousSlot);
+                }
+
+                result.append("]");
+            }
+
+            result.append("\n");
+        }
+
+        for (int i = 0; i < this.slots.size(); i++) {
+            Slot slot = this.slots.get(i);
+            result.append("#").append(i).append(" ").append(slot.width).append("x").append(slot.height)
+                    .append(slot.format == GL30.GL_RGBA16F ? " RGBA16F" : " RGBA8").append(" (").append(slot.label).append(")\n");
+        }
+
+        return result.toString();
+    }
+
+    /**
+     * Release the framebuffers.
+     */
+    void close() {
+        for (Slot slot : this.slots) {
+            if (slot.target != null) {
+                slot.target.close();
+                slot.target = null;
+            }
+        }
+
+        for (RenderTarget target : this.retired) {
+            target.close();
+        }
+
+        this.retired.clear();
+
+        if (this.quadVertexArray > -1) {
+            this.state.deleteVertexArray(this.quadVertexArray);
+            this.quadVertexArray = -1;
+        }
+
+        if (this.quadVertexBuffer > -1) {
+            this.state.deleteBuffer(this.quadVertexBuffer);
+            this.quadVertexBuffer = -1;
+        }
+
+        this.allocated = false;
+    }
+}
@@ -0,0 +1,136 @@
+/*
+Copyright 2017 Tamas Bolner
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package CRTerm;
+
+import org.lwjgl.opengl.*;
+import java.nio.*;
+
+
+/**
+ * A framebuffer with a single color texture. Allocated by the RenderGraph; one target can hold
+ * several resources of the graph, whose lifetimes don't overlap. The post-processing passes
+ * don't use depth testing, so there is no depth buffer.
+ */
+class RenderTarget {
+    private GLState state;
+    private int frameBuffer = -1;
+    private int texture = -1;
+    private int format;
+    private int width;
+    private int height;
+
+    /**
+     * @param state The state tracker of the context.
+     * @param format Internal format of the texture. GL_RGBA8 or GL_RGBA16F.
+     * @param width Width in pixels.
+     * @param height Height in pixels.
+     * @param label Name for the debug mode.
+     * @throws Exception If the framebuffer can't be created.
+     */
+    RenderTarget(GLState state, int format, int width, int height, String label) throws Exception {
+        Events.FramebufferResize event = new Events.FramebufferResize();
+        event.width = width;
+        event.height = height;
+        event.begin();
+
+        this.state = state;
+        this.format = format;
+        this.width = width;
+        this.height = height;
+
+        this.frameBuffer = GL30.glGenFramebuffers();
+        if (this.frameBuffer < 1) {
+            throw new Exception("Unable to create framebuffer. (RenderTarget)");
+        }
+
+        this.state.bindFramebuffer(this.frameBuffer);
+
+        this.texture = GL11.glGenTextures();
+        this.state.bindTexture(0, this.texture);
+        GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MIN_FILTER, GL11.GL_LINEAR);
+        GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MAG_FILTER, GL11.GL_LINEAR);
+        GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_WRAP_S, GL12.GL_CLAMP_TO_EDGE);
+        GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_WRAP_T, GL12.GL_CLAMP_TO_EDGE);
+        GL11.glTexImage2D(GL11.GL_TEXTURE_2D, 0, format, width, height, 0, GL11.GL_RGBA,
+                format == GL30.GL_RGBA16F ? GL30.GL_HALF_FLOAT : GL11.GL_UNSIGNED_BYTE, (ByteBuffer) null);
+        GL30.glFramebufferTexture2D(GL30.GL_FRAMEBUFFER, GL30.GL_COLOR_ATTACHMENT0, GL11.GL_TEXTURE_2D, this.texture, 0);
+
+        this.state.label(GL11.GL_TEXTURE, this.texture, label);
+        this.state.label(GL30.GL_FRAMEBUFFER, this.frameBuffer, label);
+
+        try {
+            this.state.checkErrors("Creating texture failed. (RenderTarget)");
+
+            if (GL30.glCheckFramebufferStatus(GL30.GL_FRAMEBUFFER) != GL30.GL_FRAMEBUFFER_COMPLETE) {
+                throw new Exception("Frame buffer is not complete. (RenderTarget)");
+            }
+        } catch (Exception ex) {
+            this.close();
+            throw ex;
+        }
+
+        /*
+            The history targets are read before they are first written, so start from black.
+         */
+        this.state.clearColor(0.0f, 0.0f, 0.0f, 0.0f);
+        this.state.clear(GL11.GL_COLOR_BUFFER_BIT);
+
+        event.commit();
+    }
+
+    /**
+     * Release OpenGL resources.
+     */
+    void close() {
+        if (this.texture > -1) {
+            this.state.deleteTexture(this.texture);
+            this.texture = -1;
+        }
+
+        if (this.frameBuffer > -1) {
+            this.state.deleteFramebuffer(this.frameBuffer);
+            this.frameBuffer = -1;
+        }
+    }
+
+    int getFrameBuffer() {
+        return this.frameBuffer;
+    }
+
+    int getTexture() {
+        return this.texture;
+    }
+
+    int getFormat() {
+        return this.format;
+    }
+
+    int getWidth() {
+        return this.width;
+    }
+
+    int getHeight() {
+        return this.height;
+    }
+
+    /**
+     * @return The approximate GPU memory of the texture, in bytes.
+     */
+    long getMemorySize() {
+        return (long)this.width * this.height * (this.format == GL30.GL_RGBA16F ? 8 : 4);
+    }
+}
@@ -0,0 +1,156 @@
+/*
+Copyright 2017 Tamas Bolner
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package CRTerm;
+
+import java.util.Arrays;
+
+
+/**
+ * Keeps the last N samples (for example frame times in nanoseconds) and
+ * calculates statistics over them. Samples are added by the render thread,
+ * the statistics can be read from any thread.
+ */
+public class RollingStatistics {
+    private long[] samples;
+    private int count = 0;
+    private int next = 0;
+
+    /**
+     * @param capacity The number of most recent samples to keep.
+     */
+    public RollingStatistics(int capacity) {
+        this.samples = new long[capacity];
+    }
+
+    /**
+     * Add a new sample. The oldest one is dropped if the window is full.
+     *
+     * @param value The value of the sample.
+     */
+    public synchronized void add(long value) {
+        this.samples[this.next] = value;
+        this.next = (this.next + 1) % this.samples.length;
+
+        if (this.count < this.samples.length) {
+            this.count++;
+        }
+    }
+
+    /**
+     * Remove all samples.
+     */
+    public synchronized void clear() {
+        this.count = 0;
+        this.next = 0;
+    }
+
+    /**
+     * @return The number of samples in the window.
+     */
+    public synchronized int getCount() {
+        return this.count;
+    }
+
+    /**
+     * @return The most recent sample, or 0 if there are none.
+     */
+    public synchronized long getLast() {
+        if (this.count == 0) {
+            return 0;
+        }
+
+        return this.samples[(this.next + this.samples.length - 1) % this.samples.length];
+    }
+
+    /**
+     * @return The average of the samples, or 0 if there are none.
+     */
+    public synchronized double getAverage() {
+        if (this.count == 0) {
+            return 0;
+        }
+
+        double sum = 0;
+        for (int i = 0; i < this.count; i++) {
+            sum += this.samples[i];
+        }
+
+        return sum / this.count;
+    }
+
+    /**
+     * @return The standard deviation of the samples. For frame intervals this is the jitter.
+     */
+    public synchronized double getStandardDeviation() {
+        if (this.count < 2) {
+            return 0;
+        }
+
+        double average = this.getAverage();
+        double sum = 0;
+
+        for (int i = 0; i < this.count; i++) {
+            double diff = this.samples[i] - average;
+            sum += diff * diff;
+        }
+
+        return Math.sqrt(sum / (this.count - 1));
+    }
+
+    /**
+     * @return The smallest sample, or 0 if there are none.
+     */
+    public synchronized long getMin() {
+        long min = this.count == 0 ? 0 : Long.MAX_VALUE;
+
+        for (int i = 0; i < this.count; i++) {
+            min = Math.min(min, this.samples[i]);
+        }
+
+        return min;
+    }
+
+    /**
+     * @return The largest sample, or 0 if there are none.
+     */
+    public synchronized long getMax() {
+        long max = 0;
+
+        for (int i = 0; i < this.count; i++) {
+            max = Math.max(max, this.samples[i]);
+        }
+
+        return max;
+    }
+
+    /**
+     * @param percentile Between 0 and 100. Example: 99 for the 99th percentile.
+     * @return The sample at the given percentile, or 0 if there are none.
+     */
+    public synchronized long getPercentile(double percentile) {
+        if (this.count == 0) {
+            return 0;
+        }
+
+        long[] sorted = Arrays.copyOf(this.samples, this.count);
+        Arrays.sort(sorted);
+
+        int index = (int)Math.ceil(percentile / 100d * this.count) - 1;
+
+        return sorted[Math.max(0, Math.min(index, this.count - 1))];
+    }
+}
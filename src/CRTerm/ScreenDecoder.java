@@ -0,0 +1,284 @@
+/*
+Copyright 2017 Tamas Bolner
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package CRTerm;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+
+
+/**
+ * Rebuilds the screens from the messages of a ScreenEncoder. A delta is only applied if it directly
+ * follows the previous message; after a gap the decoder waits for the next keyframe.
+ * The screen can be displayed with Terminal.setCharacters(decoder.getScreen()).
+ *
+ * Not thread-safe.
+ */
+public class ScreenDecoder {
+    private static final int MAX_MESSAGE_SIZE = 16 * 1024 * 1024;
+
+    private int columns;
+    private int rows;
+    private char[] screen;
+    private int sequence = 0;
+    private boolean inSync = false;
+    private ByteBuffer input = ByteBuffer.allocate(64 * 1024);
+    private long bytesRead = 0;
+    private long appliedMessages = 0;
+    private long skippedMessages = 0;
+
+    /**
+     * @param columns Horizontal character count. A keyframe of a different size resizes the screen.
+     * @param rows Vertical character count.
+     */
+    public ScreenDecoder(int columns, int rows) {
+        this.resize(columns, rows);
+    }
+
+    /**
+     * Apply a message.
+     *
+     * @param message One message, with the length prefix, as returned by ScreenEncoder.encode().
+     * @return False if the message was skipped, because it's a delta and the decoder is not in sync.
+     * @throws Exception If the message is malformed. The decoder waits for a keyframe after it.
+     */
+    public boolean decode(ByteBuffer message) throws Exception {
+        try {
+            message.getInt();
+            int type = message.get();
+            int sequence = message.getInt();
+            int columns = message.getShort() & 0xffff;
+            int rows = message.getShort() & 0xffff;
+
+            if (type == ScreenEncoder.TYPE_KEYFRAME) {
+                if (columns != this.columns || rows != this.rows) {
+                    this.resize(columns, rows);
+                }
+            } else if (type == ScreenEncoder.TYPE_DELTA) {
+                if (!this.inSync || sequence != this.sequence + 1 || columns != this.columns || rows != this.rows) {
+                    this.inSync = false;
+                    this.skippedMessages++;
+                    return false;
+                }
+            } else {
+                this.inSync = false;
+                throw new Exception("Unknown message type: " + type);
+            }
+
+            /*
+                A half-applied message leaves an unknown screen behind.
+             */
+            this.inSync = false;
+            this.applyOperations(message);
+
+            this.sequence = sequence;
+            this.inSync = true;
+            this.appliedMessages++;
+
+            return true;
+        } catch (BufferUnderflowException ex) {
+            this.inSync = false;
+            throw new Exception("Truncated screen message.");
+        }
+    }
+
+    /**
+     * Read the available bytes from a channel, and apply all complete messages.
+     * With a non-blocking channel, call it until getBytesRead() stops increasing.
+     *
+     * After a malformed message the decoder waits for the next keyframe. The bad message is skipped;
+     * after an invalid length the buffered bytes are dropped, since the message boundaries are lost.
+     *
+     * @param channel Source channel.
+     * @return The number of applied messages, or -1 at the end of the stream.
+     * @throws Exception Read errors, or a malformed message.
+     */
+    public int read(ReadableByteChannel channel) throws Exception {
+        int count;
+
+        try {
+            count = channel.read(this.input);
+        } catch (IOException ex) {
+            throw new Exception("Reading the screen stream failed: " + ex.getMessage());
+        }
+
+        if (count < 0) {
+            return -1;
+        }
+
+        this.bytesRead += count;
+        this.input.flip();
+
+        int applied = 0;
+        boolean framingLost = false;
+
+        try {
+            while (this.input.remaining() >= 4) {
+                int length = this.input.getInt(this.input.position());
+
+                if (length < ScreenEncoder.HEADER_SIZE - 4 || length > MAX_MESSAGE_SIZE) {
+                    framingLost = true;
+                    this.inSync = false;
+                    throw new Exception("Invalid screen message length: " + length);
+                }
+
+                if (this.input.remaining() < 4 + length) {
+                    break;
+                }
+
+                ByteBuffer message = this.input.slice();
+                message.limit(4 + length);
+
+                /*
+                    Consumed before decoding, so a malformed message isn't parsed again by the next call.
+                 */
+                this.input.position(this.input.position() + 4 + length);
+
+                if (this.decode(message)) {
+                    applied++;
+                }
+            }
+        } finally {
+            if (framingLost) {
+                this.input.clear();
+            } else {
+                this.input.compact();
+            }
+        }
+
+        /*
+            Make room for a message larger than the buffer.
+         */
+        if (this.input.position() >= 4 && !this.input.hasRemaining()) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.min(this.input.capacity() * 2, MAX_MESSAGE_SIZE + 4));
+            this.input.flip();
+            larger.put(this.input);
+            this.input = larger;
+        }
+
+        return applied;
+    }
+
+    private void applyOperations(ByteBuffer message) throws Exception {
+        while (true) {
+            int operation = message.get();
+            int row, column, count, position;
+
+            switch (operation) {
+                case ScreenEncoder.OP_END:
+                    return;
+
+                case ScreenEncoder.OP_SCROLL:
+                    ScreenEncoder.scroll(this.screen, this.columns, this.rows, message.getShort() & 0xffff);
+                    break;
+
+                case ScreenEncoder.OP_CLEAR:
+                    Arrays.fill(this.screen, ScreenEncoder.BLANK);
+                    break;
+
+                case ScreenEncoder.OP_TEXT:
+                    row = message.getShort() & 0xffff;
+                    column = message.getShort() & 0xffff;
+                    count = message.getShort() & 0xffff;
+                    position = this.checkSpan(row, column, count);
+
+                    for (int i = position; i < position + count; i++) {
+                        int b = message.get() & 0xff;
+                        this.screen[i] = b < 0x80 ? (char)b : message.getChar();
+                    }
+                    break;
+
+                case ScreenEncoder.OP_FILL:
+                    row = message.getShort() & 0xffff;
+                    column = message.getShort() & 0xffff;
+                    count = message.getShort() & 0xffff;
+                    char c = message.getChar();
+                    position = this.checkSpan(row, column, count);
+
+                    Arrays.fill(this.screen, position, position + count, c);
+                    break;
+
+                default:
+                    throw new Exception("Unknown screen operation: " + operation);
+            }
+        }
+    }
+
+    /**
+     * @return The index of the first character of the span.
+     */
+    private int checkSpan(int row, int column, int count) throws Exception {
+        if (row >= this.rows || column + count > this.columns) {
+            throw new Exception("Screen operation out of bounds: row " + row + ", columns " + column + " - " + (column + count));
+        }
+
+        return row * this.columns + column;
+    }
+
+    private void resize(int columns, int rows) {
+        this.columns = columns;
+        this.rows = rows;
+        this.screen = new char[columns * rows];
+        Arrays.fill(this.screen, ScreenEncoder.BLANK);
+    }
+
+    /**
+     * @return The current screen, starting at the top-left corner. Modified by the next message.
+     */
+    public char[] getScreen() {
+        return this.screen;
+    }
+
+    public int getColumns() {
+        return this.columns;
+    }
+
+    public int getRows() {
+        return this.rows;
+    }
+
+    /**
+     * @return The sequence number of the last applied message.
+     */
+    public int getSequence() {
+        return this.sequence;
+    }
+
+    /**
+     * @return False before the first keyframe, and after a gap until the next keyframe.
+     */
+    public boolean isInSync() {
+        return this.inSync;
+    }
+
+    public long getBytesRead() {
+        return this.bytesRead;
+    }
+
+    public long getAppliedMessages() {
+        return this.appliedMessages;
+    }
+
+    /**
+     * @return The number of deltas, which were skipped while waiting for a keyframe.
+     */
+    public long getSkippedMessages() {
+        return this.skippedMessages;
+    }
+}
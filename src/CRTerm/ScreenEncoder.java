@@ -0,0 +1,423 @@
+/*
+Copyright 2017 Tamas Bolner
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package CRTerm;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+
+/**
+ * Turns successive screens (the character array of a Terminal, starting at the top-left corner)
+ * into compact messages: only the changed spans of the rows are sent, runs of the same character
+ * (typically blanks) are run-length encoded, and scrolling is detected and sent as a single
+ * operation. Every keyframeInterval-th message holds the whole screen, so a ScreenDecoder can
+ * join the stream or recover from a gap.
+ *
+ * Message format (big-endian):
+ *      int length (of the rest), byte type (KEYFRAME / DELTA), int sequence, short columns, short rows,
+ *      then operations until OP_END.
+ *
+ * Operations:
+ *      OP_SCROLL lines             Shift the rows up, and fill the new rows at the bottom with blanks.
+ *      OP_CLEAR                    Fill the screen with blanks. (Starts the keyframes.)
+ *      OP_TEXT row column count    Followed by the characters: one byte below 0x80, otherwise 0x80 and a short.
+ *      OP_FILL row column count c  The same character (short) count times.
+ *
+ * Not thread-safe.
+ */
+public class ScreenEncoder {
+    static final int TYPE_KEYFRAME = 1;
+    static final int TYPE_DELTA = 2;
+    static final int HEADER_SIZE = 4 + 1 + 4 + 2 + 2;
+
+    static final int OP_END = 0;
+    static final int OP_SCROLL = 1;
+    static final int OP_CLEAR = 2;
+    static final int OP_TEXT = 3;
+    static final int OP_FILL = 4;
+
+    static final char BLANK = ' ';
+
+    /**
+     * Runs shorter than this are sent as text. (A fill costs 9 bytes.)
+     */
+    private static final int MIN_RUN = 8;
+
+    /**
+     * Unchanged gaps inside a row shorter than this are sent, instead of starting a new operation.
+     */
+    private static final int MIN_GAP = 8;
+
+    /**
+     * Only scrolling by at most this many lines is detected.
+     */
+    private static final int MAX_SCROLL = 8;
+
+    private int columns;
+    private int rows;
+    private char[] previous;
+    private char[] blank;
+    private int[] previousHashes;
+    private int[] hashes;
+    private int sequence = 0;
+    private int keyframeInterval;
+    private int sinceKeyframe = 0;
+    private boolean forceKeyframe = true;
+    private ByteBuffer buffer;
+
+    /**
+     * @param columns Horizontal character count.
+     * @param rows Vertical character count.
+     * @param keyframeInterval Every this many messages is a keyframe. Default: 300 (5 seconds at 60 FPS)
+     */
+    public ScreenEncoder(int columns, int rows, int keyframeInterval) {
+        this.columns = columns;
+        this.rows = rows;
+        this.keyframeInterval = Math.max(keyframeInterval, 1);
+        this.previous = new char[columns * rows];
+        this.blank = new char[columns * rows];
+        this.previousHashes = new int[rows];
+        this.hashes = new int[rows];
+
+        /*
+            Worst case: every character takes 3 bytes, plus one operation for each row.
+         */
+        this.buffer = ByteBuffer.allocate(HEADER_SIZE + 2 + rows * (7 + columns * 3) + 3 + 1);
+
+        Arrays.fill(this.previous, BLANK);
+        Arrays.fill(this.blank, BLANK);
+        this.hashRows(this.previous, this.previousHashes);
+    }
+
+    /**
+     * @param columns Horizontal character count.
+     * @param rows Vertical character count.
+     */
+    public ScreenEncoder(int columns, int rows) {
+        this(columns, rows, 300);
+    }
+
+    /**
+     * Encode the difference to the previous screen.
+     *
+     * @param screen columns * rows characters, starting at the top-left corner. (Shorter arrays are padded with blanks.)
+     * @return The message, with the length prefix. Valid until the next call; copy it to keep it.
+     */
+    public ByteBuffer encode(char[] screen) {
+        boolean keyframe = this.forceKeyframe || ++this.sinceKeyframe >= this.keyframeInterval;
+        char[] current = this.normalize(screen);
+
+        this.hashRows(current, this.hashes);
+        this.beginMessage(keyframe ? TYPE_KEYFRAME : TYPE_DELTA, ++this.sequence);
+
+        if (keyframe) {
+            this.buffer.put((byte)OP_CLEAR);
+            Arrays.fill(this.previous, BLANK);
+            this.hashRows(this.previous, this.previousHashes);
+            this.sinceKeyframe = 0;
+            this.forceKeyframe = false;
+        } else {
+            int scroll = this.detectScroll();
+
+            if (scroll > 0) {
+                this.buffer.put((byte)OP_SCROLL);
+                this.buffer.putShort((short)scroll);
+                scroll(this.previous, this.columns, this.rows, scroll);
+                System.arraycopy(this.previousHashes, scroll, this.previousHashes, 0, this.rows - scroll);
+                int blankHash = this.hashRow(this.previous, this.rows - 1);
+                Arrays.fill(this.previousHashes, this.rows - scroll, this.rows, blankHash);
+            }
+        }
+
+        for (int row = 0; row < this.rows; row++) {
+            if (this.hashes[row] == this.previousHashes[row] && this.rowEquals(current, row)) {
+                continue;
+            }
+
+            this.encodeRow(current, this.previous, row);
+        }
+
+        this.buffer.put((byte)OP_END);
+
+        System.arraycopy(current, 0, this.previous, 0, this.previous.length);
+        int[] swap = this.previousHashes;
+        this.previousHashes = this.hashes;
+        this.hashes = swap;
+
+        return this.endMessage();
+    }
+
+    /**
+     * Encode the last screen again as a keyframe, with the sequence number of the last message.
+     * For receivers joining the stream. It doesn't affect the following deltas.
+     *
+     * @return The message, with the length prefix. Valid until the next call; copy it to keep it.
+     */
+    public ByteBuffer keyframe() {
+        this.beginMessage(TYPE_KEYFRAME, this.sequence);
+        this.buffer.put((byte)OP_CLEAR);
+
+        for (int row = 0; row < this.rows; row++) {
+            this.encodeRow(this.previous, this.blank, row);
+        }
+
+        this.buffer.put((byte)OP_END);
+
+        return this.endMessage();
+    }
+
+    /**
+     * Encode a screen and write the message into a channel. Waits until the whole message is written,
+     * so use it with blocking channels.
+     *
+     * @param channel Target channel.
+     * @param screen columns * rows characters, starting at the top-left corner.
+     * @return The number of bytes written.
+     * @throws IOException Errors of the channel.
+     */
+    public int write(WritableByteChannel channel, char[] screen) throws IOException {
+        ByteBuffer message = this.encode(screen);
+        int size = message.remaining();
+
+        while (message.hasRemaining()) {
+            channel.write(message);
+        }
+
+        return size;
+    }
+
+    /**
+     * Make the next message a keyframe.
+     */
+    public void requestKeyframe() {
+        this.forceKeyframe = true;
+    }
+
+    /**
+     * @return The sequence number of the last message.
+     */
+    public int getSequence() {
+        return this.sequence;
+    }
+
+    public int getColumns() {
+        return this.columns;
+    }
+
+    public int getRows() {
+        return this.rows;
+    }
+
+    private char[] normalize(char[] screen) {
+        if (screen.length == this.previous.length) {
+            return screen;
+        }
+
+        char[] result = new char[this.previous.length];
+        Arrays.fill(result, BLANK);
+        System.arraycopy(screen, 0, result, 0, Math.min(screen.length, result.length));
+
+        return result;
+    }
+
+    private void beginMessage(int type, int sequence) {
+        this.buffer.clear();
+        this.buffer.putInt(0);
+        this.buffer.put((byte)type);
+        this.buffer.putInt(sequence);
+        this.buffer.putShort((short)this.columns);
+        this.buffer.putShort((short)this.rows);
+    }
+
+    private ByteBuffer endMessage() {
+        this.buffer.flip();
+        this.buffer.putInt(0, this.buffer.limit() - 4);
+
+        return this.buffer;
+    }
+
+    /**
+     * Finds the scroll distance, which makes the most rows equal to the previous screen.
+     * Compares only the row hashes; the rows are compared fully when they are encoded.
+     *
+     * @return 0 if scrolling doesn't help.
+     */
+    private int detectScroll() {
+        int best = 0;
+        int bestMatches = this.countMatches(0);
+
+        for (int lines = 1; lines <= Math.min(MAX_SCROLL, this.rows - 1); lines++) {
+            int matches = this.countMatches(lines);
+
+            if (matches > bestMatches) {
+                best = lines;
+                bestMatches = matches;
+            }
+        }
+
+        return best;
+    }
+
+    /**
+     * @return The number of rows, which would match after scrolling the previous screen by the given lines.
+     */
+    private int countMatches(int lines) {
+        int matches = 0;
+
+        for (int row = 0; row < this.rows - lines; row++) {
+            if (this.hashes[row] == this.previousHashes[row + lines]) {
+                matches++;
+            }
+        }
+
+        return matches;
+    }
+
+    /**
+     * Write the changed spans of a row. Unchanged gaps shorter than MIN_GAP are included in the spans.
+     *
+     * @param current The new screen.
+     * @param reference The screen of the receiver.
+     * @param row Index of the row.
+     */
+    private void encodeRow(char[] current, char[] reference, int row) {
+        int offset = row * this.columns;
+        int column = 0;
+
+        while (column < this.columns) {
+            /*
+                Start of the next change
+             */
+            while (column < this.columns && current[offset + column] == reference[offset + column]) {
+                column++;
+            }
+
+            if (column == this.columns) {
+                return;
+            }
+
+            int start = column;
+            int end = column;
+            int gap = 0;
+
+            while (column < this.columns && gap < MIN_GAP) {
+                if (current[offset + column] == reference[offset + column]) {
+                    gap++;
+                } else {
+                    gap = 0;
+                    end = column + 1;
+                }
+
+                column++;
+            }
+
+            this.encodeSpan(current, row, start, end);
+            column = end;
+        }
+    }
+
+    /**
+     * Write a span as text and fill operations.
+     */
+    private void encodeSpan(char[] current, int row, int start, int end) {
+        int offset = row * this.columns;
+        int textStart = start;
+        int column = start;
+
+        while (column < end) {
+            char c = current[offset + column];
+            int run = 1;
+
+            while (column + run < end && current[offset + column + run] == c) {
+                run++;
+            }
+
+            if (run >= MIN_RUN) {
+                this.encodeText(current, row, textStart, column);
+                this.buffer.put((byte)OP_FILL);
+                this.buffer.putShort((short)row);
+                this.buffer.putShort((short)column);
+                this.buffer.putShort((short)run);
+                this.buffer.putShort((short)c);
+                textStart = column + run;
+            }
+
+            column += run;
+        }
+
+        this.encodeText(current, row, textStart, end);
+    }
+
+    private void encodeText(char[] current, int row, int start, int end) {
+        if (start >= end) {
+            return;
+        }
+
+        int offset = row * this.columns;
+
+        this.buffer.put((byte)OP_TEXT);
+        this.buffer.putShort((short)row);
+        this.buffer.putShort((short)start);
+        this.buffer.putShort((short)(end - start));
+
+        for (int i = offset + start; i < offset + end; i++) {
+            char c = current[i];
+
+            if (c < 0x80) {
+                this.buffer.put((byte)c);
+            } else {
+                this.buffer.put((byte)0x80);
+                this.buffer.putShort((short)c);
+            }
+        }
+    }
+
+    private boolean rowEquals(char[] current, int row) {
+        int offset = row * this.columns;
+
+        return Arrays.equals(current, offset, offset + this.columns, this.previous, offset, offset + this.columns);
+    }
+
+    private void hashRows(char[] screen, int[] target) {
+        for (int row = 0; row < this.rows; row++) {
+            target[row] = this.hashRow(screen, row);
+        }
+    }
+
+    private int hashRow(char[] screen, int row) {
+        int hash = 1;
+        int offset = row * this.columns;
+
+        for (int i = offset; i < offset + this.columns; i++) {
+            hash = 31 * hash + screen[i];
+        }
+
+        return hash;
+    }
+
+    /**
+     * Shift the rows up, and fill the new rows at the bottom with blanks. Shared with the decoder.
+     */
+    static void scroll(char[] screen, int columns, int rows, int lines) {
+        lines = Math.min(lines, rows);
+
+        System.arraycopy(screen, lines * columns, screen, 0, (rows - lines) * columns);
+        Arrays.fill(screen, (rows - lines) * columns, rows * columns, BLANK);
+    }
+}
@@ -0,0 +1,149 @@
+/*
+Copyright 2017 Tamas Bolner
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package CRTerm;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+
+
+/**
+ * Receives the screens of a ScreenStreamServer. Call poll() once per frame (with 0 timeout in a render loop),
+ * then display the screen:
+ *
+ *      if (client.poll(0) > 0) {
+ *          terminal.setCharacters(client.getScreen());
+ *      }
+ */
+public class ScreenStreamClient {
+    private SocketChannel channel;
+    private Selector selector;
+    private ScreenDecoder decoder;
+    private boolean connected = true;
+
+    /**
+     * Connect to a server.
+     *
+     * @param host Host name or address.
+     * @param port TCP port.
+     * @param columns Initial horizontal character count. Replaced by the size of the first keyframe.
+     * @param rows Initial vertical character count.
+     * @throws Exception Connection errors.
+     */
+    public ScreenStreamClient(String host, int port, int columns, int rows) throws Exception {
+        this.decoder = new ScreenDecoder(columns, rows);
+
+        try {
+            this.channel = SocketChannel.open(new InetSocketAddress(host, port));
+            this.channel.configureBlocking(false);
+            this.channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            this.selector = Selector.open();
+            this.channel.register(this.selector, SelectionKey.OP_READ);
+        } catch (IOException ex) {
+            this.close();
+            throw new Exception("Unable to connect to the screen stream at " + host + ":" + port + ": " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Apply all messages which have arrived.
+     *
+     * @param timeoutMillis Wait at most this long for data. 0 = don't wait.
+     * @return The number of applied messages. 0 if nothing has changed.
+     * @throws Exception Read errors, or a malformed message.
+     */
+    public int poll(long timeoutMillis) throws Exception {
+        if (!this.connected) {
+            return 0;
+        }
+
+        try {
+            if (timeoutMillis > 0) {
+                this.selector.select(timeoutMillis);
+            } else {
+                this.selector.selectNow();
+            }
+        } catch (IOException ex) {
+            throw new Exception("Waiting for the screen stream failed: " + ex.getMessage());
+        }
+
+        this.selector.selectedKeys().clear();
+
+        /*
+            Read until the socket is drained, so a batch of frames is applied at once.
+         */
+        int applied = 0;
+        long before;
+
+        do {
+            before = this.decoder.getBytesRead();
+            int result = this.decoder.read(this.channel);
+
+            if (result < 0) {
+                this.connected = false;
+                break;
+            }
+
+            applied += result;
+        } while (this.decoder.getBytesRead() > before);
+
+        return applied;
+    }
+
+    /**
+     * @return The current screen, starting at the top-left corner. Modified by the next poll().
+     */
+    public char[] getScreen() {
+        return this.decoder.getScreen();
+    }
+
+    /**
+     * @return The decoder, for its size and counters.
+     */
+    public ScreenDecoder getDecoder() {
+        return this.decoder;
+    }
+
+    /**
+     * @return False after the server has closed the connection.
+     */
+    public boolean isConnected() {
+        return this.connected;
+    }
+
+    /**
+     * Close the connection.
+     */
+    public void close() {
+        this.connected = false;
+
+        try {
+            if (this.channel != null) {
+                this.channel.close();
+            }
+
+            if (this.selector != null) {
+                this.selector.close();
+            }
+        } catch (IOException ex) {
+            // Ignored
+        }
+    }
+}
@@ -0,0 +1,297 @@
+/*
+Copyright 2017 Tamas Bolner
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package CRTerm;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+
+/**
+ * Sends the screens of a producer to any number of ScreenStreamClients over TCP. Non-blocking:
+ * each screen is encoded once, and queued for all clients. The queued messages of a client are
+ * written with a single gathering write, so the frames, which accumulate while the socket is busy,
+ * go out in one batch. A client which falls behind by more than maxBacklog bytes loses its queued
+ * deltas, and gets a keyframe instead. New clients start with a keyframe of the last screen.
+ *
+ * All methods have to be called from the same thread. Call poll() regularly (or after each publish)
+ * to accept the clients and to send the queued data.
+ */
+public class ScreenStreamServer {
+    private static class Client {
+        SocketChannel channel;
+        SelectionKey key;
+        ArrayDeque<ByteBuffer> queue = new ArrayDeque<ByteBuffer>();
+        long queuedBytes = 0;
+    }
+
+    private ScreenEncoder encoder;
+    private Selector selector;
+    private ServerSocketChannel serverChannel;
+    private List<Client> clients = new ArrayList<Client>();
+    private ByteBuffer scratch = ByteBuffer.allocate(1024);
+    private long maxBacklog = 1024 * 1024;
+    private long bytesSent = 0;
+    private long messages = 0;
+    private long keyframesSent = 0;
+
+    /**
+     * Start listening.
+     *
+     * @param address Local address. Port 0 selects a free port. (See getLocalPort)
+     * @param columns Horizontal character count.
+     * @param rows Vertical character count.
+     * @param keyframeInterval Every this many messages is a keyframe.
+     * @throws IOException Binding errors.
+     */
+    public ScreenStreamServer(InetSocketAddress address, int columns, int rows, int keyframeInterval) throws IOException {
+        this.encoder = new ScreenEncoder(columns, rows, keyframeInterval);
+        this.selector = Selector.open();
+        this.serverChannel = ServerSocketChannel.open();
+        this.serverChannel.configureBlocking(false);
+        this.serverChannel.bind(address);
+        this.serverChannel.register(this.selector, SelectionKey.OP_ACCEPT);
+    }
+
+    /**
+     * Encode a screen and queue it for all clients. The data is sent by this call, as far as the sockets accept it.
+     *
+     * @param screen columns * rows characters, starting at the top-left corner.
+     * @throws IOException Selector errors. The errors of the clients only disconnect them.
+     */
+    public void publish(char[] screen) throws IOException {
+        ByteBuffer delta = copy(this.encoder.encode(screen));
+        ByteBuffer keyframe = null;
+        this.messages++;
+
+        for (Client client : this.clients) {
+            if (client.queuedBytes > this.maxBacklog) {
+                this.dropBacklog(client);
+
+                if (keyframe == null) {
+                    keyframe = copy(this.encoder.keyframe());
+                }
+
+                this.enqueue(client, keyframe.duplicate());
+                this.keyframesSent++;
+            } else {
+                this.enqueue(client, delta.duplicate());
+            }
+        }
+
+        this.poll(0);
+    }
+
+    /**
+     * Accept the new clients, send the queued data, and remove the disconnected clients.
+     *
+     * @param timeoutMillis Wait at most this long for an event. 0 = don't wait.
+     * @throws IOException Selector errors.
+     */
+    public void poll(long timeoutMillis) throws IOException {
+        if (timeoutMillis > 0) {
+            this.selector.select(timeoutMillis);
+        } else {
+            this.selector.selectNow();
+        }
+
+        Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator();
+
+        while (keys.hasNext()) {
+            SelectionKey key = keys.next();
+            keys.remove();
+
+            if (!key.isValid()) {
+                continue;
+            }
+
+            if (key.isAcceptable()) {
+                this.accept();
+            } else if (key.isReadable()) {
+                this.discardInput((Client)key.attachment());
+            }
+        }
+
+        for (int i = this.clients.size() - 1; i >= 0; i--) {
+            this.flush(this.clients.get(i));
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+
+        while ((channel = this.serverChannel.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+
+            Client client = new Client();
+            client.channel = channel;
+            client.key = channel.register(this.selector, SelectionKey.OP_READ, client);
+            this.clients.add(client);
+
+            if (this.encoder.getSequence() > 0) {
+                this.enqueue(client, copy(this.encoder.keyframe()));
+                this.keyframesSent++;
+            }
+        }
+    }
+
+    /**
+     * The clients don't send anything, but reading detects the disconnection.
+     */
+    private void discardInput(Client client) {
+        try {
+            this.scratch.clear();
+
+            if (client.channel.read(this.scratch) < 0) {
+                this.disconnect(client);
+            }
+        } catch (IOException ex) {
+            this.disconnect(client);
+        }
+    }
+
+    /**
+     * Write as many of the queued messages as the socket accepts, in one gathering write.
+     */
+    private void flush(Client client) {
+        if (client.queue.isEmpty() || !client.channel.isOpen()) {
+            return;
+        }
+
+        try {
+            long written = client.channel.write(client.queue.toArray(new ByteBuffer[0]));
+            this.bytesSent += written;
+            client.queuedBytes -= written;
+        } catch (IOException ex) {
+            this.disconnect(client);
+            return;
+        }
+
+        while (!client.queue.isEmpty() && !client.queue.peekFirst().hasRemaining()) {
+            client.queue.pollFirst();
+        }
+
+        client.key.interestOps(client.queue.isEmpty() ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+    }
+
+    private void enqueue(Client client, ByteBuffer message) {
+        client.queue.addLast(message);
+        client.queuedBytes += message.remaining();
+    }
+
+    /**
+     * Remove the queued messages, except a partially written one, which has to be finished.
+     */
+    private void dropBacklog(Client client) {
+        ByteBuffer head = client.queue.peekFirst();
+        boolean keepHead = head != null && head.position() > 0;
+
+        client.queue.clear();
+        client.queuedBytes = 0;
+
+        if (keepHead) {
+            this.enqueue(client, head);
+        }
+    }
+
+    private void disconnect(Client client) {
+        try {
+            client.channel.close();
+        } catch (IOException ex) {
+            // Already closed
+        }
+
+        this.clients.remove(client);
+    }
+
+    private static ByteBuffer copy(ByteBuffer message) {
+        ByteBuffer result = ByteBuffer.allocate(message.remaining());
+        result.put(message.duplicate()).flip();
+
+        return result;
+    }
+
+    /**
+     * Make the next message a keyframe for all clients.
+     */
+    public void requestKeyframe() {
+        this.encoder.requestKeyframe();
+    }
+
+    /**
+     * @param bytes A client, which has more than this many bytes queued, gets a keyframe instead of the queued deltas. Default: 1 MB
+     */
+    public void setMaxBacklog(long bytes) {
+        this.maxBacklog = bytes;
+    }
+
+    /**
+     * @return The port the server listens on.
+     * @throws IOException Socket errors.
+     */
+    public int getLocalPort() throws IOException {
+        return ((InetSocketAddress)this.serverChannel.getLocalAddress()).getPort();
+    }
+
+    public int getClientCount() {
+        return this.clients.size();
+    }
+
+    /**
+     * @return The number of bytes written to all clients.
+     */
+    public long getBytesSent() {
+        return this.bytesSent;
+    }
+
+    /**
+     * @return The number of published screens.
+     */
+    public long getMessages() {
+        return this.messages;
+    }
+
+    /**
+     * @return The number of keyframes sent to joining or lagging clients. (The periodic keyframes are not included.)
+     */
+    public long getKeyframesSent() {
+        return this.keyframesSent;
+    }
+
+    /**
+     * Disconnect the clients and stop listening.
+     */
+    public void close() {
+        for (Client client : new ArrayList<Client>(this.clients)) {
+            this.disconnect(client);
+        }
+
+        try {
+            this.serverChannel.close();
+            this.selector.close();
+        } catch (IOException ex) {
+            // Ignored
+        }
+    }
+}
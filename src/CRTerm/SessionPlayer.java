@@ -0,0 +1,406 @@
+/*
+Copyright 2017 Tamas Bolner
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package CRTerm;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import static org.lwjgl.glfw.GLFW.*;
+
+
+/**
+ * Replays a recording of a SessionRecorder. Opening reads only the header and the snapshot index,
+ * and the records are memory-mapped on demand, so the size of the recording doesn't matter.
+ * seek() starts from the last snapshot before the target time.
+ *
+ * Playback:
+ *      Real-time or accelerated:   player.advanceTo(elapsed * speed), once per frame. (Or play(terminal, speed))
+ *      As fast as possible:        while (player.next()) { ... }
+ */
+public class SessionPlayer {
+    private FileChannel channel;
+    private int chunkSize;
+    private long dataEnd;
+    private long recordCount;
+    private long startEpochMillis;
+    private long[] indexTimes;
+    private long[] indexOffsets;
+    private MappedByteBuffer chunk = null;
+    private long chunkStart = -1;
+    private long position = SessionRecorder.HEADER_SIZE;
+    private long time = 0;
+    private long duration = 0;
+    private ScreenDecoder decoder;
+    private boolean indexRebuilt = false;
+
+    /**
+     * Open a recording.
+     *
+     * @param file The recording.
+     * @throws Exception File errors, or if it isn't a valid recording.
+     */
+    public SessionPlayer(Path file) throws Exception {
+        try {
+            this.channel = FileChannel.open(file, StandardOpenOption.READ);
+            ByteBuffer header = ByteBuffer.allocate(SessionRecorder.HEADER_SIZE);
+            this.readFully(header, 0);
+
+            if (header.getLong(0) != SessionRecorder.MAGIC || header.getInt(8) != SessionRecorder.VERSION) {
+                throw new Exception("Not a CRTerm recording: " + file);
+            }
+
+            this.decoder = new ScreenDecoder(header.getShort(SessionRecorder.HEADER_COLUMNS) & 0xffff,
+                    header.getShort(SessionRecorder.HEADER_ROWS) & 0xffff);
+            this.chunkSize = header.getInt(SessionRecorder.HEADER_CHUNK_SIZE);
+            this.startEpochMillis = header.getLong(SessionRecorder.HEADER_START);
+            this.dataEnd = Math.min(header.getLong(SessionRecorder.HEADER_DATA_END), this.channel.size());
+            this.recordCount = header.getLong(SessionRecorder.HEADER_RECORD_COUNT);
+
+            long indexOffset = header.getLong(SessionRecorder.HEADER_INDEX_OFFSET);
+
+            if (indexOffset > 0) {
+                this.readIndex(indexOffset, header.getInt(SessionRecorder.HEADER_INDEX_COUNT));
+            } else {
+                this.rebuildIndex();
+            }
+        } catch (IOException ex) {
+            this.close();
+            throw new Exception("Unable to open the recording '" + file + "': " + ex.getMessage());
+        } catch (Exception ex) {
+            this.close();
+            throw ex;
+        }
+
+        this.seek(0);
+    }
+
+    private void readFully(ByteBuffer buffer, long offset) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (this.channel.read(buffer, offset + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of file.");
+            }
+        }
+    }
+
+    private void readIndex(long offset, int count) throws Exception {
+        ByteBuffer index = ByteBuffer.allocate(count * 16);
+        this.readFully(index, offset);
+        index.flip();
+
+        this.indexTimes = new long[count];
+        this.indexOffsets = new long[count];
+
+        for (int i = 0; i < count; i++) {
+            this.indexTimes[i] = index.getLong();
+            this.indexOffsets[i] = index.getLong();
+        }
+
+        this.duration = this.findDuration();
+    }
+
+    /**
+     * The recorder didn't finish the file. Find the snapshots by reading the record headers.
+     */
+    private void rebuildIndex() throws Exception {
+        long[] times = new long[64];
+        long[] offsets = new long[64];
+        int count = 0;
+
+        this.recordCount = 0;
+        this.position = SessionRecorder.HEADER_SIZE;
+
+        while (this.nextRecord()) {
+            ByteBuffer chunk = this.chunk;
+            int offset = (int)(this.position - this.chunkStart);
+
+            if (chunk.get(offset + 12) == ScreenEncoder.TYPE_KEYFRAME) {
+                if (count == times.length) {
+                    times = Arrays.copyOf(times, count * 2);
+                    offsets = Arrays.copyOf(offsets, count * 2);
+                }
+
+                times[count] = chunk.getLong(offset);
+                offsets[count] = this.position;
+                count++;
+            }
+
+            this.duration = chunk.getLong(offset);
+            this.position += 8 + 4 + chunk.getInt(offset + 8);
+            this.recordCount++;
+        }
+
+        this.indexTimes = Arrays.copyOf(times, count);
+        this.indexOffsets = Arrays.copyOf(offsets, count);
+        this.indexRebuilt = true;
+    }
+
+    /**
+     * @return The time of the last record: the records after the last snapshot have to be read.
+     */
+    private long findDuration() throws Exception {
+        if (this.indexTimes.length == 0) {
+            return 0;
+        }
+
+        long result = this.indexTimes[this.indexTimes.length - 1];
+        this.position = this.indexOffsets[this.indexOffsets.length - 1];
+
+        while (this.nextRecord()) {
+            int offset = (int)(this.position - this.chunkStart);
+            result = this.chunk.getLong(offset);
+            this.position += 8 + 4 + this.chunk.getInt(offset + 8);
+        }
+
+        return result;
+    }
+
+    /**
+     * Move the position to the start of the next record, skipping the end of the chunk if needed,
+     * and map the chunk of the record.
+     *
+     * @return False at the end of the records.
+     */
+    private boolean nextRecord() throws Exception {
+        while (this.position < this.dataEnd) {
+            long chunkIndex = this.position / this.chunkSize;
+            long nextChunk = (chunkIndex + 1) * this.chunkSize;
+
+            if (nextChunk - this.position < 8) {
+                this.position = nextChunk;
+                continue;
+            }
+
+            if (this.position + 8 + 4 > this.dataEnd) {
+                return false;
+            }
+
+            this.mapChunk(chunkIndex * this.chunkSize);
+            int offset = (int)(this.position - this.chunkStart);
+
+            if (this.chunk.getLong(offset) == SessionRecorder.SKIP_MARKER) {
+                this.position = nextChunk;
+                continue;
+            }
+
+            int length = this.chunk.getInt(offset + 8);
+
+            if (length < ScreenEncoder.HEADER_SIZE - 4 || this.position + 8 + 4 + length > Math.min(this.dataEnd, nextChunk)) {
+                throw new Exception("Corrupt record in the recording at offset " + this.position);
+            }
+
+            return true;
+        }
+
+        return false;
+    }
+
+    private void mapChunk(long start) throws Exception {
+        if (start == this.chunkStart) {
+            return;
+        }
+
+        try {
+            long size = Math.min(this.chunkSize, this.channel.size() - start);
+            this.chunk = this.channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+            this.chunkStart = start;
+        } catch (IOException ex) {
+            throw new Exception("Unable to map the recording: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Apply the next record.
+     *
+     * @return False at the end of the recording.
+     * @throws Exception File errors, or a corrupt record.
+     */
+    public boolean next() throws Exception {
+        if (!this.nextRecord()) {
+            return false;
+        }
+
+        int offset = (int)(this.position - this.chunkStart);
+        int length = this.chunk.getInt(offset + 8);
+        ByteBuffer message = this.chunk.duplicate();
+        message.limit(offset + 8 + 4 + length);
+        message.position(offset + 8);
+
+        this.time = this.chunk.getLong(offset);
+        this.decoder.decode(message);
+        this.position += 8 + 4 + length;
+
+        return true;
+    }
+
+    /**
+     * Apply the records up to the given time.
+     *
+     * @param time Nanoseconds from the start of the recording.
+     * @return The number of applied records. 0 if the screen hasn't changed.
+     * @throws Exception File errors, or a corrupt record.
+     */
+    public int advanceTo(long time) throws Exception {
+        int applied = 0;
+
+        while (this.nextRecord() && this.chunk.getLong((int)(this.position - this.chunkStart)) <= time) {
+            this.next();
+            applied++;
+        }
+
+        return applied;
+    }
+
+    /**
+     * Jump to a time. The screen is rebuilt from the last snapshot before it.
+     *
+     * @param time Nanoseconds from the start of the recording.
+     * @throws Exception File errors, or a corrupt record.
+     */
+    public void seek(long time) throws Exception {
+        int index = Arrays.binarySearch(this.indexTimes, time);
+
+        if (index < 0) {
+            index = -index - 2;
+        } else {
+            /*
+                Equal times: take the first snapshot of them.
+             */
+            while (index > 0 && this.indexTimes[index - 1] == time) {
+                index--;
+            }
+        }
+
+        this.position = index >= 0 ? this.indexOffsets[index] : SessionRecorder.HEADER_SIZE;
+        this.time = 0;
+        this.next();
+        this.advanceTo(time);
+    }
+
+    /**
+     * Replay the recording on a terminal, until the end or until its window is closed.
+     * The frames are paced by the frame scheduling of the terminal; use UNCAPPED for the fastest replay.
+     *
+     * @param terminal Target terminal, with the same size as the recording.
+     * @param speed 1 = real-time, 2 = double speed, etc. 0 = as fast as possible, one record per frame.
+     * @throws Exception Errors of the recording or the rendering.
+     */
+    public void play(Terminal terminal, double speed) throws Exception {
+        long start = System.nanoTime();
+        long from = this.time;
+
+        while (!glfwWindowShouldClose(terminal.getWindowID())) {
+            int applied;
+
+            if (speed > 0) {
+                applied = this.advanceTo(from + (long)((System.nanoTime() - start) * speed));
+            } else {
+                applied = this.next() ? 1 : 0;
+            }
+
+            if (applied > 0) {
+                terminal.setCharacters(this.getScreen());
+            }
+
+            terminal.renderFrame();
+            terminal.swapBuffers();
+            glfwPollEvents();
+
+            if (this.isFinished()) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * @return True if all records are applied.
+     * @throws Exception File errors.
+     */
+    public boolean isFinished() throws Exception {
+        return !this.nextRecord();
+    }
+
+    /**
+     * @return The screen at the current position, starting at the top-left corner.
+     */
+    public char[] getScreen() {
+        return this.decoder.getScreen();
+    }
+
+    /**
+     * @return Nanoseconds from the start of the recording to the last applied record.
+     */
+    public long getTime() {
+        return this.time;
+    }
+
+    /**
+     * @return Nanoseconds from the start of the recording to the last record.
+     */
+    public long getDuration() {
+        return this.duration;
+    }
+
+    public int getColumns() {
+        return this.decoder.getColumns();
+    }
+
+    public int getRows() {
+        return this.decoder.getRows();
+    }
+
+    public long getRecordCount() {
+        return this.recordCount;
+    }
+
+    public int getSnapshotCount() {
+        return this.indexTimes.length;
+    }
+
+    /**
+     * @return The wall-clock time of the start of the recording, in milliseconds since the epoch.
+     */
+    public long getStartTime() {
+        return this.startEpochMillis;
+    }
+
+    /**
+     * @return True if the recording wasn't closed properly, and the index had to be rebuilt by scanning.
+     */
+    public boolean isIndexRebuilt() {
+        return this.indexRebuilt;
+    }
+
+    /**
+     * Close the file.
+     */
+    public void close() {
+        this.chunk = null;
+
+        try {
+            if (this.channel != null) {
+                this.channel.close();
+            }
+        } catch (IOException ex) {
+            // Ignored
+        }
+    }
+}
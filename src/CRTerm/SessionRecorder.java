@@ -0,0 +1,294 @@
+/*
+Copyright 2017 Tamas Bolner
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package CRTerm;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+
+/**
+ * Records the screen changes of a Terminal into an append-only, memory-mapped file, which can be
+ * replayed with a SessionPlayer. Each record is a timestamp and a ScreenEncoder message: the changed
+ * spans of the screen, and every snapshotInterval-th record a full snapshot. The offsets of the
+ * snapshots are written to an index at the end of the file when the recorder is closed, so the player
+ * can seek without reading the records before the target.
+ *
+ * File layout (big-endian):
+ *      Header (HEADER_SIZE bytes): magic, version, columns, rows, chunk size, start time (epoch ms),
+ *          end of the records, offset of the index, record count, index entry count.
+ *      Records: long time (ns since the first record), then the message (int length, ...).
+ *          A record never crosses a chunk boundary. The rest of a chunk is skipped after
+ *          a long SKIP_MARKER, or if it's shorter than 8 bytes.
+ *      Index: long time, long offset - for each snapshot.
+ *
+ * The end of the records is updated in the header after each record, so the recording
+ * stays readable if the process dies; the player rebuilds the index by scanning it then.
+ *
+ * Usage: terminal.setRecorder(new SessionRecorder(path, columns, rows)), and close the recorder at the end.
+ */
+public class SessionRecorder {
+    static final long MAGIC = 0x4352545245433031L;  // "CRTREC01"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 64;
+    static final long SKIP_MARKER = -1;
+
+    static final int HEADER_COLUMNS = 12;
+    static final int HEADER_ROWS = 14;
+    static final int HEADER_CHUNK_SIZE = 16;
+    static final int HEADER_START = 24;
+    static final int HEADER_DATA_END = 32;
+    static final int HEADER_INDEX_OFFSET = 40;
+    static final int HEADER_RECORD_COUNT = 48;
+    static final int HEADER_INDEX_COUNT = 56;
+
+    /**
+     * The file is mapped in chunks of this size, since a single mapping is limited to 2 GB.
+     */
+    static final int DEFAULT_CHUNK_SIZE = 64 * 1024 * 1024;
+
+    private FileChannel channel;
+    private MappedByteBuffer header;
+    private MappedByteBuffer chunk;
+    private long chunkStart;
+    private int chunkSize;
+    private long position = HEADER_SIZE;
+    private ScreenEncoder encoder;
+    private long startTime = -1;
+    private long lastTime = 0;
+    private long recordCount = 0;
+    private long[] indexTimes = new long[64];
+    private long[] indexOffsets = new long[64];
+    private int indexCount = 0;
+
+    /**
+     * Create (or overwrite) a recording.
+     *
+     * @param file Target file.
+     * @param columns Horizontal character count.
+     * @param rows Vertical character count.
+     * @param snapshotInterval Every this many records is a full snapshot. Lower values make seeking faster, and the file larger.
+     * @throws Exception File errors.
+     */
+    public SessionRecorder(Path file, int columns, int rows, int snapshotInterval) throws Exception {
+        this(file, columns, rows, snapshotInterval, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * @param chunkSize Size of the mapped regions. Small values are for testing the chunk boundaries.
+     */
+    SessionRecorder(Path file, int columns, int rows, int snapshotInterval, int chunkSize) throws Exception {
+        this.encoder = new ScreenEncoder(columns, rows, snapshotInterval);
+        this.chunkSize = chunkSize;
+
+        try {
+            this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+            this.mapChunk(0);
+            this.header = this.chunk;
+        } catch (IOException ex) {
+            this.close();
+            throw new Exception("Unable to create the recording '" + file + "': " + ex.getMessage());
+        }
+
+        this.header.putLong(0, MAGIC);
+        this.header.putInt(8, VERSION);
+        this.header.putShort(HEADER_COLUMNS, (short)columns);
+        this.header.putShort(HEADER_ROWS, (short)rows);
+        this.header.putInt(HEADER_CHUNK_SIZE, this.chunkSize);
+        this.header.putLong(HEADER_START, System.currentTimeMillis());
+        this.header.putLong(HEADER_DATA_END, this.position);
+        this.header.putLong(HEADER_INDEX_OFFSET, 0);
+    }
+
+    /**
+     * Create (or overwrite) a recording, with a snapshot every 600 records.
+     *
+     * @param file Target file.
+     * @param columns Horizontal character count.
+     * @param rows Vertical character count.
+     * @throws Exception File errors.
+     */
+    public SessionRecorder(Path file, int columns, int rows) throws Exception {
+        this(file, columns, rows, 600);
+    }
+
+    /**
+     * Append the changes of a screen.
+     *
+     * @param screen columns * rows characters, starting at the top-left corner.
+     * @param time Time of the change in nanoseconds, from a monotonic clock. (For example System.nanoTime())
+     * @throws Exception File errors, or if the recorder is closed.
+     */
+    public void record(char[] screen, long time) throws Exception {
+        if (this.channel == null) {
+            throw new Exception("record() was called on a closed SessionRecorder.");
+        }
+
+        if (this.startTime < 0) {
+            this.startTime = time;
+        }
+
+        ByteBuffer message = this.encoder.encode(screen);
+        int size = 8 + message.remaining();
+
+        if (size > this.chunkSize) {
+            throw new Exception("Screen record larger than a chunk. (SessionRecorder)");
+        }
+
+        try {
+            if (this.position + size > this.chunkStart + this.chunkSize) {
+                if (this.chunkStart + this.chunkSize - this.position >= 8) {
+                    this.chunk.putLong((int)(this.position - this.chunkStart), SKIP_MARKER);
+                }
+
+                this.mapChunk(this.chunkStart + this.chunkSize);
+                this.position = this.chunkStart;
+            }
+        } catch (IOException ex) {
+            throw new Exception("Unable to extend the recording: " + ex.getMessage());
+        }
+
+        /*
+            The times are kept increasing, so the player can use binary search.
+         */
+        this.lastTime = Math.max(this.lastTime, time - this.startTime);
+
+        if (message.get(4) == ScreenEncoder.TYPE_KEYFRAME) {
+            this.addIndexEntry(this.lastTime, this.position);
+        }
+
+        int offset = (int)(this.position - this.chunkStart);
+        this.chunk.putLong(offset, this.lastTime);
+        ByteBuffer target = this.chunk.duplicate();
+        target.position(offset + 8);
+        target.put(message);
+
+        this.position += size;
+        this.recordCount++;
+        this.header.putLong(HEADER_DATA_END, this.position);
+        this.header.putLong(HEADER_RECORD_COUNT, this.recordCount);
+    }
+
+    /**
+     * Append the changes of a screen, with the current time.
+     *
+     * @param screen columns * rows characters, starting at the top-left corner.
+     * @throws Exception File errors, or if the recorder is closed.
+     */
+    public void record(char[] screen) throws Exception {
+        this.record(screen, System.nanoTime());
+    }
+
+    private void mapChunk(long start) throws IOException {
+        this.chunkStart = start;
+        this.chunk = this.channel.map(FileChannel.MapMode.READ_WRITE, start, this.chunkSize);
+    }
+
+    private void addIndexEntry(long time, long offset) {
+        if (this.indexCount == this.indexTimes.length) {
+            this.indexTimes = Arrays.copyOf(this.indexTimes, this.indexCount * 2);
+            this.indexOffsets = Arrays.copyOf(this.indexOffsets, this.indexCount * 2);
+        }
+
+        this.indexTimes[this.indexCount] = time;
+        this.indexOffsets[this.indexCount] = offset;
+        this.indexCount++;
+    }
+
+    /**
+     * Write the index, and close the file.
+     *
+     * @throws Exception File errors.
+     */
+    public void close() throws Exception {
+        if (this.channel == null) {
+            return;
+        }
+
+        try {
+            if (this.header != null) {
+                ByteBuffer index = ByteBuffer.allocate(this.indexCount * 16);
+
+                for (int i = 0; i < this.indexCount; i++) {
+                    index.putLong(this.indexTimes[i]);
+                    index.putLong(this.indexOffsets[i]);
+                }
+
+                index.flip();
+                long indexOffset = this.position;
+
+                while (index.hasRemaining()) {
+                    this.channel.write(index, indexOffset + index.position());
+                }
+
+                this.header.putInt(HEADER_INDEX_COUNT, this.indexCount);
+                this.header.putLong(HEADER_INDEX_OFFSET, indexOffset);
+                this.header.force();
+
+                /*
+                    Cut the unused part of the last chunk. Not possible on some systems while
+                    the file is mapped; the header tells where the data ends anyway.
+                 */
+                try {
+                    this.channel.truncate(indexOffset + this.indexCount * 16);
+                } catch (IOException ex) {
+                    // The file stays longer.
+                }
+            }
+        } catch (IOException ex) {
+            throw new Exception("Unable to finish the recording: " + ex.getMessage());
+        } finally {
+            this.header = null;
+            this.chunk = null;
+
+            try {
+                this.channel.close();
+            } catch (IOException ex) {
+                // Ignored
+            }
+
+            this.channel = null;
+        }
+    }
+
+    /**
+     * @return The number of recorded screens.
+     */
+    public long getRecordCount() {
+        return this.recordCount;
+    }
+
+    /**
+     * @return The size of the records in bytes, including the header.
+     */
+    public long getBytesWritten() {
+        return this.position;
+    }
+
+    /**
+     * @return The number of full snapshots.
+     */
+    public int getSnapshotCount() {
+        return this.indexCount;
+    }
+}
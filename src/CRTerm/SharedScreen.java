@@ -0,0 +1,288 @@
+/*
+Copyright 2017 Tamas Bolner
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package CRTerm;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+
+/**
+ * The character grid of a Terminal in a memory-mapped file, written by other processes with
+ * a SharedScreenWriter (or any program following the layout), and read by the Terminal at the
+ * start of each frame. Use a file in /dev/shm on Linux to keep it in memory only.
+ *
+ * The consistency is ensured by a sequence lock: the writer makes the sequence odd before it
+ * changes anything, and even again after it. The reader copies the changed rows into a scratch
+ * buffer, and retries if the sequence was odd or has changed meanwhile. The rows reach the
+ * caller's array only from a validated snapshot. Only one writer is allowed at a time.
+ *
+ * Layout (native byte order, all fields aligned):
+ *      0   long    Magic ("CRTSHM01")
+ *      8   int     Version
+ *      12  short   Columns
+ *      14  short   Rows
+ *      16  long    Sequence. Odd while a write is in progress.
+ *      64  long[rows]              The sequence after the last change of each row.
+ *      ... char[columns * rows]    The characters, starting at the top-left corner.
+ */
+public class SharedScreen {
+    static final long MAGIC = 0x43525453484d3031L;  // "CRTSHM01"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 64;
+    static final int SEQUENCE = 16;
+
+    /**
+     * A reader gives up after this many failed attempts in a frame, and tries again in the next one.
+     */
+    private static final int MAX_ATTEMPTS = 16;
+
+    static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private CharBuffer characters;
+    private char[] scratch;
+    private int[] changedRows;
+    private int columns;
+    private int rows;
+    private long lastSequence = 0;
+    private int firstDirtyRow = -1;
+    private int lastDirtyRow = -1;
+    private long snapshots = 0;
+    private long retries = 0;
+    private long failures = 0;
+
+    /**
+     * Open the shared screen, or create it if it doesn't exist.
+     *
+     * @param file For example /dev/shm/crterm
+     * @param columns Horizontal character count. Has to match the existing file.
+     * @param rows Vertical character count. Has to match the existing file.
+     * @throws Exception File errors, or a size mismatch.
+     */
+    public SharedScreen(Path file, int columns, int rows) throws Exception {
+        this.columns = columns;
+        this.rows = rows;
+        this.scratch = new char[columns * rows];
+        this.changedRows = new int[rows];
+
+        try {
+            this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.buffer = map(this.channel, columns, rows);
+            this.buffer.position(charactersOffset(rows));
+            this.characters = this.buffer.slice().order(ByteOrder.nativeOrder()).asCharBuffer();
+            this.buffer.position(0);
+        } catch (IOException ex) {
+            this.close();
+            throw new Exception("Unable to open the shared screen '" + file + "': " + ex.getMessage());
+        } catch (Exception ex) {
+            this.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Map a shared screen file. Initializes it if it's empty.
+     */
+    static MappedByteBuffer map(FileChannel channel, int columns, int rows) throws Exception {
+        boolean created = channel.size() == 0;
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size(columns, rows));
+        buffer.order(ByteOrder.nativeOrder());
+
+        if (created) {
+            int offset = charactersOffset(rows);
+
+            for (int i = 0; i < columns * rows; i++) {
+                buffer.putChar(offset + i * 2, ' ');
+            }
+
+            buffer.putInt(8, VERSION);
+            buffer.putShort(12, (short)columns);
+            buffer.putShort(14, (short)rows);
+            buffer.putLong(SEQUENCE, 2);
+
+            for (int row = 0; row < rows; row++) {
+                buffer.putLong(HEADER_SIZE + row * 8, 2);
+            }
+
+            /*
+                The magic is written last; a reader never sees a half-initialized file.
+             */
+            VarHandle.releaseFence();
+            buffer.putLong(0, MAGIC);
+        } else if (buffer.getLong(0) != MAGIC || buffer.getInt(8) != VERSION) {
+            throw new Exception("Not a CRTerm shared screen, or a different version.");
+        } else if ((buffer.getShort(12) & 0xffff) != columns || (buffer.getShort(14) & 0xffff) != rows) {
+            throw new Exception("The size of the shared screen is " + (buffer.getShort(12) & 0xffff) + "x"
+                    + (buffer.getShort(14) & 0xffff) + ", not " + columns + "x" + rows + ".");
+        }
+
+        return buffer;
+    }
+
+    static long size(int columns, int rows) {
+        return charactersOffset(rows) + (long)columns * rows * 2;
+    }
+
+    static int charactersOffset(int rows) {
+        return HEADER_SIZE + rows * 8;
+    }
+
+    /**
+     * Copy the rows, which were changed since the last call, into the given array.
+     * The changed rows are available through getFirstDirtyRow() and getLastDirtyRow().
+     *
+     * @param target columns * rows characters, starting at the top-left corner.
+     * @return True if a consistent snapshot with changes was copied. False if nothing has changed, or the writer
+     *      was busy all the time. (The rows are copied again in the next call then.)
+     */
+    public boolean readChanges(char[] target) {
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            long sequence = (long)LONGS.getAcquire(this.buffer, SEQUENCE);
+
+            if (sequence == this.lastSequence) {
+                return false;
+            }
+
+            if ((sequence & 1) != 0) {
+                this.retries++;
+                Thread.onSpinWait();
+                continue;
+            }
+
+            int changed = 0;
+
+            for (int row = 0; row < this.rows; row++) {
+                if (this.buffer.getLong(HEADER_SIZE + row * 8) > this.lastSequence) {
+                    this.characters.position(row * this.columns);
+                    this.characters.get(this.scratch, row * this.columns, this.columns);
+                    this.changedRows[changed++] = row;
+                }
+            }
+
+            VarHandle.acquireFence();
+
+            if ((long)LONGS.getOpaque(this.buffer, SEQUENCE) != sequence) {
+                this.retries++;
+                continue;
+            }
+
+            /*
+                Validated: only now the rows go into the caller's array, so a torn row never gets there.
+             */
+            for (int i = 0; i < changed; i++) {
+                int offset = this.changedRows[i] * this.columns;
+                System.arraycopy(this.scratch, offset, target, offset, this.columns);
+            }
+
+            this.lastSequence = sequence;
+            this.firstDirtyRow = changed > 0 ? this.changedRows[0] : -1;
+            this.lastDirtyRow = changed > 0 ? this.changedRows[changed - 1] : -1;
+            this.snapshots++;
+
+            return changed > 0;
+        }
+
+        this.failures++;
+        return false;
+    }
+
+    /**
+     * Copy all characters into the given array, regardless of the changes.
+     *
+     * @param target columns * rows characters, starting at the top-left corner.
+     * @return False if the writer was busy all the time.
+     */
+    public boolean readAll(char[] target) {
+        this.lastSequence = 0;
+
+        return this.readChanges(target);
+    }
+
+    /**
+     * @return The first row changed by the last successful readChanges().
+     */
+    public int getFirstDirtyRow() {
+        return this.firstDirtyRow;
+    }
+
+    /**
+     * @return The last row changed by the last successful readChanges().
+     */
+    public int getLastDirtyRow() {
+        return this.lastDirtyRow;
+    }
+
+    public int getColumns() {
+        return this.columns;
+    }
+
+    public int getRows() {
+        return this.rows;
+    }
+
+    /**
+     * @return The sequence of the last snapshot.
+     */
+    public long getSequence() {
+        return this.lastSequence;
+    }
+
+    /**
+     * @return The number of consistent snapshots read.
+     */
+    public long getSnapshots() {
+        return this.snapshots;
+    }
+
+    /**
+     * @return The number of attempts repeated because of a concurrent write.
+     */
+    public long getRetries() {
+        return this.retries;
+    }
+
+    /**
+     * @return The number of calls, which gave up because of the writer.
+     */
+    public long getFailures() {
+        return this.failures;
+    }
+
+    /**
+     * Unmap and close the file. The file isn't deleted.
+     */
+    public void close() {
+        this.buffer = null;
+        this.characters = null;
+
+        try {
+            if (this.channel != null) {
+                this.channel.close();
+            }
+        } catch (IOException ex) {
+            // Ignored
+        }
+    }
+}
@@ -0,0 +1,251 @@
+/*
+Copyright 2017 Tamas Bolner
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package CRTerm;
+
+import java.io.IOException;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+
+/**
+ * The producer side of a SharedScreen. Needs only this class and SharedScreen, no OpenGL.
+ * The changes between begin() and commit() become visible to the Terminal together:
+ *
+ *      writer.begin();
+ *      writer.scrollUp(1);
+ *      writer.put(0, writer.getRows() - 1, line);
+ *      writer.commit();
+ *
+ * Only one writer may be active at a time. Not thread-safe.
+ */
+public class SharedScreenWriter {
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int columns;
+    private int rows;
+    private int charactersOffset;
+    private long sequence;
+    private boolean writing = false;
+
+    /**
+     * Open an existing shared screen.
+     *
+     * @param file The file of the SharedScreen.
+     * @throws Exception File errors, or if it isn't a shared screen.
+     */
+    public SharedScreenWriter(Path file) throws Exception {
+        try {
+            this.channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            ByteBuffer header = ByteBuffer.allocate(SharedScreen.HEADER_SIZE).order(ByteOrder.nativeOrder());
+
+            while (header.hasRemaining()) {
+                if (this.channel.read(header, header.position()) < 0) {
+                    throw new Exception("Not a CRTerm shared screen: " + file);
+                }
+            }
+
+            this.open(header.getShort(12) & 0xffff, header.getShort(14) & 0xffff);
+        } catch (IOException ex) {
+            this.close();
+            throw new Exception("Unable to open the shared screen '" + file + "': " + ex.getMessage());
+        } catch (Exception ex) {
+            this.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Open a shared screen, or create it if it doesn't exist.
+     *
+     * @param file For example /dev/shm/crterm
+     * @param columns Horizontal character count. Has to match the existing file.
+     * @param rows Vertical character count. Has to match the existing file.
+     * @throws Exception File errors, or a size mismatch.
+     */
+    public SharedScreenWriter(Path file, int columns, int rows) throws Exception {
+        try {
+            this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.open(columns, rows);
+        } catch (IOException ex) {
+            this.close();
+            throw new Exception("Unable to open the shared screen '" + file + "': " + ex.getMessage());
+        } catch (Exception ex) {
+            this.close();
+            throw ex;
+        }
+    }
+
+    private void open(int columns, int rows) throws Exception {
+        this.columns = columns;
+        this.rows = rows;
+        this.buffer = SharedScreen.map(this.channel, columns, rows);
+        this.charactersOffset = SharedScreen.charactersOffset(rows);
+
+        /*
+            A writer which died during a write left an odd sequence behind.
+         */
+        this.sequence = ((long)SharedScreen.LONGS.getVolatile(this.buffer, SharedScreen.SEQUENCE) + 1) & ~1L;
+    }
+
+    /**
+     * Start a batch of changes. The readers wait (or keep the previous screen) until commit().
+     */
+    public void begin() {
+        if (this.writing) {
+            return;
+        }
+
+        this.writing = true;
+        SharedScreen.LONGS.setOpaque(this.buffer, SharedScreen.SEQUENCE, this.sequence + 1);
+        VarHandle.releaseFence();
+    }
+
+    /**
+     * Publish the changes since begin().
+     */
+    public void commit() {
+        if (!this.writing) {
+            return;
+        }
+
+        this.sequence += 2;
+        this.writing = false;
+        SharedScreen.LONGS.setRelease(this.buffer, SharedScreen.SEQUENCE, this.sequence);
+    }
+
+    /**
+     * Write characters, continuing in the next rows if needed. Starts a batch if there is none; call commit() after it.
+     *
+     * @param x Starting position X-coordinate. The top-left corner is (0, 0).
+     * @param y Starting position Y-coordinate.
+     * @param characters The characters.
+     */
+    public void put(int x, int y, char[] characters) {
+        this.begin();
+
+        int start = y * this.columns + x;
+        int end = Math.min(start + characters.length, this.columns * this.rows);
+
+        for (int i = start; i < end; i++) {
+            this.buffer.putChar(this.charactersOffset + i * 2, characters[i - start]);
+        }
+
+        this.markRows(y, (end - 1) / this.columns);
+    }
+
+    /**
+     * Write the same character count times. Starts a batch if there is none; call commit() after it.
+     *
+     * @param x Starting position X-coordinate.
+     * @param y Starting position Y-coordinate.
+     * @param count Number of characters.
+     * @param c The character.
+     */
+    public void fill(int x, int y, int count, char c) {
+        this.begin();
+
+        int start = y * this.columns + x;
+        int end = Math.min(start + count, this.columns * this.rows);
+
+        for (int i = start; i < end; i++) {
+            this.buffer.putChar(this.charactersOffset + i * 2, c);
+        }
+
+        this.markRows(y, (end - 1) / this.columns);
+    }
+
+    /**
+     * Shift the rows up, and blank the new rows at the bottom. Starts a batch if there is none; call commit() after it.
+     *
+     * @param lines Number of rows.
+     */
+    public void scrollUp(int lines) {
+        this.begin();
+
+        lines = Math.min(lines, this.rows);
+        int moved = (this.rows - lines) * this.columns;
+        int distance = lines * this.columns;
+
+        for (int i = 0; i < moved; i++) {
+            this.buffer.putChar(this.charactersOffset + i * 2, this.buffer.getChar(this.charactersOffset + (i + distance) * 2));
+        }
+
+        this.fill(0, this.rows - lines, distance, ' ');
+        this.markRows(0, this.rows - 1);
+    }
+
+    /**
+     * Write characters as a single change. (begin, put, commit)
+     *
+     * @param x Starting position X-coordinate.
+     * @param y Starting position Y-coordinate.
+     * @param characters The characters.
+     */
+    public void write(int x, int y, char[] characters) {
+        this.begin();
+        this.put(x, y, characters);
+        this.commit();
+    }
+
+    /**
+     * The readers copy only the rows changed since their last snapshot.
+     */
+    private void markRows(int first, int last) {
+        for (int row = first; row <= last; row++) {
+            this.buffer.putLong(SharedScreen.HEADER_SIZE + row * 8, this.sequence + 2);
+        }
+    }
+
+    public int getColumns() {
+        return this.columns;
+    }
+
+    public int getRows() {
+        return this.rows;
+    }
+
+    /**
+     * @return The sequence of the last commit.
+     */
+    public long getSequence() {
+        return this.sequence;
+    }
+
+    /**
+     * Commit the pending changes, and close the file.
+     */
+    public void close() {
+        if (this.buffer != null) {
+            this.commit();
+        }
+
+        this.buffer = null;
+
+        try {
+            if (this.channel != null) {
+                this.channel.close();
+            }
+        } catch (IOException ex) {
+            // Ignored
+        }
+    }
+}
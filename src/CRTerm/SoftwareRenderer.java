@@ -0,0 +1,525 @@
+/*
+Copyright 2017 Tamas Bolner
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package CRTerm;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+
+/**
+ * Renders the terminal on the CPU, without OpenGL. It produces the text, the phosphor fade,
+ * the bloom and the screen curvature of the Terminal class into an int[] framebuffer.
+ * The frame is split into horizontal tiles, which are processed by a fork/join pool.
+ */
+public class SoftwareRenderer {
+    private static final int TILE_ROWS = 16;
+    private static final float[] GAUSS = {
+            0.0957645635f, 0.093045881f, 0.0853442192f, 0.0738985137f, 0.0604062584f, 0.0466136173f, 0.0339569218f, 0.0233522354f,
+            0.0151604902f, 0.0092914323f, 0.0053757211f, 0.002936131f, 0.0015139055f, 0.0007368969f, 0.0003386097f, 0.0001468847f
+    };
+    private static final int RADIUS = GAUSS.length - 1;
+
+    private int columns;
+    private int rows;
+    private double verticalCurvature;
+    private double horizontalCurvature;
+    private double zoom = 1d;
+    private boolean remap = false;
+    private Characters characters;
+    private float[][] atlas = new float[3][];
+    private ForkJoinPool pool;
+
+    private int width = 0;
+    private int height = 0;
+    private BufferedImage image;
+    private int[] frameBuffer;
+    private int[] cellIndex;        // Index of the character under each pixel. -1 = outside of the grid.
+    private float[] glyphX;         // Atlas position inside the glyph cell, for each pixel.
+    private float[] glyphY;
+    private float[] line;           // Vertical position in rows, counted from the top, for the scanline.
+    private float[][] history = new float[3][];
+    private float[][] blur = new float[3][];
+    private ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(Scratch::new);
+
+    private Phosphor phosphor;
+
+    /**
+     * Create a software renderer.
+     *
+     * @param columns Horizontal character count.
+     * @param rows Vertical character count.
+     * @param color RGB font color. Example: 0x70fe80
+     * @param scanLineBreadth The CRT screen is constructed of vertical scan lines. This parameter tells their breadth or thickness. 1 = no spaces in between. Example value: 0.7d
+     * @param fontThickness This parameter tells how much should the scan lines overreach the pixels of the characters. 0 = stay inside the pixels. Example value: 0.25d
+     * @param verticalCurvature Vertical curvature of the CRT screen.
+     * @param horizontalCurvature Horizontal curvature of the CRT screen.
+     * @param threads Number of worker threads. 0 = number of available processors.
+     */
+    public SoftwareRenderer(int columns, int rows, int color, double scanLineBreadth, double fontThickness, double verticalCurvature, double horizontalCurvature, int threads) {
+        this.columns = columns;
+        this.rows = rows;
+        this.verticalCurvature = verticalCurvature;
+        this.horizontalCurvature = horizontalCurvature;
+        this.characters = new Characters(columns, rows);
+        this.phosphor = new Phosphor(rows);
+        this.pool = new ForkJoinPool(threads > 0 ? threads : Runtime.getRuntime().availableProcessors());
+
+        /*
+            Split the atlas into float planes, for the sampling.
+         */
+        int[] pixels = new FontAtlas(Kaypro_II_font.get(), color, scanLineBreadth, fontThickness).getPixels();
+
+        for (int c = 0; c < 3; c++) {
+            int shift = 16 - c * 8;
+            float[] plane = new float[pixels.length];
+
+            for (int i = 0; i < pixels.length; i++) {
+                plane[i] = ((pixels[i] >> shift) & 0xff) / 255f;
+            }
+
+            this.atlas[c] = plane;
+        }
+    }
+
+    /**
+     * Stop the worker threads.
+     */
+    public void close() {
+        this.pool.shutdown();
+    }
+
+    /**
+     * Render a frame.
+     *
+     * @param width Width of the output in pixels.
+     * @param height Height of the output in pixels.
+     * @return The framebuffer in RGB format (0xRRGGBB), row by row, starting at the top-left corner. The same array is reused for the next frames of the same size.
+     */
+    public int[] renderFrame(int width, int height) {
+        return this.renderFrame(width, height, System.nanoTime());
+    }
+
+    /**
+     * Render a frame at the given time. The fade-out and the scanline are moved according to the
+     * time elapsed since the previous frame.
+     *
+     * @param width Width of the output in pixels.
+     * @param height Height of the output in pixels.
+     * @param time Time of the frame in nanoseconds, from a monotonic clock. (For example System.nanoTime())
+     * @return The framebuffer in RGB format (0xRRGGBB), row by row, starting at the top-left corner. The same array is reused for the next frames of the same size.
+     */
+    public int[] renderFrame(int width, int height, long time) {
+        if (width != this.width || height != this.height) {
+            this.resize(width, height);
+        } else if (this.remap) {
+            this.forEachTile(this::mapPixels);
+        }
+
+        this.remap = false;
+        this.phosphor.advance(time);
+
+        this.forEachTile(this::textPass);
+        this.forEachTile(this::horizontalBlurPass);
+        this.forEachTile(this::verticalBlurPass);
+
+        return this.frameBuffer;
+    }
+
+    /**
+     * Change the curvature of the screen. The pixel mapping is recalculated at the next frame.
+     *
+     * @param verticalCurvature Vertical curvature of the CRT screen.
+     * @param horizontalCurvature Horizontal curvature of the CRT screen.
+     */
+    public void setCurvature(double verticalCurvature, double horizontalCurvature) {
+        this.verticalCurvature = verticalCurvature;
+        this.horizontalCurvature = horizontalCurvature;
+        this.remap = true;
+        this.phosphor.markChanged();
+    }
+
+    /**
+     * Magnify the screen around its center. The pixel mapping is recalculated at the next frame.
+     *
+     * @param zoom 1 = default size.
+     */
+    public void setZoom(double zoom) {
+        this.zoom = zoom;
+        this.remap = true;
+        this.phosphor.markChanged();
+    }
+
+    /**
+     * @return The fade-out and scanline settings. Tells also if the fade-out has converged, so the rendering can be paused.
+     */
+    public Phosphor getPhosphor() {
+        return this.phosphor;
+    }
+
+    /**
+     * @return The framebuffer of the last frame.
+     */
+    public int[] getFrameBuffer() {
+        return this.frameBuffer;
+    }
+
+    /**
+     * @return An image which shares its memory with the framebuffer. Can be drawn on an AWT/Swing
+     *          component or written out with ImageIO. A new instance is created after size changes.
+     */
+    public BufferedImage getImage() {
+        return this.image;
+    }
+
+    /**
+     * @return Returns a reference for the internal character array, which can be used to directly manipulate the character data.
+     *          (Direct changes are not noticed by Phosphor.isConverged().)
+     */
+    public char[] getCharacterArray() {
+        return this.characters.getArray();
+    }
+
+    /**
+     * Update the characters of the terminal. The size of the given array can be arbitrary.
+     *
+     * @param characters Starting at the top-left corner.
+     */
+    public void setCharacters(char[] characters) {
+        this.characters.setCharacters(characters);
+        this.phosphor.markChanged();
+    }
+
+    /**
+     * Update a character region of the terminal.
+     *
+     * @param x Starting position X-coordinate. The top-left corner is (0, 0).
+     * @param y Starting position Y-coordinate. The top-left corner is (0, 0).
+     * @param characters Start writing these characters out, starting from the given (x, y) coordinates.
+     */
+    public void setCharacters(int x, int y, char[] characters) {
+        this.characters.setCharacters(x, y, characters);
+        this.phosphor.markChanged();
+    }
+
+    /**
+     * Scrolls the text upwards and leaves an empty line on the bottom.
+     */
+    public void scrollUp() {
+        this.characters.scrollUp();
+        this.phosphor.markChanged();
+    }
+
+    /**
+     * Rotates the text upwards. The first line becomes the last.
+     */
+    public void rotateUp() {
+        this.characters.rotateUp();
+        this.phosphor.markChanged();
+    }
+
+    /**
+     * Reallocate the buffers and recalculate the curvature mapping.
+     *
+     * @param width Width of the output in pixels.
+     * @param height Height of the output in pixels.
+     */
+    private void resize(int width, int height) {
+        int size = width * height;
+
+        this.width = width;
+        this.height = height;
+        this.image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        this.frameBuffer = ((DataBufferInt)this.image.getRaster().getDataBuffer()).getData();
+        this.cellIndex = new int[size];
+        this.glyphX = new float[size];
+        this.glyphY = new float[size];
+        this.line = new float[size];
+
+        for (int c = 0; c < 3; c++) {
+            this.history[c] = new float[size];
+            this.blur[c] = new float[size];
+        }
+
+        this.forEachTile(this::mapPixels);
+        this.phosphor.markChanged();
+    }
+
+    /**
+     * Calculates which point of the character grid is visible through each pixel.
+     * This is the inverse of the projection done by Grid.setupProjection(), and of the
+     * curvature and zoom applied by grid_vertex_shader.vert. The depth of the point depends on
+     * its position, so the position is found by a fixed-point iteration.
+     */
+    private void mapPixels(int fromRow, int toRow) {
+        double ratio = (double)this.height / (double)this.width;
+        double magnify = ratio < 1 ? ratio * 1.3d : 1d;
+        double scaleX = 20d / (1.2d * magnify);
+        double scaleY = scaleX * ratio;
+        double sizeX = 400d / this.columns;
+        double sizeY = 300d / this.rows;
+        double gx, gy, gz, ndcX, ndcY;
+        int col, row, p;
+
+        for (int y = fromRow; y < toRow; y++) {
+            ndcY = ((this.height - y - 0.5d) * 2d / this.height - 1d) / this.zoom;
+
+            for (int x = 0; x < this.width; x++) {
+                ndcX = ((x + 0.5d) * 2d / this.width - 1d) / this.zoom;
+                p = y * this.width + x;
+
+                gx = 200d + ndcX * scaleX * 14d;
+                gy = 150d + ndcY * scaleY * 14d;
+
+                for (int i = 0; i < 4; i++) {
+                    gz = Math.sin(gx * Math.PI / 400d) * this.horizontalCurvature + Math.sin(gy * Math.PI / 300d) * this.verticalCurvature;
+                    gx = 200d + ndcX * scaleX * (14d - gz);
+                    gy = 150d + ndcY * scaleY * (14d - gz);
+                }
+
+                if (gx < 0 || gy < 0 || gx >= 400d || gy >= 300d) {
+                    this.cellIndex[p] = -1;
+                    continue;
+                }
+
+                col = (int)(gx / sizeX);
+                row = this.rows - 1 - (int)(gy / sizeY);     // Counted from the top
+                double u = gx / sizeX - (int)(gx / sizeX);
+                double v = 1d - (gy / sizeY - (int)(gy / sizeY));
+
+                this.cellIndex[p] = row * this.columns + col;
+                this.glyphX[p] = (float)(16d + u * 48d - 0.5d);
+                this.glyphY[p] = (float)(v * 64d - 0.5d);
+                this.line[p] = (float)(row + 1 + v);
+            }
+        }
+    }
+
+    /**
+     * Draws the characters and applies the fade-out on the history buffer.
+     */
+    private void textPass(int fromRow, int toRow) {
+        char[] chars = this.characters.getArray();
+        float[] red = this.history[0];
+        float[] green = this.history[1];
+        float[] blue = this.history[2];
+        float lineWidth = this.rows / 6f;
+        float scanline = this.phosphor.getScanlinePosition();
+        float attenuation = this.phosphor.getAttenuation();
+        int c, index, p;
+        float plus, line, x, y, fx, fy, w00, w10, w01, w11;
+        int ix, iy, a00, a10, a01, a11;
+
+        for (p = fromRow * this.width; p < toRow * this.width; p++) {
+            index = this.cellIndex[p];
+
+            if (index < 0) {
+                red[p] *= attenuation;
+                green[p] *= attenuation;
+                blue[p] *= attenuation;
+                continue;
+            }
+
+            /*
+                Scanline
+             */
+            line = this.line[p];
+            plus = 0;
+
+            if (scanline > this.rows - lineWidth && line < scanline + lineWidth - this.rows) {
+                plus = 0.04f;
+            }
+
+            if (line > scanline && line < scanline + lineWidth) {
+                plus = 0.04f;
+            }
+
+            /*
+                Bilinear sampling of the atlas
+             */
+            c = chars[index] & 127;
+            x = (c & 15) * 64 + this.glyphX[p] + plus * 128f;
+            y = (c >> 4) * 64 + this.glyphY[p];
+            x = Math.max(0, Math.min(x, FontAtlas.WIDTH - 1.001f));
+            y = Math.max(0, Math.min(y, FontAtlas.HEIGHT - 1.001f));
+            ix = (int)x;
+            iy = (int)y;
+            fx = x - ix;
+            fy = y - iy;
+            w00 = (1 - fx) * (1 - fy);
+            w10 = fx * (1 - fy);
+            w01 = (1 - fx) * fy;
+            w11 = fx * fy;
+            a00 = iy * FontAtlas.WIDTH + ix;
+            a10 = a00 + 1;
+            a01 = a00 + FontAtlas.WIDTH;
+            a11 = a01 + 1;
+
+            red[p] = Math.max(red[p] * attenuation, sample(this.atlas[0], a00, a10, a01, a11, w00, w10, w01, w11));
+            green[p] = Math.max(green[p] * attenuation, sample(this.atlas[1], a00, a10, a01, a11, w00, w10, w01, w11) + plus);
+            blue[p] = Math.max(blue[p] * attenuation, sample(this.atlas[2], a00, a10, a01, a11, w00, w10, w01, w11));
+        }
+    }
+
+    private static float sample(float[] plane, int a00, int a10, int a01, int a11, float w00, float w10, float w01, float w11) {
+        return plane[a00] * w00 + plane[a10] * w10 + plane[a01] * w01 + plane[a11] * w11;
+    }
+
+    /**
+     * Bloom 1: horizontal blur of the history buffer.
+     * The rows are copied into a padded buffer first, so the inner loops have no bounds checks
+     * and can be vectorized by the JIT compiler.
+     */
+    private void horizontalBlurPass(int fromRow, int toRow) {
+        float[] padded = this.getScratch().padded;
+        int w = this.width;
+
+        for (int c = 0; c < 3; c++) {
+            float[] src = this.history[c];
+            float[] dst = this.blur[c];
+
+            for (int y = fromRow; y < toRow; y++) {
+                int offset = y * w;
+
+                System.arraycopy(src, offset, padded, RADIUS, w);
+                for (int i = 0; i < RADIUS; i++) {
+                    padded[i] = src[offset];
+                    padded[RADIUS + w + i] = src[offset + w - 1];
+                }
+
+                float weight = GAUSS[0];
+                for (int x = 0; x < w; x++) {
+                    dst[offset + x] = padded[RADIUS + x] * weight;
+                }
+
+                for (int k = 1; k <= RADIUS; k++) {
+                    weight = GAUSS[k];
+                    int right = RADIUS + k;
+                    int left = RADIUS - k;
+
+                    for (int x = 0; x < w; x++) {
+                        dst[offset + x] += (padded[right + x] + padded[left + x]) * weight;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Bloom 2 and 3: vertical blur, then mixing the result with the history buffer
+     * into the framebuffer.
+     */
+    private void verticalBlurPass(int fromRow, int toRow) {
+        int w = this.width;
+        float[][] rowSum = this.getScratch().rowSum;
+
+        for (int y = fromRow; y < toRow; y++) {
+            int offset = y * w;
+
+            for (int c = 0; c < 3; c++) {
+                float[] src = this.blur[c];
+                float[] sum = rowSum[c];
+                float weight = GAUSS[0];
+
+                for (int x = 0; x < w; x++) {
+                    sum[x] = src[offset + x] * weight;
+                }
+
+                for (int k = 1; k <= RADIUS; k++) {
+                    weight = GAUSS[k];
+                    int below = Math.min(y + k, this.height - 1) * w;
+                    int above = Math.max(y - k, 0) * w;
+
+                    for (int x = 0; x < w; x++) {
+                        sum[x] += (src[below + x] + src[above + x]) * weight;
+                    }
+                }
+            }
+
+            for (int x = 0; x < w; x++) {
+                int p = offset + x;
+
+                this.frameBuffer[p] = toByte(Math.max(rowSum[0][x] * 0.8f, this.history[0][p])) << 16
+                        | toByte(Math.max(rowSum[1][x] * 0.8f, this.history[1][p])) << 8
+                        | toByte(Math.max(rowSum[2][x] * 0.8f, this.history[2][p]));
+            }
+        }
+    }
+
+    /**
+     * Row buffers of the blur passes of the current worker thread, for the current width.
+     */
+    private Scratch getScratch() {
+        Scratch scratch = this.scratch.get();
+
+        if (scratch.rowSum[0].length != this.width) {
+            scratch.padded = new float[this.width + RADIUS * 2];
+            scratch.rowSum = new float[3][this.width];
+        }
+
+        return scratch;
+    }
+
+    /**
+     * Per-thread buffers of the blur passes, so the frames don't allocate. Reallocated only after a resize.
+     */
+    private static class Scratch {
+        float[] padded = new float[0];
+        float[][] rowSum = new float[3][0];
+    }
+
+    private static int toByte(float value) {
+        return (int)(Math.min(value, 1f) * 255f + 0.5f);
+    }
+
+    private void forEachTile(RowTask task) {
+        this.pool.invoke(new Tiles(task, 0, this.height));
+    }
+
+    private interface RowTask {
+        void run(int fromRow, int toRow);
+    }
+
+    /**
+     * Splits a row range recursively until the tiles are small enough.
+     */
+    private static class Tiles extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private RowTask task;
+        private int fromRow;
+        private int toRow;
+
+        Tiles(RowTask task, int fromRow, int toRow) {
+            this.task = task;
+            this.fromRow = fromRow;
+            this.toRow = toRow;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.toRow - this.fromRow <= TILE_ROWS) {
+                this.task.run(this.fromRow, this.toRow);
+                return;
+            }
+
+            int middle = (this.fromRow + this.toRow) >>> 1;
+            invokeAll(new Tiles(this.task, this.fromRow, middle), new Tiles(this.task, middle, this.toRow));
+        }
+    }
+}
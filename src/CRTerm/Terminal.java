@@ -16,31 +16,82 @@ limitations under the License.
 
 package CRTerm;
 
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.lwjgl.glfw.*;
 import org.lwjgl.opengl.*;
 import static org.lwjgl.glfw.GLFW.*;
 
 
 public class Terminal {
+    private static final int DEFAULT_BLUR_TAPS = 16;
+
     private int columns;
     private int rows;
     private boolean glfwInitialized;
     private long windowID;
+    private GLState glState;
     private Pipeline fontPipeline;
+    private PipelineVariants fontVariants;
+    private boolean scanlineEnabled = true;
+    private int initialColumns;
+    private int initialRows;
     private Pipeline mixPipeline;
     private Grid grid;
     private Font font;
     private Characters characters;
-    private long lastFrameTime = System.nanoTime();
-    private PingPongBuffer pingPongBuffer;
+    private FrameScheduler frameScheduler;
+    private int refreshRate;
+    private RenderGraph renderGraph;
     private Pipeline bloomPipeline;
     private WindowSize windowSize;
-    private PingPongBuffer mixBuffer;
-    private int uniform_dimensions;
+    private Pipeline copyPipeline = null;
+    private Pipeline downsamplePipeline = null;
+    private Pipeline fadePipeline = null;
+    private int uniform_fadeBackgroundAttenuation = 0;
+    private boolean backgroundFading = true;
     private int uniform_scanlinePosition;
-    private float scanlinePosition = 0;
+    private Phosphor phosphor;
     private int uniform_gaussianDirection = 0;
     private int uniform_mixAttenuation = 0;
+    private int uniform_fadeAttenuation = 0;
+    private int uniform_compositeDirection = 0;
+    private int uniform_compositeAttenuation = 0;
+    private int uniform_fontColor = 0;
+    private Pipeline compositePipeline;
+    private PipelineVariants bloomVariants;
+    private PipelineVariants compositeVariants;
+    private int blurTaps = 0;
+    private boolean fusedPostProcessing = false;
+    private boolean bloomEnabled = true;
+    private boolean fadeEnabled = true;
+    private GpuTimer gpuTimer = null;
+    private TerminalMetrics metrics = new TerminalMetrics();
+    private Events.FramePhase phaseEvent = null;
+    private Hud hud = null;
+    private boolean hudVisible = false;
+    private MultisampleBuffer multisampleBuffer = null;
+    private double renderScale = 1d;
+    private int bloomDownsample = 0;
+    private int textSamples = 0;
+    private boolean targetsChanged = false;
+    private QualityGovernor qualityGovernor;
+    private boolean qualityGovernorEnabled = false;
+    private long governorMeasuredFrames = 0;
+    private SessionRecorder recorder = null;
+    private int color;
+    private SharedScreen sharedScreen = null;
+    private boolean recordPending = false;
+    private long startupStart = 0;
+    private FrameFences frameFences = null;
+    private long inputTime = 0;
+    private long frameInputTime = 0;
 
     /**
      * Initialize OpenGL, the resources, and go fullscreen.
@@ -55,120 +106,358 @@ public class Terminal {
      * @throws Exception Exceptions contain error texts.
      */
     public Terminal(int columns, int rows, int color, double scanLineBreadth, double fontThickness, double verticalCurvature, double horizontalCurvature) throws Exception {
+        this(columns, rows, color, scanLineBreadth, fontThickness, verticalCurvature, horizontalCurvature, 0, 0, true);
+    }
+
+    /**
+     * Initialize OpenGL, the resources, and open a window of the given size.
+     *
+     * @param columns Horizontal character count.
+     * @param rows Vertical character count.
+     * @param color RGB font color. Example: 0x70fe80
+     * @param scanLineBreadth The CRT screen is constructed of vertical scan lines. This parameter tells their breadth or thickness. 1 = no spaces in between. Example value: 0.7d
+     * @param fontThickness This parameter tells how much should the scan lines overreach the pixels of the characters. 0 = stay inside the pixels. Example value: 0.25d
+     * @param verticalCurvature Vertical curvature of the CRT screen.
+     * @param horizontalCurvature Horizontal curvature of the CRT screen.
+     * @param windowWidth Width of the window. 0 = fullscreen on the primary monitor.
+     * @param windowHeight Height of the window. 0 = fullscreen on the primary monitor.
+     * @param visible False to keep the window hidden. (For example for benchmarks.)
+     * @throws Exception Exceptions contain error texts.
+     */
+    public Terminal(int columns, int rows, int color, double scanLineBreadth, double fontThickness, double verticalCurvature, double horizontalCurvature, int windowWidth, int windowHeight, boolean visible) throws Exception {
+        this.startupStart = System.nanoTime();
+        long phaseStart = this.startupStart;
         this.columns = columns;
         this.rows = rows;
+        this.initialColumns = columns;
+        this.initialRows = rows;
+        this.phosphor = new Phosphor(rows);
         this.glfwInitialized = false;
         this.windowID = -1;
         this.fontPipeline = null;
         this.mixPipeline = null;
+        this.compositePipeline = null;
         this.grid = null;
         this.font = null;
         this.characters = null;
-        this.pingPongBuffer = null;
+        this.renderGraph = null;
         this.bloomPipeline = null;
         this.windowSize = null;
-        this.mixBuffer = null;
 
         if (columns * rows > 4096) {
             throw new Exception("The number of characters cannot be more than 4096. Please change the 'columns' or the 'rows' parameter.");
         }
 
+        /*
+            The CPU-only work runs in the background, while the window and the context are created
+            and the shaders are compiled. The pool shuts down after the two tasks.
+         */
+        ExecutorService startup = Executors.newFixedThreadPool(2, runnable -> {
+            Thread thread = new Thread(runnable, "CRTerm startup");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        Future<FontAtlas> atlas = startup.submit(this.timed("font atlas (background)",
+                () -> new FontAtlas(Kaypro_II_font.get(), scanLineBreadth, fontThickness)));
+        Future<Void> shaderSources = startup.submit(this.timed("shader sources (background)", () -> {
+            Pipeline.preload("grid_vertex_shader.vert", "character_fragment_shader.frag", "default_vertex_shader.vert",
+                    "mix_fragment_shader.frag", "gaussian_fragment_shader.frag", "bloom_composite_fragment_shader.frag",
+                    "copy_fragment_shader.frag", "downsample_fragment_shader.frag", "fade_fragment_shader.frag");
+            return null;
+        }));
+        startup.shutdown();
+
         if (!glfwInit()) {
             throw new Exception("Cannot init GLFW.");
         }
 
+        phaseStart = this.recordPhase("glfw init", phaseStart);
+
         /*
          * Create Window
          */
         long primaryMonitor = glfwGetPrimaryMonitor();
         GLFWVidMode mode = glfwGetVideoMode(primaryMonitor);
-        int width = mode.width();
-        int height = mode.height();
+        boolean fullscreen = windowWidth < 1 || windowHeight < 1;
+        int width = fullscreen ? mode.width() : windowWidth;
+        int height = fullscreen ? mode.height() : windowHeight;
+        this.refreshRate = mode.refreshRate();
+        this.qualityGovernor = new QualityGovernor(1000000000L / Math.max(this.refreshRate, 1));
         glfwWindowHint(GLFW_RESIZABLE, 1);
         glfwWindowHint(GLFW_STENCIL_BITS, 4);
-        glfwWindowHint(GLFW_SAMPLES, 4);
-        this.windowID = glfwCreateWindow(width, height, "Example OpenGL App", primaryMonitor, 0);
+        glfwWindowHint(GLFW_SAMPLES, 0);    // Only full-screen quads are drawn to the window. (See setTextSamples)
+        glfwWindowHint(GLFW_VISIBLE, visible ? 1 : 0);
+        glfwWindowHint(GLFW_OPENGL_DEBUG_CONTEXT, GLState.isDebugRequested() ? 1 : 0);
+        this.windowID = glfwCreateWindow(width, height, "Example OpenGL App", fullscreen ? primaryMonitor : 0, 0);
+        if (this.windowID == 0) {
+            throw new Exception("Cannot create window.");
+        }
+
         glfwMakeContextCurrent(this.windowID);
-        glfwShowWindow(this.windowID);
+        if (visible) {
+            glfwShowWindow(this.windowID);
+        }
         this.windowSize = new WindowSize(this.windowID);
+        phaseStart = this.recordPhase("window", phaseStart);
 
         /*
          * Initialize OpenGL
          */
-        GL.createCapabilities();
+        GLCapabilities capabilities = GL.createCapabilities();
         GL11.glEnable(GL13.GL_MULTISAMPLE);
+        this.glState = new GLState(GLState.isDebugRequested());
 
         /*
-            Create post-processing buffers
+            Let the driver compile on its own threads, so the startLink() calls below return early.
+            0xFFFFFFFF = as many threads as the implementation wants.
          */
-        this.pingPongBuffer = new PingPongBuffer(width, height);
-        this.mixBuffer = new PingPongBuffer(width, height);
+        if (capabilities.GL_KHR_parallel_shader_compile) {
+            KHRParallelShaderCompile.glMaxShaderCompilerThreadsKHR(0xFFFFFFFF);
+        } else if (capabilities.GL_ARB_parallel_shader_compile) {
+            ARBParallelShaderCompile.glMaxShaderCompilerThreadsARB(0xFFFFFFFF);
+        }
 
-        /*
-            Create font-rendering shader pipeline.
-         */
-        this.fontPipeline = new Pipeline();
-        this.fontPipeline.bindAttribLocation(0, "in_Position");
-        this.fontPipeline.bindAttribLocation(1, "in_TextureCoord");
-        this.fontPipeline.bindAttribLocation(2, "in_Number");
-        this.fontPipeline.addShader("grid_vertex_shader.vert",  GL20.GL_VERTEX_SHADER);
-        this.fontPipeline.addShader("character_fragment_shader.frag",  GL20.GL_FRAGMENT_SHADER);
-        this.fontPipeline.link();
+        this.frameScheduler = new FrameScheduler(FrameScheduler.Mode.VSYNC, this.refreshRate);
+        glfwSwapInterval(1);
+        this.frameFences = new FrameFences(this.metrics);
+        phaseStart = this.recordPhase("context", phaseStart);
 
-        this.uniform_dimensions = GL20.glGetUniformLocation(this.fontPipeline.getProgramID(), "dimensions");
-        this.uniform_scanlinePosition = GL20.glGetUniformLocation(this.fontPipeline.getProgramID(), "scanlinePosition");
+        await(shaderSources);
+        phaseStart = this.recordPhase("wait for shader sources", phaseStart);
 
         /*
-            Uniform buffer for the character data.
+            Create font-rendering shader pipeline. (Variants by grid size, scanline and fade)
+            The variants are only started, so the first one and the mix pipeline are compiled
+            together with the first bloom variants; their results are only checked after those.
          */
-        this.characters = new Characters(columns, rows, this.fontPipeline.getProgramID());
+        this.fontVariants = new PipelineVariants(this.glState, pipeline -> {
+            pipeline.bindAttribLocation(0, "in_Position");
+            pipeline.addShader("grid_vertex_shader.vert",  GL20.GL_VERTEX_SHADER);
+            pipeline.addShader("character_fragment_shader.frag",  GL20.GL_FRAGMENT_SHADER);
+            pipeline.startLink();
+        });
+
+        this.fontPipeline = this.fontVariants.get(this.getFontDefines(columns, rows));
 
         /*
-            Create bloom post-processing shader pipeline.
+            Create bloom post-processing shader pipeline. (Variants by blur size)
          */
-        this.bloomPipeline = new Pipeline();
-        this.bloomPipeline.bindAttribLocation(0, "in_Position");
-        this.bloomPipeline.bindAttribLocation(1, "in_TextureCoord");
-        this.bloomPipeline.addShader("default_vertex_shader.vert",  GL20.GL_VERTEX_SHADER);
-        this.bloomPipeline.addShader("gaussian_fragment_shader.frag",  GL20.GL_FRAGMENT_SHADER);
-        this.bloomPipeline.link();
-
-        this.uniform_gaussianDirection = GL20.glGetUniformLocation(this.bloomPipeline.getProgramID(), "in_direction");
+        this.bloomVariants = new PipelineVariants(this.glState, pipeline -> {
+            pipeline.bindAttribLocation(0, "in_Position");
+            pipeline.bindAttribLocation(1, "in_TextureCoord");
+            pipeline.addShader("default_vertex_shader.vert",  GL20.GL_VERTEX_SHADER);
+            pipeline.addShader("gaussian_fragment_shader.frag",  GL20.GL_FRAGMENT_SHADER);
+            this.link(pipeline);
+        });
 
         /*
             Texture bender shader pipeline
          */
-        this.mixPipeline = new Pipeline();
+        this.mixPipeline = new Pipeline(this.glState);
         this.mixPipeline.bindAttribLocation(0, "in_Position");
         this.mixPipeline.bindAttribLocation(1, "in_TextureCoord");
         this.mixPipeline.addShader("default_vertex_shader.vert",  GL20.GL_VERTEX_SHADER);
         this.mixPipeline.addShader("mix_fragment_shader.frag",  GL20.GL_FRAGMENT_SHADER);
-        this.mixPipeline.link();
+        this.mixPipeline.startLink();
+
+        /*
+            Vertical blur + composite shader pipeline (fused post-processing, variants by blur size)
+         */
+        this.compositeVariants = new PipelineVariants(this.glState, pipeline -> {
+            pipeline.bindAttribLocation(0, "in_Position");
+            pipeline.bindAttribLocation(1, "in_TextureCoord");
+            pipeline.addShader("default_vertex_shader.vert",  GL20.GL_VERTEX_SHADER);
+            pipeline.addShader("bloom_composite_fragment_shader.frag",  GL20.GL_FRAGMENT_SHADER);
+            this.link(pipeline);
+
+            this.glState.programUniform1i(pipeline.getProgramID(), pipeline.getUniformLocation("image"), 0);
+            this.glState.programUniform1i(pipeline.getProgramID(), pipeline.getUniformLocation("image2"), 1);
+        });
+
+        this.setBlurTaps(DEFAULT_BLUR_TAPS);
+
+        this.finishLink(this.fontPipeline);
+        this.finishLink(this.mixPipeline);
+        phaseStart = this.recordPhase("shader programs", phaseStart);
+
+        this.setupFontPipeline();
+
+        /*
+            Uniform buffer for the character data.
+         */
+        this.characters = new Characters(columns, rows, this.fontPipeline.getProgramID(), this.glState);
 
         int image1 = GL20.glGetUniformLocation(this.mixPipeline.getProgramID(), "image1");
         int image2  = GL20.glGetUniformLocation(this.mixPipeline.getProgramID(), "image2");
         this.uniform_mixAttenuation = GL20.glGetUniformLocation(this.mixPipeline.getProgramID(), "in_attenuation");
 
-        GL20.glUseProgram(this.mixPipeline.getProgramID());
-        GL20.glUniform1i(image1, 0);
-        GL20.glUniform1i(image2,  1);
-        GL20.glUseProgram(0);
+        this.glState.programUniform1i(this.mixPipeline.getProgramID(), image1, 0);
+        this.glState.programUniform1i(this.mixPipeline.getProgramID(), image2, 1);
 
         /*
-            Create vertex arrays for the screen curvature.
+            Create the mesh of the character grid. The curvature is applied by the vertex shader.
          */
-        grid = new Grid(400d, 300d, columns, rows, verticalCurvature, horizontalCurvature);
+        this.grid = new Grid(this.glState, this.fontPipeline.getProgramID(), 400d, 300d, columns, rows);
+        this.grid.setCurvature(verticalCurvature, horizontalCurvature);
+        phaseStart = this.recordPhase("grid and character buffer", phaseStart);
 
         /*
-            Create texture atlas for the Font
+            Post-processing passes and their framebuffers
          */
-        this.font = new Font(Kaypro_II_font.get(), color, scanLineBreadth, fontThickness);
+        this.renderGraph = this.createRenderGraph();
+        this.resizeTargets(width, height);
+        this.metrics.setFramebufferMemory(this.getTargetMemorySize());
+        phaseStart = this.recordPhase("render targets", phaseStart);
+
+        /*
+            Upload the texture atlas of the Font, rasterized in the background
+         */
+        this.font = new Font(await(atlas), this.glState);
+        this.setColor(color);
+        this.recordPhase("font texture", phaseStart);
+
+        this.metrics.setStartupTime(System.nanoTime() - this.startupStart);
+    }
+
+    /**
+     * Query the uniforms of the current font program, and set the ones which don't change per frame.
+     */
+    private void setupFontPipeline() {
+        this.uniform_scanlinePosition = this.fontPipeline.getUniformLocation("scanlinePosition");
+        this.uniform_fadeAttenuation = this.fontPipeline.getUniformLocation("fadeAttenuation");
+        this.uniform_fontColor = this.fontPipeline.getUniformLocation("fontColor");
+
+        this.glState.programUniform1i(this.fontPipeline.getProgramID(), this.fontPipeline.getUniformLocation("history"), 1);
+        this.glState.programUniform2f(this.fontPipeline.getProgramID(),
+                this.fontPipeline.getUniformLocation("dimensions"), this.columns, this.rows);
+    }
+
+    /**
+     * The defines of the font program for a configuration. The initial grid size is compiled in;
+     * for any other size the variant without GRID_COLUMNS and GRID_ROWS reads the size from the
+     * "dimensions" uniform, so a later change costs no compile. The scanline and the fade are
+     * left out when they're off, or the text pass doesn't read the history.
+     */
+    private Map<String, Object> getFontDefines(int columns, int rows) {
+        Map<String, Object> defines = new HashMap<>();
+
+        if (columns == this.initialColumns && rows == this.initialRows) {
+            defines.put("GRID_COLUMNS", columns);
+            defines.put("GRID_ROWS", rows);
+        }
+
+        defines.put("SCANLINE", this.scanlineEnabled ? 1 : 0);
+        defines.put("FADE", PostProcessingGraph.isTextFaded(this.fusedPostProcessing, this.fadeEnabled) ? 1 : 0);
+
+        return defines;
+    }
+
+    /**
+     * The font program variant for a configuration. It's linked at the first use, and kept.
+     */
+    private Pipeline getFontPipeline(int columns, int rows) throws Exception {
+        Pipeline pipeline = this.fontVariants.get(this.getFontDefines(columns, rows));
+
+        if (pipeline.isLinkPending()) {
+            this.finishLink(pipeline);
+        }
+
+        return pipeline;
+    }
+
+    /**
+     * Switch the characters and the grid to the font program of the current settings, if it's another variant.
+     */
+    private void selectFontPipeline() throws Exception {
+        Pipeline pipeline = this.getFontPipeline(this.columns, this.rows);
+
+        if (pipeline != this.fontPipeline) {
+            this.fontPipeline = pipeline;
+            this.setupFontPipeline();
+            this.setColor(this.color);
+            this.characters.setProgram(pipeline.getProgramID());
+            this.grid.setProgram(pipeline.getProgramID());
+        }
+    }
+
+    /**
+     * Link a pipeline (or load it from the program cache), and record the time it took.
+     */
+    private void link(Pipeline pipeline) throws Exception {
+        pipeline.link();
+        this.metrics.recordProgramLink(pipeline.isCached(), pipeline.getLinkTime());
+    }
+
+    /**
+     * Wait for a pipeline started with startLink(), and record the time spent on it.
+     */
+    private void finishLink(Pipeline pipeline) throws Exception {
+        pipeline.finishLink();
+        this.metrics.recordProgramLink(pipeline.isCached(), pipeline.getLinkTime());
+    }
+
+    /**
+     * Record a startup phase, which has started at the given time.
+     *
+     * @return The end of the phase, which is the start of the next one.
+     */
+    private long recordPhase(String name, long start) {
+        long now = System.nanoTime();
+        this.metrics.recordStartupPhase(name, now - start);
+
+        return now;
+    }
+
+    /**
+     * Wrap a background task of the startup, so it records its own duration.
+     */
+    private <T> Callable<T> timed(String name, Callable<T> task) {
+        return () -> {
+            long start = System.nanoTime();
+            T result = task.call();
+            this.metrics.recordStartupPhase(name, System.nanoTime() - start);
+
+            return result;
+        };
+    }
+
+    /**
+     * Wait for a background task of the startup, and pass on its exception.
+     */
+    private static <T> T await(Future<T> task) throws Exception {
+        try {
+            return task.get();
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof Exception) {
+                throw (Exception)ex.getCause();
+            }
+
+            throw new Exception("Startup task failed: " + ex.getCause());
+        }
     }
 
     /**
      * Close all OpenGL resources.
      */
     public void close() {
+        this.metrics.unregister();
+
+        if (this.gpuTimer != null) {
+            this.gpuTimer.close();
+            this.gpuTimer = null;
+        }
+
+        if (this.multisampleBuffer != null) {
+            this.multisampleBuffer.close();
+            this.multisampleBuffer = null;
+        }
+
+        if (this.hud != null) {
+            this.hud.close();
+            this.hud = null;
+        }
+
         if (this.font != null) {
             this.font.close();
             this.font = null;
@@ -179,13 +468,15 @@ public class Terminal {
             this.grid = null;
         }
 
-        if (this.fontPipeline != null) {
-            this.fontPipeline.close();
+        if (this.fontVariants != null) {
+            this.fontVariants.close();
+            this.fontVariants = null;
             this.fontPipeline = null;
         }
 
-        if (this.bloomPipeline != null) {
-            this.bloomPipeline.close();
+        if (this.bloomVariants != null) {
+            this.bloomVariants.close();
+            this.bloomVariants = null;
             this.bloomPipeline = null;
         }
 
@@ -194,14 +485,30 @@ public class Terminal {
             this.mixPipeline = null;
         }
 
-        if (this.pingPongBuffer != null) {
-            this.pingPongBuffer.close();
-            this.pingPongBuffer = null;
+        if (this.compositeVariants != null) {
+            this.compositeVariants.close();
+            this.compositeVariants = null;
+            this.compositePipeline = null;
+        }
+
+        if (this.copyPipeline != null) {
+            this.copyPipeline.close();
+            this.copyPipeline = null;
         }
 
-        if (this.mixBuffer != null) {
-            this.mixBuffer.close();
-            this.mixBuffer = null;
+        if (this.downsamplePipeline != null) {
+            this.downsamplePipeline.close();
+            this.downsamplePipeline = null;
+        }
+
+        if (this.fadePipeline != null) {
+            this.fadePipeline.close();
+            this.fadePipeline = null;
+        }
+
+        if (this.renderGraph != null) {
+            this.renderGraph.close();
+            this.renderGraph = null;
         }
 
         if (this.characters != null) {
@@ -209,6 +516,15 @@ public class Terminal {
             this.characters = null;
         }
 
+        if (this.frameFences != null) {
+            this.frameFences.close();
+            this.frameFences = null;
+        }
+
+        if (this.glState != null) {
+            this.glState.close();
+        }
+
         if (this.windowID > -1) {
             glfwDestroyWindow(this.windowID);
             this.windowID = -1;
@@ -224,10 +540,41 @@ public class Terminal {
      * Render screen.
      */
     public void renderFrame() throws Exception {
+        this.renderFrame(System.nanoTime());
+    }
+
+    /**
+     * Render screen at the given time. The fade-out and the scanline are moved according to the
+     * time elapsed since the previous frame. Useful for rendering with a fixed time step.
+     *
+     * @param time Time of the frame in nanoseconds, from a monotonic clock. (For example System.nanoTime())
+     */
+    public void renderFrame(long time) throws Exception {
         if (this.font == null) {
             throw new Exception("renderFrame() was called on a closed Terminal instance.");
         }
 
+        /*
+            In low-latency mode this waits for the GPU, so the changes are read after it.
+         */
+        this.frameFences.waitForSlot();
+
+        if (this.sharedScreen != null && this.sharedScreen.readChanges(this.characters.getArray())) {
+            int first = this.sharedScreen.getFirstDirtyRow();
+            int last = this.sharedScreen.getLastDirtyRow();
+
+            this.characters.uploadRows(first, last);
+            this.metrics.recordUpload((last - first + 1) * this.columns);
+            this.phosphor.markChanged();
+            this.recordPending = true;
+            this.markInput(System.nanoTime());
+        }
+
+        if (this.recordPending && this.recorder != null) {
+            this.recorder.record(this.characters.getArray(), time);
+            this.recordPending = false;
+        }
+
         boolean resized = this.windowSize.checkSize();
 
         int width = this.windowSize.getWidth();
@@ -235,6 +582,7 @@ public class Terminal {
 
         // Skip render if the client area is too small
         if (width < 10 || height < 10) {
+            this.metrics.recordFrameSkipped();
             return;
         }
 
@@ -242,132 +590,669 @@ public class Terminal {
             /*
                 The size of the client area has changed, the framebuffers need to get resized.
              */
-            this.pingPongBuffer.resize(width, height);
-            this.mixBuffer.resize(width, height);
-            GL11.glViewport(0, 0, width, height);
+            long resizeStart = System.nanoTime();
+            this.resizeTargets(width, height);
+            this.metrics.recordResize(this.getTargetMemorySize(), System.nanoTime() - resizeStart);
+            this.metrics.recordFrameSkipped();
 
             Thread.sleep(100);
             return;
         }
 
-        this.scanlinePosition += 0.1f;
-        if (this.scanlinePosition > this.rows) {
-            this.scanlinePosition = 0;
+        this.phosphor.advance(time);
+
+        if (this.phosphor.isConverged()) {
+            this.backgroundFading = false;
+        }
+
+        if (this.gpuTimer != null) {
+            this.gpuTimer.beginFrame();
+
+            if (this.qualityGovernorEnabled && this.gpuTimer.getMeasuredFrames() != this.governorMeasuredFrames) {
+                this.governorMeasuredFrames = this.gpuTimer.getMeasuredFrames();
+
+                if (this.qualityGovernor.addSample(this.gpuTimer.getLastFrameTime())) {
+                    this.applyQualityLevel();
+                }
+            }
+        }
+
+        if (this.targetsChanged) {
+            this.resizeTargets(width, height);
+            this.metrics.setFramebufferMemory(this.getTargetMemorySize());
         }
 
         /*
-            Render text to framebuffer object
+            Deferred uploads (low-latency mode) go to the GPU here, directly before the draws.
          */
-        this.pingPongBuffer.bindFrameBuffer();
-        this.grid.setupProjection(width, height);
+        this.characters.flush();
+        this.frameInputTime = this.inputTime;
+        this.inputTime = 0;
+
+        this.renderGraph.execute(this::beginPass, this::endPass);
+
+        /*
+            Performance overlay, measured as a pass of its own
+         */
+        if (this.hudVisible) {
+            long hudStart = System.nanoTime();
+            this.beginPass("hud");
+            this.hud.update(this);
+            this.hud.draw(width, height, this.font.getTextureID(), this.color);
+            this.endPass();
+            this.hud.recordCpuTime(System.nanoTime() - hudStart);
+        }
+
+        this.renderGraph.endFrame();
+        this.metrics.recordFrameRendered();
+        this.metrics.recordGLCalls(this.glState.getCalls(), this.glState.getSkipped());
+        this.glState.resetCounters();
+    }
+
+    /**
+     * The post-processing chain, see PostProcessingGraph.
+     *
+     * The bindings are left in place between the passes (see GLState). None of the passes samples
+     * a texture of its own target framebuffer, so the leftover bindings can't form a feedback loop.
+     */
+    private RenderGraph createRenderGraph() {
+        return PostProcessingGraph.create(this.glState, name -> {
+            switch (name) {
+                case "text":
+                case "text + fade":
+                    return this::drawText;
+                case "fade":
+                    return this::drawFade;
+                case "downsample":
+                    return this::drawDownsample;
+                case "blur horizontal":
+                case "blur vertical":
+                    return this::drawBlur;
+                case "composite":
+                    return this::drawComposite;
+                case "blur vertical + composite":
+                    return this::drawFusedComposite;
+                case "present":
+                    return this::drawCopy;
+                default:
+                    return null;
+            }
+        });
+    }
 
-        GL20.glUseProgram(this.fontPipeline.getProgramID());
-        {
-            GL20.glUniform2f(this.uniform_dimensions, (float)this.columns, (float)this.rows);
-            GL20.glUniform1f(this.uniform_scanlinePosition,  this.scanlinePosition);
+    /**
+     * Enable the passes of the selected path and effects.
+     */
+    private void configureRenderGraph() {
+        PostProcessingGraph.configure(this.renderGraph, this.fusedPostProcessing, this.bloomEnabled,
+                this.fadeEnabled, this.bloomDownsample);
+    }
 
-            GL11.glClearColor(0.0f, 0.0f, 0.0f, 0.0f);
-            GL11.glClear(GL11.GL_COLOR_BUFFER_BIT | GL11.GL_DEPTH_BUFFER_BIT);
+    /**
+     * Render the text, faded with the previous frame if the pass reads it.
+     */
+    private void drawText(RenderGraph.Pass pass) {
+        if (this.multisampleBuffer != null) {
+            this.multisampleBuffer.bindFrameBuffer();
+        }
 
-            GL13.glActiveTexture(GL13.GL_TEXTURE0);
-            GL11.glBindTexture(GL11.GL_TEXTURE_2D, this.font.getTextureID());
+        if (pass.getInputCount() > 0 && this.backgroundFading) {
+            /*
+                Outside of the grid the history is faded too, as by the fade pass of the original path.
+                Only until the afterglow of the last change has faded out; after that it's black there.
+             */
+            this.fadePipeline.use();
+            this.glState.uniform1f(this.uniform_fadeBackgroundAttenuation, this.phosphor.getAttenuation());
+            this.glState.bindTexture(0, pass.getInput(0));
+            this.renderGraph.drawQuad();
+        } else {
+            this.glState.clearColor(0.0f, 0.0f, 0.0f, 0.0f);
+            this.glState.clear(GL11.GL_COLOR_BUFFER_BIT | GL11.GL_DEPTH_BUFFER_BIT);
+        }
 
-            this.grid.draw();
+        this.grid.setupProjection(this.windowSize.getWidth(), this.windowSize.getHeight());
+        this.fontPipeline.use();
 
-            GL11.glBindTexture(GL11.GL_TEXTURE_2D, 0);
+        if (this.scanlineEnabled) {
+            this.glState.uniform1f(this.uniform_scanlinePosition,  this.phosphor.getScanlinePosition());
         }
-        GL20.glUseProgram(0);
+
+        this.glState.bindTexture(0, this.font.getTextureID());
 
         /*
-            Fade out
+            Only the "text + fade" pass reads the history; the other one uses a variant without the fade.
          */
-        this.mixBuffer.bindFrameBuffer();
-        this.mixBuffer.setupProjection(width, height);
+        if (pass.getInputCount() > 0) {
+            this.glState.uniform1f(this.uniform_fadeAttenuation, this.phosphor.getAttenuation());
+            this.glState.bindTexture(1, pass.getInput(0));
+        }
+
+        this.grid.draw();
 
-        GL20.glUseProgram(this.mixPipeline.getProgramID());
-        {
-            GL20.glUniform1f(this.uniform_mixAttenuation,  0.7f);
+        if (this.multisampleBuffer != null) {
+            this.multisampleBuffer.resolve(pass.getOutputFrameBuffer());
+        }
+    }
 
-            GL13.glActiveTexture(GL13.GL_TEXTURE0);
-            GL11.glBindTexture(GL11.GL_TEXTURE_2D, this.mixBuffer.getBackTexture());
+    /**
+     * Fade out: the attenuated previous frame mixed with the text.
+     */
+    private void drawFade(RenderGraph.Pass pass) {
+        this.mixPipeline.use();
+        this.glState.uniform1f(this.uniform_mixAttenuation,  this.phosphor.getAttenuation());
+        this.glState.bindTexture(0, pass.getInput(0));
+        this.glState.bindTexture(1, pass.getInput(1));
+        this.renderGraph.drawQuad();
+    }
 
-            GL13.glActiveTexture(GL13.GL_TEXTURE1);
-            GL11.glBindTexture(GL11.GL_TEXTURE_2D, this.pingPongBuffer.getFrontTexture());
+    /**
+     * Bloom: shrink the faded text to the size of the bloom target.
+     */
+    private void drawDownsample(RenderGraph.Pass pass) {
+        this.downsamplePipeline.use();
+        this.glState.bindTexture(0, pass.getInput(0));
+        this.renderGraph.drawQuad();
+    }
 
-            this.mixBuffer.draw();
+    /**
+     * Bloom: one direction of the blur. (On the downsampled target, if the bloom is downsampled.)
+     */
+    private void drawBlur(RenderGraph.Pass pass) {
+        this.bloomPipeline.use();
 
-            GL13.glActiveTexture(GL13.GL_TEXTURE0);
-            GL11.glBindTexture(GL11.GL_TEXTURE_2D, 0);
-            GL13.glActiveTexture(GL13.GL_TEXTURE1);
-            GL11.glBindTexture(GL11.GL_TEXTURE_2D, 0);
+        if (pass.getName().equals("blur horizontal")) {
+            this.glState.uniform2f(this.uniform_gaussianDirection, 1.0f, 0.0f);
+        } else {
+            this.glState.uniform2f(this.uniform_gaussianDirection, 0.0f, 1.0f);
         }
-        GL20.glUseProgram(0);
 
-        this.mixBuffer.unBindFrameBuffer();
+        this.glState.bindTexture(0, pass.getInput(0));
+        this.renderGraph.drawQuad();
+    }
 
-        /*
-            Bloom 1: horizontal blur
-         */
-        this.pingPongBuffer.bindFrameBuffer();
+    /**
+     * Bloom: mix the blurred result with the original.
+     */
+    private void drawComposite(RenderGraph.Pass pass) {
+        this.mixPipeline.use();
+        this.glState.uniform1f(this.uniform_mixAttenuation,  0.8f);
+        this.glState.bindTexture(0, pass.getInput(0));
+        this.glState.bindTexture(1, pass.getInput(1));
+        this.renderGraph.drawQuad();
+    }
+
+    /**
+     * Bloom: vertical blur, mixed with the faded text.
+     */
+    private void drawFusedComposite(RenderGraph.Pass pass) {
+        this.compositePipeline.use();
+        this.glState.uniform2f(this.uniform_compositeDirection, 0.0f, 1.0f);
+        this.glState.uniform1f(this.uniform_compositeAttenuation, 0.8f);
+        this.glState.bindTexture(0, pass.getInput(0));
+        this.glState.bindTexture(1, pass.getInput(1));
+        this.renderGraph.drawQuad();
+    }
+
+    /**
+     * Without the bloom: stretch the faded text to the window.
+     */
+    private void drawCopy(RenderGraph.Pass pass) {
+        this.copyPipeline.use();
+        this.glState.bindTexture(0, pass.getInput(0));
+        this.renderGraph.drawQuad();
+    }
+
+    /**
+     * Link a full-screen pass, which reads a single texture ("image") on unit 0.
+     */
+    private Pipeline createQuadPipeline(String fragmentShader) throws Exception {
+        Pipeline pipeline = new Pipeline(this.glState);
+        pipeline.bindAttribLocation(0, "in_Position");
+        pipeline.bindAttribLocation(1, "in_TextureCoord");
+        pipeline.addShader("default_vertex_shader.vert",  GL20.GL_VERTEX_SHADER);
+        pipeline.addShader(fragmentShader,  GL20.GL_FRAGMENT_SHADER);
+        this.link(pipeline);
+        this.glState.programUniform1i(pipeline.getProgramID(), pipeline.getUniformLocation("image"), 0);
+
+        return pipeline;
+    }
+
+    /**
+     * Resize the offscreen targets according to the window size and the quality settings.
+     * Only the targets with a different size are recreated.
+     *
+     * @param width Width of the client area.
+     * @param height Height of the client area.
+     * @throws Exception The thrown exceptions contain error messages.
+     */
+    private void resizeTargets(int width, int height) throws Exception {
+        int targetWidth = Math.max((int)Math.round(width * this.renderScale), 1);
+        int targetHeight = Math.max((int)Math.round(height * this.renderScale), 1);
 
-        GL20.glUseProgram(this.bloomPipeline.getProgramID());
-        {
-            GL20.glUniform2f(this.uniform_gaussianDirection, 1.0f, 0.0f);
-            GL13.glActiveTexture(GL13.GL_TEXTURE0);
-            GL11.glBindTexture(GL11.GL_TEXTURE_2D, this.mixBuffer.getFrontTexture());
+        if (!this.bloomEnabled && this.copyPipeline == null) {
+            this.copyPipeline = this.createQuadPipeline("copy_fragment_shader.frag");
+        }
 
-            this.pingPongBuffer.draw();
+        if (this.bloomDownsample > 0 && this.downsamplePipeline == null) {
+            this.downsamplePipeline = this.createQuadPipeline("downsample_fragment_shader.frag");
+        }
 
-            GL11.glBindTexture(GL11.GL_TEXTURE_2D, 0);
+        if (PostProcessingGraph.isTextFaded(this.fusedPostProcessing, this.fadeEnabled) && this.fadePipeline == null) {
+            this.fadePipeline = this.createQuadPipeline("fade_fragment_shader.frag");
+            this.uniform_fadeBackgroundAttenuation = this.fadePipeline.getUniformLocation("in_attenuation");
         }
-        GL20.glUseProgram(0);
 
-        this.pingPongBuffer.unBindFrameBuffer();
+        if (this.downsamplePipeline != null) {
+            this.glState.programUniform1i(this.downsamplePipeline.getProgramID(),
+                    this.downsamplePipeline.getUniformLocation("in_factor"), 1 << this.bloomDownsample);
+        }
 
-        /*
-            Bloom 2: vertical blur
-         */
-        this.pingPongBuffer.switchBuffers();
-        this.pingPongBuffer.bindFrameBuffer();
+        this.configureRenderGraph();
+        this.selectFontPipeline();
+        this.renderGraph.setSize(targetWidth, targetHeight, width, height);
 
-        GL20.glUseProgram(this.bloomPipeline.getProgramID());
-        {
-            GL20.glUniform2f(this.uniform_gaussianDirection, 0.0f, 1.0f);
-            GL13.glActiveTexture(GL13.GL_TEXTURE0);
-            GL11.glBindTexture(GL11.GL_TEXTURE_2D, this.pingPongBuffer.getBackTexture());
+        this.renderGraph.allocate();
 
-            this.pingPongBuffer.draw();
+        if (this.multisampleBuffer != null && (this.textSamples == 0 || this.multisampleBuffer.getWidth() != targetWidth
+                || this.multisampleBuffer.getHeight() != targetHeight)) {
+            this.multisampleBuffer.close();
+            this.multisampleBuffer = null;
+        }
 
-            GL11.glBindTexture(GL11.GL_TEXTURE_2D, 0);
+        if (this.multisampleBuffer == null && this.textSamples > 0) {
+            this.multisampleBuffer = new MultisampleBuffer(this.glState, this.textSamples, targetWidth, targetHeight);
         }
-        GL20.glUseProgram(0);
 
-        this.pingPongBuffer.unBindFrameBuffer();
+        this.targetsChanged = false;
+        this.backgroundFading = true;
+        this.phosphor.markChanged();
+    }
 
-        /*
-            Bloom 3: Mix the blurred result with the original
-                        (Draw to screen)
-         */
-        GL20.glUseProgram(this.mixPipeline.getProgramID());
-        {
-            GL20.glUniform1f(this.uniform_mixAttenuation,  0.8f);
+    /**
+     * @return The GPU memory of the offscreen targets in bytes.
+     */
+    private long getTargetMemorySize() {
+        return this.renderGraph.getMemorySize()
+                + (this.multisampleBuffer != null ? this.multisampleBuffer.getMemorySize() : 0);
+    }
+
+    /**
+     * Start measuring a render pass, with the GPU timer and as a Flight Recorder event.
+     *
+     * @param name Name of the pass.
+     */
+    private void beginPass(String name) {
+        if (this.gpuTimer != null) {
+            this.gpuTimer.begin(name);
+        }
+
+        if (Events.FRAME_PHASE.isEnabled()) {
+            this.phaseEvent = new Events.FramePhase();
+            this.phaseEvent.phase = name;
+            this.phaseEvent.begin();
+        }
+    }
+
+    /**
+     * Stop measuring the current render pass.
+     */
+    private void endPass() {
+        if (this.gpuTimer != null) {
+            this.gpuTimer.end();
+        }
+
+        if (this.phaseEvent != null) {
+            this.phaseEvent.commit();
+            this.phaseEvent = null;
+        }
+    }
+
+    /**
+     * Turn the GPU timing of the render passes on or off. Uses GL_TIME_ELAPSED queries,
+     * which are read back a few frames later without blocking. The quality governor pauses without it.
+     *
+     * @param enabled True to measure the passes.
+     */
+    public void setGpuTimingEnabled(boolean enabled) {
+        if (enabled && this.gpuTimer == null) {
+            this.gpuTimer = new GpuTimer();
+        } else if (!enabled && this.gpuTimer != null) {
+            this.gpuTimer.close();
+            this.gpuTimer = null;
+        }
+    }
+
+    /**
+     * @return The rolling GPU time statistics (nanoseconds) of the render passes by name, in pass order.
+     *          Empty if the GPU timing is disabled.
+     */
+    public Map<String, RollingStatistics> getGpuTimings() {
+        if (this.gpuTimer == null) {
+            return Collections.emptyMap();
+        }
+
+        return this.gpuTimer.getStatistics();
+    }
+
+    /**
+     * Show or hide the performance overlay in the top-left corner: FPS, frame-time sparkline,
+     * uploaded cells per frame, memory usage and the GPU pass times (when the GPU timing is enabled).
+     * It doesn't modify the character array of the terminal. Its own cost is shown on it too, and is
+     * available as getHudCpuTime() and as the "hud" entry of getGpuTimings().
+     *
+     * @param visible True to show the overlay.
+     * @throws Exception The shader errors of the first initialization.
+     */
+    public void setHudVisible(boolean visible) throws Exception {
+        if (visible && this.hud == null) {
+            this.hud = new Hud(this.glState);
+        }
 
-            GL13.glActiveTexture(GL13.GL_TEXTURE0);
-            GL11.glBindTexture(GL11.GL_TEXTURE_2D, this.pingPongBuffer.getFrontTexture());
+        this.hudVisible = visible;
+    }
 
-            GL13.glActiveTexture(GL13.GL_TEXTURE1);
-            GL11.glBindTexture(GL11.GL_TEXTURE_2D, this.mixBuffer.getFrontTexture());
+    /**
+     * @return True if the performance overlay is shown.
+     */
+    public boolean isHudVisible() {
+        return this.hudVisible;
+    }
 
-            this.pingPongBuffer.draw();
+    /**
+     * @return The CPU time of the performance overlay per frame in nanoseconds, for the last 60 frames
+     *          with the overlay shown. Null if it has never been shown.
+     */
+    public RollingStatistics getHudCpuTime() {
+        return this.hud != null ? this.hud.getCpuTime() : null;
+    }
 
-            GL13.glActiveTexture(GL13.GL_TEXTURE0);
-            GL11.glBindTexture(GL11.GL_TEXTURE_2D, 0);
-            GL13.glActiveTexture(GL13.GL_TEXTURE1);
-            GL11.glBindTexture(GL11.GL_TEXTURE_2D, 0);
+    /**
+     * Change the size of the bloom blur. Each size is a separately compiled shader variant
+     * with a constant kernel; it's compiled at the first use, and kept for later switches.
+     *
+     * @param taps Number of samples in each direction, including the center. 2 - 16. Default: 16
+     * @throws Exception The thrown exceptions contain error messages.
+     */
+    public void setBlurTaps(int taps) throws Exception {
+        if (taps < 2 || taps > 16) {
+            throw new Exception("The number of blur taps has to be between 2 and 16.");
         }
-        GL20.glUseProgram(0);
 
-        this.mixBuffer.switchBuffers();
+        if (taps == this.blurTaps) {
+            return;
+        }
+
+        Map<String, Object> defines = new HashMap<>();
+        defines.put("GAUSS_TAPS", taps);
+        defines.put("GAUSS_WEIGHTS", PipelineVariants.gaussianWeights(taps));
+
+        this.bloomPipeline = this.bloomVariants.get(defines);
+        this.compositePipeline = this.compositeVariants.get(defines);
+        this.uniform_gaussianDirection = this.bloomPipeline.getUniformLocation("in_direction");
+        this.uniform_compositeDirection = this.compositePipeline.getUniformLocation("in_direction");
+        this.uniform_compositeAttenuation = this.compositePipeline.getUniformLocation("in_attenuation");
+        this.blurTaps = taps;
+    }
+
+    /**
+     * @return Number of samples of the bloom blur in each direction, including the center.
+     */
+    public int getBlurTaps() {
+        return this.blurTaps;
+    }
+
+    /**
+     * Select the post-processing path. Both are meant to produce the same image (see PostProcessingDiff
+     * in the benchmarks); the three-pass path stays optional until that's confirmed on real drivers.
+     *
+     * @param enabled True: three passes, the fade is done by the text pass and the composite by the vertical blur.
+     *                False (default): the original five separate passes. (The bloom downsampling doesn't apply to it.)
+     */
+    public void setFusedPostProcessing(boolean enabled) {
+        if (enabled != this.fusedPostProcessing) {
+            this.fusedPostProcessing = enabled;
+            this.targetsChanged = true;
+        }
+    }
+
+    /**
+     * @return True if the three-pass post-processing is used.
+     */
+    public boolean isFusedPostProcessing() {
+        return this.fusedPostProcessing;
+    }
+
+    /**
+     * Turn the bloom on or off. Without it the blur passes and their framebuffers are removed,
+     * and the faded text is copied to the window. Takes effect at the next frame.
+     *
+     * @param enabled Default: true
+     */
+    public void setBloomEnabled(boolean enabled) {
+        if (enabled != this.bloomEnabled) {
+            this.bloomEnabled = enabled;
+            this.targetsChanged = true;
+        }
+    }
+
+    /**
+     * @return True if the bloom is rendered.
+     */
+    public boolean isBloomEnabled() {
+        return this.bloomEnabled;
+    }
+
+    /**
+     * Turn the phosphor fade-out on or off. Without it the characters disappear at once, and there's
+     * no history framebuffer, and the font program is a variant without the fade. Takes effect at the next frame.
+     *
+     * @param enabled Default: true
+     */
+    public void setFadeEnabled(boolean enabled) {
+        if (enabled != this.fadeEnabled) {
+            this.fadeEnabled = enabled;
+            this.targetsChanged = true;
+        }
+    }
+
+    /**
+     * @return True if the characters fade out.
+     */
+    public boolean isFadeEnabled() {
+        return this.fadeEnabled;
+    }
+
+    /**
+     * Turn the moving scanline on or off. Each setting is a separately compiled variant of the font
+     * program; it's compiled at the first use, and kept for later switches.
+     *
+     * @param enabled Default: true
+     * @throws Exception Shader errors of the variant.
+     */
+    public void setScanlineEnabled(boolean enabled) throws Exception {
+        if (enabled != this.scanlineEnabled) {
+            this.scanlineEnabled = enabled;
+            this.selectFontPipeline();
+        }
+    }
+
+    /**
+     * @return True if the scanline is drawn.
+     */
+    public boolean isScanlineEnabled() {
+        return this.scanlineEnabled;
+    }
+
+    /**
+     * @return The passes of the post-processing and their framebuffers, one per line, as planned for the
+     *          current settings. For example: "blur horizontal: faded -> bloom [#2]"
+     * @throws Exception If the graph can't be planned.
+     */
+    public String getRenderGraphDescription() throws Exception {
+        this.configureRenderGraph();
+        this.renderGraph.update();
+
+        return this.renderGraph.describe();
+    }
+
+    /**
+     * Render the text and the effects at a lower resolution, which gets stretched to the window
+     * by the last pass. Takes effect at the next frame.
+     *
+     * @param scale Size of the offscreen targets relative to the window. 0.25 - 1. Default: 1
+     * @throws Exception If the scale is out of range.
+     */
+    public void setRenderScale(double scale) throws Exception {
+        if (scale < 0.25d || scale > 1d) {
+            throw new Exception("The render scale has to be between 0.25 and 1.");
+        }
+
+        if (scale != this.renderScale) {
+            this.renderScale = scale;
+            this.targetsChanged = true;
+        }
+    }
+
+    /**
+     * @return Size of the offscreen targets relative to the window.
+     */
+    public double getRenderScale() {
+        return this.renderScale;
+    }
+
+    /**
+     * Run the bloom blur on a smaller image. Each level halves the size, and doubles the width of
+     * the blur on the screen, so fewer taps are needed for the same look. The faded text is box-filtered
+     * to the smaller size by an extra pass first. Only for the fused post-processing.
+     *
+     * @param downsample 0 - 2. Default: 0
+     * @throws Exception If the level is out of range.
+     */
+    public void setBloomDownsample(int downsample) throws Exception {
+        if (downsample < 0 || downsample > 2) {
+            throw new Exception("The bloom downsample level has to be between 0 and 2.");
+        }
+
+        if (downsample != this.bloomDownsample) {
+            this.bloomDownsample = downsample;
+            this.targetsChanged = true;
+        }
+    }
+
+    /**
+     * @return The number of times the bloom target is halved.
+     */
+    public int getBloomDownsample() {
+        return this.bloomDownsample;
+    }
+
+    /**
+     * Antialias the text pass with a multisampled target, which is resolved before the post-processing.
+     * The window itself is never multisampled.
+     *
+     * @param samples 0 = off (default), otherwise 2 - 16, limited by the driver.
+     * @throws Exception If the sample count is out of range.
+     */
+    public void setTextSamples(int samples) throws Exception {
+        if (samples < 0 || samples == 1 || samples > 16) {
+            throw new Exception("The number of text samples has to be 0 or between 2 and 16.");
+        }
+
+        if (samples != this.textSamples) {
+            this.textSamples = samples;
+            this.targetsChanged = true;
+        }
+    }
+
+    /**
+     * @return MSAA samples of the text pass. 0 = off.
+     */
+    public int getTextSamples() {
+        return this.textSamples;
+    }
+
+    /**
+     * Let the quality governor adjust the render scale, the blur and the text antialiasing according to
+     * the GPU time of the frames. Enabling it turns on the GPU timing too, which the governor needs.
+     *
+     * @param enabled True to adjust the quality automatically.
+     * @throws Exception Shader errors of the blur variants.
+     */
+    public void setQualityGovernorEnabled(boolean enabled) throws Exception {
+        if (enabled && !this.qualityGovernorEnabled) {
+            this.setGpuTimingEnabled(true);
+            this.applyQualityLevel();
+        }
+
+        this.qualityGovernorEnabled = enabled;
+    }
+
+    /**
+     * @return True if the quality is adjusted automatically.
+     */
+    public boolean isQualityGovernorEnabled() {
+        return this.qualityGovernorEnabled;
+    }
+
+    /**
+     * @return The settings of the quality governor: the frame budget, the hysteresis and the current level.
+     */
+    public QualityGovernor getQualityGovernor() {
+        return this.qualityGovernor;
+    }
+
+    /**
+     * Select one of the quality levels. If the governor is enabled, it continues from this level.
+     *
+     * @param level Index in QualityGovernor.LEVELS. 0 = best quality.
+     * @throws Exception Shader errors of the blur variants.
+     */
+    public void setQualityLevel(int level) throws Exception {
+        this.qualityGovernor.setLevel(level);
+        this.applyQualityLevel();
+    }
+
+    /**
+     * Apply the current level of the governor.
+     */
+    private void applyQualityLevel() throws Exception {
+        QualityGovernor.Level level = this.qualityGovernor.getCurrentLevel();
+
+        this.setRenderScale(level.getRenderScale());
+        this.setBlurTaps(level.getBlurTaps());
+        this.setBloomDownsample(level.getBloomDownsample());
+        this.setTextSamples(level.getTextSamples());
+        this.metrics.recordQualityLevel(this.qualityGovernor.getLevel());
+    }
+
+    /**
+     * Change the curvature of the screen. Takes effect at the next frame, without rebuilding any buffers.
+     *
+     * @param verticalCurvature Vertical curvature of the CRT screen.
+     * @param horizontalCurvature Horizontal curvature of the CRT screen.
+     */
+    public void setCurvature(double verticalCurvature, double horizontalCurvature) {
+        this.grid.setCurvature(verticalCurvature, horizontalCurvature);
+        this.backgroundFading = true;
+        this.phosphor.markChanged();
+    }
+
+    /**
+     * Magnify the screen around its center. Takes effect at the next frame.
+     *
+     * @param zoom 1 = default size.
+     */
+    public void setZoom(double zoom) {
+        this.grid.setZoom(zoom);
+        this.backgroundFading = true;
+        this.phosphor.markChanged();
+    }
+
+    /**
+     * @return The fade-out and scanline settings. Tells also if the fade-out has converged, so the rendering can be paused.
+     */
+    public Phosphor getPhosphor() {
+        return this.phosphor;
     }
 
     /**
@@ -379,19 +1264,278 @@ public class Terminal {
     }
 
     /**
-     * Makes the current thread sleep to maintain the given frame rate.
+     * The terminal keeps track of the OpenGL bindings, and skips the ones which wouldn't change anything.
+     * Call this after binding programs, textures, framebuffers or vertex arrays with direct OpenGL calls.
+     */
+    public void resetGLState() {
+        this.glState.invalidate();
+    }
+
+    /**
+     * Makes the current thread wait to maintain the given frame rate.
+     * Switches the frame scheduling to HYBRID mode, if it was in a different one.
      *
      * @param FPS A frame rate in frame/seconds to be maintained.
      * @throws InterruptedException Thrown if any thread has interrupted the current thread.
      */
     public void keepFPS(long FPS) throws InterruptedException {
-        long frameTime = 1000000000L / FPS; // nanoseconds
+        if (this.frameScheduler.getMode() != FrameScheduler.Mode.HYBRID || this.frameScheduler.getTargetFrameTime() != 1000000000L / FPS) {
+            this.setFrameScheduling(FrameScheduler.Mode.HYBRID, FPS);
+        }
+
+        long missed = this.frameScheduler.getMissedDeadlines();
+        this.frameScheduler.waitForFrame();
+        this.recordFrameTime(this.frameScheduler.frameSwapped(), missed);
+    }
+
+    /**
+     * Select how the frames are paced by swapBuffers().
+     *
+     * @param mode VSYNC: wait for the vertical blank. HYBRID: sleep, then spin until the deadline. UNCAPPED: no waiting.
+     * @param FPS The target frame rate for HYBRID mode. In VSYNC mode 0 means the refresh rate of the monitor.
+     */
+    public void setFrameScheduling(FrameScheduler.Mode mode, long FPS) {
+        if (mode == FrameScheduler.Mode.VSYNC) {
+            glfwSwapInterval(1);
+            this.frameScheduler.setMode(mode, FPS > 0 ? FPS : this.refreshRate);
+        } else {
+            glfwSwapInterval(0);
+            this.frameScheduler.setMode(mode, mode == FrameScheduler.Mode.UNCAPPED ? 0 : FPS);
+        }
+    }
+
+    /**
+     * Waits according to the frame scheduling mode, then swaps the buffers of the window.
+     * Call this after renderFrame().
+     *
+     * @throws InterruptedException Thrown if any thread has interrupted the current thread.
+     */
+    public void swapBuffers() throws InterruptedException {
+        long missed = this.frameScheduler.getMissedDeadlines();
+        this.frameScheduler.waitForFrame();
+        glfwSwapBuffers(this.windowID);
+        this.recordFrameTime(this.frameScheduler.frameSwapped(), missed);
+        this.frameFences.frameSubmitted(this.frameInputTime);
+        this.frameInputTime = 0;
+
+        if (this.startupStart != 0) {
+            this.metrics.setTimeToFirstFrame(System.nanoTime() - this.startupStart);
+            this.startupStart = 0;
+        }
+    }
+
+    /**
+     * @param interval Time since the previous swap.
+     * @param missedBefore The missed deadline count of the scheduler before the frame.
+     */
+    private void recordFrameTime(long interval, long missedBefore) {
+        if (interval > 0) {
+            this.metrics.recordFrameTime(interval);
+        }
+
+        this.metrics.recordMissedDeadlines(this.frameScheduler.getMissedDeadlines() - missedBefore);
+    }
+
+    /**
+     * Low-latency mode: limit how many frames the CPU may queue ahead of the GPU, and defer the
+     * character uploads until directly before the next frame is drawn. The CPU waits for a fence
+     * of an earlier frame in renderFrame(), so this trades throughput for a shorter input-to-photon
+     * latency. 1 = the previous frame has to be finished before a new one is started.
+     *
+     * @param maxFramesInFlight 1 to 8, or 0 to turn the mode off. (Default: 0; the driver decides.)
+     * @throws Exception If the value is out of range.
+     */
+    public void setLowLatency(int maxFramesInFlight) throws Exception {
+        this.frameFences.setMaxFramesInFlight(maxFramesInFlight);
+        this.characters.setDeferred(maxFramesInFlight > 0);
+    }
+
+    /**
+     * @return The frame limit of the low-latency mode. 0 = off.
+     */
+    public int getMaxFramesInFlight() {
+        return this.frameFences.getMaxFramesInFlight();
+    }
+
+    /**
+     * Note the time of an input, which the next frame responds to. The character changes are noted
+     * automatically at the time of the call; use this to measure from an earlier event, like a key press.
+     *
+     * @param time Time of the input, from System.nanoTime().
+     */
+    public void markInput(long time) {
+        if (this.inputTime == 0 || time < this.inputTime) {
+            this.inputTime = time;
+        }
+    }
+
+    /**
+     * @return Time from the first input of a frame (see markInput) until the GPU has finished that frame, in
+     *          nanoseconds, for the last 240 frames with input. Without the low-latency mode the fences are only
+     *          polled at the start of the frames, so the values can be up to a frame longer than the real latency.
+     */
+    public RollingStatistics getInputLatency() {
+        return this.frameFences.getLatency();
+    }
+
+    /**
+     * @return The frame scheduler, which holds the missed deadline count and the frame-time jitter statistics.
+     */
+    public FrameScheduler getFrameScheduler() {
+        return this.frameScheduler;
+    }
+
+    /**
+     * @return The runtime counters of this terminal. They are always collected.
+     */
+    public TerminalMetrics getMetrics() {
+        return this.metrics;
+    }
+
+    /**
+     * Register the metrics as an MBean on the platform MBean server, with the object name
+     * "CRTerm:type=Terminal,name=[name]". It gets unregistered by close().
+     *
+     * @param name Distinguishes the terminals of the process.
+     * @throws Exception Registration errors of JMX.
+     */
+    public void registerMetrics(String name) throws Exception {
+        this.metrics.register(name);
+    }
+
+    /**
+     * Change the color of the characters. Takes effect in the next frame; the characters already
+     * fading out keep their color. (The font atlas holds only the coverage, so this costs nothing.)
+     *
+     * @param color RGB font color. Example: 0x70fe80 (green), 0xffb000 (amber), 0xe0e0e0 (white)
+     */
+    public void setColor(int color) {
+        this.color = color & 0xffffff;
+        this.glState.programUniform3f(this.fontPipeline.getProgramID(), this.uniform_fontColor,
+                ((color >> 16) & 0xff) / 255f, ((color >> 8) & 0xff) / 255f, (color & 0xff) / 255f);
+    }
+
+    /**
+     * @return RGB font color.
+     */
+    public int getColor() {
+        return this.color;
+    }
+
+    /**
+     * Change the size of the character grid. Only the character store and the mesh of the grid are
+     * rebuilt; the window, the font, the framebuffers and the effects are kept. The first change away
+     * from the initial size links a size-independent font program (from the program cache, if it's there),
+     * after that a change takes about a millisecond. The duration is in the metrics.
+     *
+     * The array returned by getCharacterArray() is replaced; get it again after the call.
+     *
+     * @param columns Horizontal character count.
+     * @param rows Vertical character count.
+     * @param reflow True to rewrap the lines at the new width, keeping the bottom of the text if it doesn't fit.
+     *               False to keep the top-left corner, and cut off or pad the rest.
+     * @throws Exception If the size is out of range, a shared screen or a recorder is attached, or on shader errors.
+     */
+    public void setGridSize(int columns, int rows, boolean reflow) throws Exception {
+        if (columns < 1 || rows < 1 || columns * rows > 4096) {
+            throw new Exception("The number of characters has to be between 1 and 4096. Please change the 'columns' or the 'rows' parameter.");
+        }
+
+        if (this.sharedScreen != null) {
+            throw new Exception("The shared screen has a fixed size. Detach it before changing the grid size.");
+        }
+
+        if (this.recorder != null) {
+            throw new Exception("The recording has a fixed size. Stop it before changing the grid size.");
+        }
+
+        if (columns == this.columns && rows == this.rows) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        Events.GridResize event = new Events.GridResize();
+        event.columns = columns;
+        event.rows = rows;
+        event.reflow = reflow;
+        event.begin();
+
+        Pipeline pipeline = this.getFontPipeline(columns, rows);
+
+        this.characters.resize(columns, rows, pipeline.getProgramID(), reflow);
+        this.grid.setDimensions(pipeline.getProgramID(), columns, rows);
+        this.columns = columns;
+        this.rows = rows;
+
+        this.fontPipeline = pipeline;
+        this.setupFontPipeline();
+        this.setColor(this.color);
+        this.phosphor.setRows(rows);
+        this.metrics.recordUpload(columns * rows);
+        this.markInput(System.nanoTime());
+
+        event.commit();
+        this.metrics.recordGridResize(System.nanoTime() - start);
+    }
+
+    /**
+     * @return Horizontal character count.
+     */
+    public int getColumns() {
+        return this.columns;
+    }
+
+    /**
+     * @return Vertical character count.
+     */
+    public int getRows() {
+        return this.rows;
+    }
+
+    /**
+     * Take the characters from a shared screen, written by other processes. The changed rows are
+     * copied and uploaded at the start of each frame. The other character functions still work,
+     * but their changes are overwritten by the next change of the same rows in the shared screen.
+     * The shared screen isn't closed by the Terminal.
+     *
+     * @param sharedScreen A shared screen of the same size, or null to detach.
+     * @throws Exception If the size of the shared screen is different.
+     */
+    public void setSharedScreen(SharedScreen sharedScreen) throws Exception {
+        if (sharedScreen != null && (sharedScreen.getColumns() != this.columns || sharedScreen.getRows() != this.rows)) {
+            throw new Exception("The size of the shared screen doesn't match the Terminal.");
+        }
 
-        while (System.nanoTime() - this.lastFrameTime < frameTime) {
-            Thread.sleep(1L);
+        if (sharedScreen != null && sharedScreen.readAll(this.characters.getArray())) {
+            this.uploadCharacterArray();
         }
 
-        this.lastFrameTime = System.nanoTime();
+        this.sharedScreen = sharedScreen;
+    }
+
+    /**
+     * @return The attached shared screen, or null.
+     */
+    public SharedScreen getSharedScreen() {
+        return this.sharedScreen;
+    }
+
+    /**
+     * Record the screen changes into a file. The changes made between two frames are recorded together,
+     * with the time of the next renderFrame(). The recorder isn't closed by the Terminal.
+     *
+     * @param recorder Target recording, or null to stop recording.
+     */
+    public void setRecorder(SessionRecorder recorder) {
+        this.recorder = recorder;
+        this.recordPending = recorder != null;
+    }
+
+    /**
+     * @return The active recorder, or null.
+     */
+    public SessionRecorder getRecorder() {
+        return this.recorder;
     }
 
     /**
@@ -406,6 +1550,10 @@ public class Terminal {
      */
     public void uploadCharacterArray() {
         this.characters.uploadCharacters();
+        this.metrics.recordUpload(this.columns * this.rows);
+        this.phosphor.markChanged();
+        this.recordPending = true;
+        this.markInput(System.nanoTime());
     }
 
     /**
@@ -415,6 +1563,10 @@ public class Terminal {
      */
     public void setCharacters(char[] characters) {
         this.characters.setCharacters(characters);
+        this.metrics.recordUpload(this.columns * this.rows);
+        this.phosphor.markChanged();
+        this.recordPending = true;
+        this.markInput(System.nanoTime());
     }
 
     /**
@@ -426,6 +1578,10 @@ public class Terminal {
      */
     public void setCharacters(int x, int y, char[] characters) {
         this.characters.setCharacters(x, y, characters);
+        this.metrics.recordUpload(this.columns * this.rows);
+        this.phosphor.markChanged();
+        this.recordPending = true;
+        this.markInput(System.nanoTime());
     }
 
     /**
@@ -433,6 +1589,7 @@ public class Terminal {
      */
     public void scrollUp() {
         this.characters.scrollUp();
+        this.recordPending = true;
     }
 
     /**
@@ -440,5 +1597,6 @@ public class Terminal {
      */
     public void rotateUp() {
         this.characters.rotateUp();
+        this.recordPending = true;
     }
 }
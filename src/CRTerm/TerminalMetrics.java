@@ -0,0 +1,522 @@
+/*
+Copyright 2017 Tamas Bolner
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package CRTerm;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+
+
+/**
+ * Runtime counters of a Terminal. They are always collected; the counters are
+ * striped (LongAdder), so updating them costs about as much as a plain increment.
+ * Can be registered as an MBean for JMX (and through it, Prometheus) scraping.
+ */
+public class TerminalMetrics implements TerminalMetricsMBean {
+    // Milliseconds. Slightly above the frame times of 144, 120, 60 and 30 Hz.
+    private static final double[] HISTOGRAM_BOUNDS = { 1, 2, 4, 7.5, 9, 12, 17.5, 25, 34, 50, 100, Double.POSITIVE_INFINITY };
+
+    /**
+     * The item names of the cumulative histogram for JMX. ("le_7_5" = frames up to 7.5 ms)
+     */
+    private static final String[] HISTOGRAM_ITEMS = { "le_1", "le_2", "le_4", "le_7_5", "le_9", "le_12", "le_17_5",
+            "le_25", "le_34", "le_50", "le_100", "le_inf" };
+    private static final CompositeType HISTOGRAM_TYPE = histogramType();
+
+    private LongAdder framesRendered = new LongAdder();
+    private LongAdder framesSkipped = new LongAdder();
+    private LongAdder missedDeadlines = new LongAdder();
+    private LongAdder frameTimeSum = new LongAdder();
+    private LongAdder frameTimeCount = new LongAdder();
+    private LongAdder[] histogram = new LongAdder[HISTOGRAM_BOUNDS.length];
+    private LongAdder uploadCalls = new LongAdder();
+    private LongAdder uploadedCells = new LongAdder();
+    private LongAdder uploadedBytes = new LongAdder();
+    private LongAdder resizeCount = new LongAdder();
+    private LongAdder resizeTime = new LongAdder();
+    private volatile long framebufferMemory = 0;
+    private volatile long startupTime = 0;
+    private volatile long timeToFirstFrame = 0;
+    private Map<String, Long> startupPhases = new LinkedHashMap<String, Long>();
+    private LongAdder programLinkTime = new LongAdder();
+    private LongAdder programCacheHits = new LongAdder();
+    private LongAdder programCacheMisses = new LongAdder();
+    private LongAdder glCalls = new LongAdder();
+    private LongAdder glCallsSkipped = new LongAdder();
+    private volatile long glCallsLastFrame = 0;
+    private volatile long glCallsSkippedLastFrame = 0;
+    private volatile int qualityLevel = QualityGovernor.DEFAULT_LEVEL;
+    private LongAdder qualityLevelChanges = new LongAdder();
+    private LongAdder inputLatencySum = new LongAdder();
+    private LongAdder inputLatencyCount = new LongAdder();
+    private volatile long inputLatencyLast = 0;
+    private LongAdder fenceWaitTime = new LongAdder();
+    private LongAdder gridResizeCount = new LongAdder();
+    private volatile long gridResizeTimeLast = 0;
+    private ObjectName objectName = null;
+
+    private static CompositeType histogramType() {
+        OpenType<?>[] types = new OpenType<?>[HISTOGRAM_ITEMS.length];
+        Arrays.fill(types, SimpleType.LONG);
+
+        try {
+            return new CompositeType("FrameTimeHistogram", "Cumulative frame time counts by upper bound (milliseconds)",
+                    HISTOGRAM_ITEMS, HISTOGRAM_ITEMS, types);
+        } catch (OpenDataException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    TerminalMetrics() {
+        for (int i = 0; i < this.histogram.length; i++) {
+            this.histogram[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Register as an MBean on the platform MBean server, with the object name
+     * "CRTerm:type=Terminal,name=[name]".
+     *
+     * @param name Distinguishes the terminals of the process.
+     * @throws Exception Registration errors of JMX.
+     */
+    void register(String name) throws Exception {
+        this.unregister();
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName objectName = new ObjectName("CRTerm:type=Terminal,name=" + ObjectName.quote(name));
+        server.registerMBean(this, objectName);
+        this.objectName = objectName;
+    }
+
+    /**
+     * Remove the MBean from the platform MBean server, if it was registered.
+     */
+    void unregister() {
+        if (this.objectName == null) {
+            return;
+        }
+
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(this.objectName);
+        } catch (Exception ex) {
+            // Already unregistered
+        }
+
+        this.objectName = null;
+    }
+
+    void recordFrameRendered() {
+        this.framesRendered.increment();
+    }
+
+    void recordFrameSkipped() {
+        this.framesSkipped.increment();
+    }
+
+    void recordMissedDeadlines(long count) {
+        if (count > 0) {
+            this.missedDeadlines.add(count);
+        }
+    }
+
+    /**
+     * @param nanos Time between two buffer swaps.
+     */
+    void recordFrameTime(long nanos) {
+        double millis = nanos / 1e6;
+        int i = 0;
+
+        while (millis > HISTOGRAM_BOUNDS[i]) {
+            i++;
+        }
+
+        this.histogram[i].increment();
+        this.frameTimeSum.add(nanos);
+        this.frameTimeCount.increment();
+    }
+
+    /**
+     * @param cells The number of characters uploaded.
+     */
+    void recordUpload(int cells) {
+        this.uploadCalls.increment();
+        this.uploadedCells.add(cells);
+        this.uploadedBytes.add(cells * 4L);
+    }
+
+    /**
+     * @param framebufferMemory The memory used by the offscreen framebuffers after the resize, in bytes.
+     * @param nanos Time of the reallocation of the framebuffers.
+     */
+    void recordResize(long framebufferMemory, long nanos) {
+        this.resizeCount.increment();
+        this.resizeTime.add(nanos);
+        this.framebufferMemory = framebufferMemory;
+    }
+
+    /**
+     * @param framebufferMemory The memory used by the offscreen framebuffers, in bytes.
+     */
+    void setFramebufferMemory(long framebufferMemory) {
+        this.framebufferMemory = framebufferMemory;
+    }
+
+    /**
+     * @param nanos Duration of the constructor of the Terminal.
+     */
+    void setStartupTime(long nanos) {
+        this.startupTime = nanos;
+    }
+
+    /**
+     * @param nanos Time from the start of the constructor of the Terminal until the first swapBuffers().
+     */
+    void setTimeToFirstFrame(long nanos) {
+        this.timeToFirstFrame = nanos;
+    }
+
+    /**
+     * Record the duration of a step of the startup. Thread-safe; the background
+     * tasks of the startup record their own phases.
+     *
+     * @param name Name of the phase. The phases are reported in the order of their first recording.
+     * @param nanos Duration of the phase.
+     */
+    void recordStartupPhase(String name, long nanos) {
+        synchronized (this.startupPhases) {
+            this.startupPhases.merge(name, nanos, Long::sum);
+        }
+    }
+
+    /**
+     * @param cached True if the program was loaded from the program binary cache.
+     * @param nanos Time of the compilation and linking, or of the loading.
+     */
+    void recordProgramLink(boolean cached, long nanos) {
+        (cached ? this.programCacheHits : this.programCacheMisses).increment();
+        this.programLinkTime.add(nanos);
+    }
+
+    /**
+     * @param nanos Time from the first input of a frame until the GPU has finished it.
+     */
+    void recordInputLatency(long nanos) {
+        this.inputLatencySum.add(nanos);
+        this.inputLatencyCount.increment();
+        this.inputLatencyLast = nanos;
+    }
+
+    /**
+     * @param nanos Time the CPU waited for an earlier frame in low-latency mode.
+     */
+    void recordFenceWait(long nanos) {
+        this.fenceWaitTime.add(nanos);
+    }
+
+    /**
+     * @param nanos Duration of a setGridSize() call.
+     */
+    void recordGridResize(long nanos) {
+        this.gridResizeCount.increment();
+        this.gridResizeTimeLast = nanos;
+    }
+
+    /**
+     * @param calls The OpenGL calls issued since the previous frame. (Including the uploads between the frames.)
+     * @param skipped The redundant state changes skipped since the previous frame.
+     */
+    void recordGLCalls(long calls, long skipped) {
+        this.glCalls.add(calls);
+        this.glCallsSkipped.add(skipped);
+        this.glCallsLastFrame = calls;
+        this.glCallsSkippedLastFrame = skipped;
+    }
+
+    /**
+     * @param level The quality level selected by the governor or by the application.
+     */
+    void recordQualityLevel(int level) {
+        if (level != this.qualityLevel) {
+            this.qualityLevelChanges.increment();
+        }
+
+        this.qualityLevel = level;
+    }
+
+    @Override
+    public long getFramesRendered() {
+        return this.framesRendered.sum();
+    }
+
+    @Override
+    public long getFramesSkipped() {
+        return this.framesSkipped.sum();
+    }
+
+    @Override
+    public long getMissedDeadlines() {
+        return this.missedDeadlines.sum();
+    }
+
+    @Override
+    public double getFrameTimeAverageMillis() {
+        long count = this.frameTimeCount.sum();
+
+        return count == 0 ? 0 : this.frameTimeSum.sum() / 1e6 / count;
+    }
+
+    /**
+     * @return The upper bounds of the histogram buckets in milliseconds. The last one is infinity.
+     */
+    @Override
+    public double[] getFrameTimeHistogramBoundsMillis() {
+        return HISTOGRAM_BOUNDS.clone();
+    }
+
+    /**
+     * @return The number of frame times in each histogram bucket. (Not cumulative.)
+     */
+    @Override
+    public long[] getFrameTimeHistogramCounts() {
+        long[] result = new long[this.histogram.length];
+
+        for (int i = 0; i < result.length; i++) {
+            result[i] = this.histogram[i].sum();
+        }
+
+        return result;
+    }
+
+    /**
+     * @return The histogram as a composite of cumulative counts ("le_1" ... "le_inf"), like a Prometheus histogram.
+     *      The JMX exporters flatten it into one scalar per bucket; they skip the array attributes.
+     */
+    @Override
+    public CompositeData getFrameTimeHistogram() {
+        Object[] values = new Object[this.histogram.length];
+        long count = 0;
+
+        for (int i = 0; i < values.length; i++) {
+            count += this.histogram[i].sum();
+            values[i] = count;
+        }
+
+        try {
+            return new CompositeDataSupport(HISTOGRAM_TYPE, HISTOGRAM_ITEMS, values);
+        } catch (OpenDataException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    @Override
+    public long getFrameTimeCount() {
+        return this.frameTimeCount.sum();
+    }
+
+    @Override
+    public double getFrameTimeSumMillis() {
+        return this.frameTimeSum.sum() / 1e6;
+    }
+
+    @Override
+    public long getUploadCalls() {
+        return this.uploadCalls.sum();
+    }
+
+    @Override
+    public long getUploadedCells() {
+        return this.uploadedCells.sum();
+    }
+
+    @Override
+    public long getUploadedBytes() {
+        return this.uploadedBytes.sum();
+    }
+
+    @Override
+    public long getResizeCount() {
+        return this.resizeCount.sum();
+    }
+
+    /**
+     * @return The average time of the framebuffer reallocations after a window resize.
+     *      (Without the pause of renderFrame() after a resize.)
+     */
+    @Override
+    public double getResizeTimeAverageMillis() {
+        long count = this.resizeCount.sum();
+
+        return count > 0 ? this.resizeTime.sum() / 1e6 / count : 0;
+    }
+
+    @Override
+    public long getFramebufferMemoryBytes() {
+        return this.framebufferMemory;
+    }
+
+    @Override
+    public double getStartupTimeMillis() {
+        return this.startupTime / 1e6;
+    }
+
+    /**
+     * @return Time from the start of the constructor of the Terminal until the first frame was swapped. 0 = not yet.
+     */
+    @Override
+    public double getTimeToFirstFrameMillis() {
+        return this.timeToFirstFrame / 1e6;
+    }
+
+    /**
+     * @return The durations of the startup phases in milliseconds, in the order they were recorded.
+     *      The background phases overlap with the others.
+     */
+    public Map<String, Double> getStartupPhases() {
+        Map<String, Double> result = new LinkedHashMap<String, Double>();
+
+        synchronized (this.startupPhases) {
+            for (Map.Entry<String, Long> phase : this.startupPhases.entrySet()) {
+                result.put(phase.getKey(), phase.getValue() / 1e6);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * @return The startup phases as text, one "name: milliseconds" line each, followed by the totals.
+     */
+    @Override
+    public String getStartupReport() {
+        StringBuilder report = new StringBuilder();
+
+        for (Map.Entry<String, Double> phase : this.getStartupPhases().entrySet()) {
+            report.append(String.format(Locale.ROOT, "%s: %.3f ms%n", phase.getKey(), phase.getValue()));
+        }
+
+        report.append(String.format(Locale.ROOT, "startup: %.3f ms%n", this.getStartupTimeMillis()));
+        report.append(String.format(Locale.ROOT, "time to first frame: %.3f ms%n", this.getTimeToFirstFrameMillis()));
+
+        return report.toString();
+    }
+
+    /**
+     * @return The total time spent on getting the shader programs ready, compiled or from the cache.
+     */
+    @Override
+    public double getProgramLinkTimeMillis() {
+        return this.programLinkTime.sum() / 1e6;
+    }
+
+    @Override
+    public long getProgramCacheHits() {
+        return this.programCacheHits.sum();
+    }
+
+    @Override
+    public long getProgramCacheMisses() {
+        return this.programCacheMisses.sum();
+    }
+
+    @Override
+    public long getGLCalls() {
+        return this.glCalls.sum();
+    }
+
+    @Override
+    public long getGLCallsSkipped() {
+        return this.glCallsSkipped.sum();
+    }
+
+    /**
+     * @return The OpenGL calls issued for the last rendered frame, through the state cache of the Terminal.
+     */
+    @Override
+    public long getGLCallsLastFrame() {
+        return this.glCallsLastFrame;
+    }
+
+    /**
+     * @return The redundant binds and program switches skipped in the last rendered frame.
+     */
+    @Override
+    public long getGLCallsSkippedLastFrame() {
+        return this.glCallsSkippedLastFrame;
+    }
+
+    /**
+     * @return Index in QualityGovernor.LEVELS. 0 = best quality.
+     */
+    @Override
+    public int getQualityLevel() {
+        return this.qualityLevel;
+    }
+
+    @Override
+    public long getQualityLevelChanges() {
+        return this.qualityLevelChanges.sum();
+    }
+
+    /**
+     * @return The average time from the first input of a frame until the GPU has finished it.
+     */
+    @Override
+    public double getInputLatencyAverageMillis() {
+        long count = this.inputLatencyCount.sum();
+
+        return count > 0 ? this.inputLatencySum.sum() / 1e6 / count : 0;
+    }
+
+    @Override
+    public double getInputLatencyLastMillis() {
+        return this.inputLatencyLast / 1e6;
+    }
+
+    /**
+     * @return The total time the CPU waited for earlier frames in low-latency mode.
+     */
+    @Override
+    public double getFenceWaitTimeMillis() {
+        return this.fenceWaitTime.sum() / 1e6;
+    }
+
+    @Override
+    public long getGridResizeCount() {
+        return this.gridResizeCount.sum();
+    }
+
+    /**
+     * @return Duration of the last change of the grid size. The first change away from the initial size includes
+     *      the link of the size-independent font program.
+     */
+    @Override
+    public double getGridResizeTimeLastMillis() {
+        return this.gridResizeTimeLast / 1e6;
+    }
+}
@@ -0,0 +1,58 @@
+/*
+Copyright 2017 Tamas Bolner
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package CRTerm;
+
+import javax.management.openmbean.CompositeData;
+
+
+/**
+ * The JMX management interface of TerminalMetrics.
+ */
+public interface TerminalMetricsMBean {
+    long getFramesRendered();
+    long getFramesSkipped();
+    long getMissedDeadlines();
+    double getFrameTimeAverageMillis();
+    double[] getFrameTimeHistogramBoundsMillis();
+    long[] getFrameTimeHistogramCounts();
+    CompositeData getFrameTimeHistogram();
+    long getFrameTimeCount();
+    double getFrameTimeSumMillis();
+    long getUploadCalls();
+    long getUploadedCells();
+    long getUploadedBytes();
+    long getResizeCount();
+    double getResizeTimeAverageMillis();
+    long getFramebufferMemoryBytes();
+    double getStartupTimeMillis();
+    double getTimeToFirstFrameMillis();
+    String getStartupReport();
+    double getProgramLinkTimeMillis();
+    long getProgramCacheHits();
+    long getProgramCacheMisses();
+    long getGLCalls();
+    long getGLCallsSkipped();
+    long getGLCallsLastFrame();
+    long getGLCallsSkippedLastFrame();
+    int getQualityLevel();
+    long getQualityLevelChanges();
+    double getInputLatencyAverageMillis();
+    double getInputLatencyLastMillis();
+    double getFenceWaitTimeMillis();
+    long getGridResizeCount();
+    double getGridResizeTimeLastMillis();
+}
@@ -30,14 +30,14 @@ public class Main {
             term = new Terminal(80, 25, 0x00FF00, 0.6d, 0.25d, 0.8d, 1.9d);
             term.setCharacters(Main.testText.toCharArray());
             term.uploadCharacterArray();
+            term.setFrameScheduling(FrameScheduler.Mode.HYBRID, 60);
 
             long counter = 0;
 
             while(true) {
                 term.renderFrame();
 
-                term.keepFPS(60);   // This should be called directly before the glfwSwapBuffers function.
-                glfwSwapBuffers(term.getWindowID());
+                term.swapBuffers();
 
                 /*
                     Handle events
@@ -0,0 +1,101 @@
+/*
+Copyright 2017 Tamas Bolner
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package TestApp;
+
+import CRTerm.*;
+import static org.lwjgl.glfw.GLFW.*;
+
+
+/**
+ * Example for the managed run mode. The rendering runs on its own thread,
+ * this thread only handles the input and updates the characters.
+ * Typed characters are echoed, Enter starts a new line, F1 toggles the
+ * performance overlay, Escape quits.
+ */
+public class ManagedMain {
+    private static final int COLUMNS = 80;
+    private static final int ROWS = 25;
+
+    public static void main(String[] args) {
+        ManagedTerminal term = null;
+
+        try {
+            term = new ManagedTerminal(COLUMNS, ROWS, 0x00FF00, 0.6d, 0.25d, 0.8d, 1.9d);
+
+            int x = 0;
+            int y = 0;
+            InputEvent event;
+
+            while (term.isRunning()) {
+                while ((event = term.pollInput()) != null) {
+                    if (event.getType() == InputEvent.Type.CHARACTER && event.getCodepoint() < 128) {
+                        int column = x;
+                        int row = y;
+                        char[] typed = { (char)event.getCodepoint() };
+
+                        term.submit(event.getTime(), terminal -> terminal.setCharacters(column, row, typed));
+                        x++;
+                    } else if (event.getType() == InputEvent.Type.KEY && event.getAction() == GLFW_PRESS) {
+                        if (event.getKey() == GLFW_KEY_ESCAPE) {
+                            term.close();
+                            break;
+                        }
+
+                        if (event.getKey() == GLFW_KEY_ENTER) {
+                            x = COLUMNS;
+                        }
+
+                        if (event.getKey() == GLFW_KEY_F1) {
+                            term.submit(event.getTime(), terminal -> terminal.setHudVisible(!terminal.isHudVisible()));
+                        }
+                    }
+
+                    if (x >= COLUMNS) {
+                        x = 0;
+                        y++;
+                    }
+
+                    if (y >= ROWS) {
+                        y = ROWS - 1;
+                        term.submit(event.getTime(), terminal -> {
+                            terminal.scrollUp();
+                            terminal.uploadCharacterArray();
+                        });
+                    }
+                }
+
+                /*
+                    Slow application logic doesn't stall the frames.
+                 */
+                Thread.sleep(20);
+            }
+
+            RollingStatistics latency = term.getInputLatency();
+            System.out.println(String.format("Input to frame: avg %.2f ms, p99 %.2f ms",
+                    latency.getAverage() / 1e6, latency.getPercentile(99) / 1e6));
+
+            if (term.getError() != null) {
+                System.out.println(term.getError().getMessage());
+            }
+
+            term.close();
+        } catch (Exception ex) {
+            System.out.println(ex.getMessage());
+            System.exit(-1);
+        }
+    }
+}
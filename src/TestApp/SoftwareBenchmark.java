@@ -0,0 +1,81 @@
+/*
+Copyright 2017 Tamas Bolner
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package TestApp;
+
+import CRTerm.*;
+import java.io.File;
+import java.util.Arrays;
+import javax.imageio.ImageIO;
+
+
+/**
+ * Measures the frame times of the software renderer at 1080p.
+ * Optional argument: the path of a PNG file, where the last frame gets written.
+ */
+public class SoftwareBenchmark {
+    private static final int WIDTH = 1920;
+    private static final int HEIGHT = 1080;
+    private static final int WARMUP_FRAMES = 30;
+    private static final int FRAMES = 100;
+
+    public static void main(String[] args) {
+        try {
+            run(80, 25, null);
+            run(200, 60, args.length > 0 ? args[0] : null);
+        } catch (Exception ex) {
+            System.out.println(ex.getMessage());
+            System.exit(-1);
+        }
+    }
+
+    private static void run(int columns, int rows, String imagePath) throws Exception {
+        SoftwareRenderer renderer = new SoftwareRenderer(columns, rows, 0x00FF00, 0.6d, 0.25d, 0.8d, 1.9d, 0);
+        char[] text = new char[columns * rows];
+        long[] times = new long[FRAMES];
+
+        for (int i = 0; i < text.length; i++) {
+            text[i] = (char)(33 + i % 94);
+        }
+        renderer.setCharacters(text);
+
+        for (int i = 0; i < WARMUP_FRAMES + FRAMES; i++) {
+            long start = System.nanoTime();
+            renderer.renderFrame(WIDTH, HEIGHT);
+
+            if (i >= WARMUP_FRAMES) {
+                times[i - WARMUP_FRAMES] = System.nanoTime() - start;
+            }
+
+            renderer.rotateUp();
+        }
+
+        if (imagePath != null) {
+            ImageIO.write(renderer.getImage(), "png", new File(imagePath));
+        }
+
+        renderer.close();
+        Arrays.sort(times);
+
+        System.out.println(String.format("%dx%d @ %dx%d: avg %.2f ms, p50 %.2f ms, p99 %.2f ms, min %.2f ms",
+                columns, rows, WIDTH, HEIGHT,
+                Arrays.stream(times).average().orElse(0) / 1e6,
+                times[FRAMES / 2] / 1e6,
+                times[FRAMES * 99 / 100] / 1e6,
+                times[0] / 1e6
+        ));
+    }
+}